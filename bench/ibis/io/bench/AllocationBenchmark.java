@@ -0,0 +1,213 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.DataOutputStream;
+import ibis.io.DataSerializationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the flushing of a segregated
+ * {@link DataSerializationOutputStream} on top of a lower layer that, like
+ * an asynchronous network layer, is not <code>finished()</code> until
+ * <code>finish()</code> is called. Each operation writes a message of
+ * primitives that fills the typed buffers one or more times, and flushes
+ * it. In the steady state the stream should allocate nothing, which is
+ * best seen by running with <code>-prof gc</code>, as long as the buffer
+ * sets a message needs fit in the pool; <code>pool16()</code> shows the
+ * large message with a larger pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+
+    /** A sink that discards all data. */
+    private static final class NullSink extends OutputStream {
+        public void write(int b) {
+            // discard
+        }
+
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    }
+
+    /**
+     * A lower layer that holds on to the data written to it until
+     * <code>finish()</code> is called.
+     */
+    private static final class DeferredOutputStream extends DataOutputStream {
+        private final DataOutputStream out;
+
+        private boolean finished = true;
+
+        DeferredOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        public long bytesWritten() {
+            return out.bytesWritten();
+        }
+
+        public void resetBytesWritten() {
+            out.resetBytesWritten();
+        }
+
+        public boolean finished() {
+            return finished;
+        }
+
+        public void finish() throws IOException {
+            out.flush();
+            finished = true;
+        }
+
+        public void flush() throws IOException {
+            finished = false;
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+
+        public int bufferSize() {
+            return out.bufferSize();
+        }
+
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        public void writeBoolean(boolean value) throws IOException {
+            out.writeBoolean(value);
+        }
+
+        public void writeByte(byte value) throws IOException {
+            out.writeByte(value);
+        }
+
+        public void writeChar(char value) throws IOException {
+            out.writeChar(value);
+        }
+
+        public void writeShort(short value) throws IOException {
+            out.writeShort(value);
+        }
+
+        public void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        public void writeLong(long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        public void writeFloat(float value) throws IOException {
+            out.writeFloat(value);
+        }
+
+        public void writeDouble(double value) throws IOException {
+            out.writeDouble(value);
+        }
+
+        public void writeArray(boolean[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+
+        public void writeArray(byte[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+
+        public void writeArray(char[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+
+        public void writeArray(short[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+
+        public void writeArray(int[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+
+        public void writeArray(long[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+
+        public void writeArray(float[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+
+        public void writeArray(double[] source, int offset, int length)
+                throws IOException {
+            out.writeArray(source, offset, length);
+        }
+    }
+
+    @Param({ "16384" })
+    public int bufferSize;
+
+    @Param({ "256", "8192" })
+    public int count;
+
+    private DataSerializationOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        out = new DataSerializationOutputStream(new DeferredOutputStream(
+                new BufferedArrayOutputStream(new NullSink(), bufferSize)));
+        out.setMode(DataSerializationOutputStream.SEGREGATED);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        out.close();
+    }
+
+    /** Writes a message of ints, longs and doubles, and flushes it. */
+    @Benchmark
+    public void flush() throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.writeInt(i);
+            out.writeLong(i);
+            out.writeDouble(i);
+        }
+        out.flush();
+    }
+
+    /** The same, with room for 16 buffer sets in the pool. */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dibis.io.buffer.pool=16")
+    public void pool16() throws IOException {
+        flush();
+    }
+}
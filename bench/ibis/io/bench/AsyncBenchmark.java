@@ -0,0 +1,111 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.AsyncBufferedArrayOutputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.DataOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link AsyncBufferedArrayOutputStream} with
+ * {@link BufferedArrayOutputStream} on a throttled sink, which blocks
+ * for a fixed time per kilobyte written, like a slow network link. Each
+ * operation computes and writes a record of doubles, so that the
+ * asynchronous stream can overlap the computation with the blocking
+ * writes. With a throttle of 0 the sink does not block, which shows the
+ * overhead of the hand-off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncBenchmark {
+
+    /** A sink that discards data after blocking for a while. */
+    private static final class ThrottledSink extends OutputStream {
+        private final long nanosPerKB;
+
+        ThrottledSink(long nanosPerKB) {
+            this.nanosPerKB = nanosPerKB;
+        }
+
+        public void write(int b) {
+            // discard
+        }
+
+        public void write(byte[] b, int off, int len) {
+            if (nanosPerKB > 0) {
+                LockSupport.parkNanos(len * nanosPerKB / 1024);
+            }
+        }
+    }
+
+    @Param({ "async", "buffered" })
+    public String stream;
+
+    @Param({ "0", "20000" })
+    public long nanosPerKB;
+
+    @Param({ "65536" })
+    public int bufferSize;
+
+    @Param({ "4" })
+    public int buffers;
+
+    @Param({ "1024" })
+    public int size;
+
+    private double[] doubles;
+
+    private DataOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        doubles = new double[size];
+        OutputStream sink = new ThrottledSink(nanosPerKB);
+        if (stream.equals("async")) {
+            out = new AsyncBufferedArrayOutputStream(sink, bufferSize,
+                    buffers);
+        } else {
+            out = new BufferedArrayOutputStream(sink, bufferSize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        out.close();
+    }
+
+    /** Computes a record and writes it, without flushing. */
+    @Benchmark
+    public void write() throws IOException {
+        double d = doubles[size - 1];
+        for (int i = 0; i < size; i++) {
+            d = Math.sin(d) + i;
+            doubles[i] = d;
+        }
+        out.writeInt(size);
+        out.writeArray(doubles, 0, size);
+    }
+}
@@ -0,0 +1,72 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.Conversion;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of the byte order of a stream for
+ * <code>double[]</code>: encodes and decodes an array with the conversion
+ * that the buffered streams select for a little-endian and for a
+ * big-endian stream, as announced by the byte-order header. When the
+ * order matches the native order, the conversion is a plain copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteOrderBenchmark {
+
+    @Param({ "little", "big" })
+    public String order;
+
+    @Param({ "16", "1024", "131072" })
+    public int size;
+
+    private Conversion conv;
+
+    private byte[] bytes;
+
+    private double[] doubles;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        conv = Conversion.loadConversion(order.equals("big"));
+        bytes = new byte[size * Conversion.DOUBLE_SIZE];
+        doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+            doubles[i] = i * 0.5;
+        }
+    }
+
+    /** Encodes the array, as a writer does. */
+    @Benchmark
+    public byte[] write() {
+        conv.double2byte(doubles, 0, size, bytes, 0);
+        return bytes;
+    }
+
+    /** Decodes the array, as a reader does. */
+    @Benchmark
+    public double[] read() {
+        conv.byte2double(bytes, 0, doubles, 0, size);
+        return doubles;
+    }
+}
@@ -0,0 +1,186 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.ChannelDataInputStream;
+import ibis.io.ChannelDataOutputStream;
+import ibis.io.DataInputStream;
+import ibis.io.DataOutputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the channel-based data streams with the byte array streams
+ * over the same channel, for a file and for a pipe. Each operation
+ * writes, or reads, a <code>double[]</code> of the selected size and a
+ * few primitives. For a pipe, a helper thread drains the pipe when
+ * writing and fills it when reading, so the pipe itself is never the
+ * bottleneck.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelBenchmark {
+
+    /** The file is rewound when it grows beyond this size. */
+    private static final long FILE_LIMIT = 64 * 1024 * 1024;
+
+    @Param({ "file", "pipe" })
+    public String transport;
+
+    @Param({ "channel", "buffered" })
+    public String stream;
+
+    @Param({ "16", "1024", "131072" })
+    public int size;
+
+    @Param({ "16384" })
+    public int bufferSize;
+
+    private double[] doubles;
+
+    private File file;
+
+    private FileOutputStream fileOut;
+
+    private FileChannel fileChannel;
+
+    private Pipe pipe;
+
+    private Thread helper;
+
+    private volatile boolean done;
+
+    private DataOutputStream out;
+
+    private DataInputStream in;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+            doubles[i] = i * 0.5;
+        }
+        done = false;
+
+        if (transport.equals("file")) {
+            file = File.createTempFile("ibis-bench", ".bin");
+            file.deleteOnExit();
+            fileOut = new FileOutputStream(file);
+            fileChannel = fileOut.getChannel();
+            if (stream.equals("channel")) {
+                out = new ChannelDataOutputStream(fileChannel, bufferSize);
+            } else {
+                out = new BufferedArrayOutputStream(fileOut, bufferSize);
+            }
+            return;
+        }
+
+        pipe = Pipe.open();
+        if (stream.equals("channel")) {
+            out = new ChannelDataOutputStream(pipe.sink(), bufferSize);
+            in = new ChannelDataInputStream(pipe.source(), bufferSize);
+        } else {
+            out = new BufferedArrayOutputStream(
+                    Channels.newOutputStream(pipe.sink()), bufferSize);
+            in = new BufferedArrayInputStream(
+                    Channels.newInputStream(pipe.source()), bufferSize);
+        }
+    }
+
+    /**
+     * Starts the helper thread of a pipe: it drains the pipe for the
+     * write benchmark, and fills it for the read benchmark. Any bytes are
+     * valid data for the read benchmark.
+     */
+    private void startHelper(final boolean drain) {
+        if (helper != null) {
+            return;
+        }
+        helper = new Thread("ChannelBenchmark helper") {
+            public void run() {
+                ByteBuffer b = ByteBuffer.allocateDirect(65536);
+                try {
+                    while (! done) {
+                        b.clear();
+                        if (drain) {
+                            pipe.source().read(b);
+                        } else {
+                            pipe.sink().write(b);
+                        }
+                    }
+                } catch (IOException e) {
+                    // pipe closed
+                }
+            }
+        };
+        helper.setDaemon(true);
+        helper.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        done = true;
+        if (fileOut != null) {
+            fileOut.close();
+            file.delete();
+        }
+        if (pipe != null) {
+            pipe.sink().close();
+            pipe.source().close();
+        }
+    }
+
+    /** Writes a message and flushes it to the channel. */
+    @Benchmark
+    public void write() throws IOException {
+        if (pipe != null) {
+            startHelper(true);
+        } else if (fileChannel.position() > FILE_LIMIT) {
+            fileChannel.position(0);
+        }
+        out.writeInt(size);
+        out.writeLong(size);
+        out.writeArray(doubles, 0, size);
+        out.flush();
+    }
+
+    /** Reads a message from a pipe. The file transport only writes. */
+    @Benchmark
+    public double read() throws IOException {
+        if (pipe == null) {
+            return 0;
+        }
+        startHelper(false);
+        in.readInt();
+        in.readLong();
+        in.readArray(doubles, 0, size);
+        return doubles[0];
+    }
+}
@@ -0,0 +1,101 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.Conversion;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures connection churn: every operation sets up what a new
+ * connection needs, uses it for one short message, and drops it. The
+ * <code>conversion</code> benchmark creates a conversion of the selected
+ * class and converts a small array with it, which shows the cost of the
+ * scratch buffers of the nio conversions. The <code>streams</code>
+ * benchmark creates a pair of buffered array streams, with the
+ * conversion selected by <code>ibis.io.conversion</code>, and sends a
+ * message through them. Run with <code>-prof gc</code> to see the
+ * allocation per connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChurnBenchmark {
+
+    @Param({ "ibis.io.nio.HybridChunkLittleConversion",
+            "ibis.io.nio.NioChunkLittleConversion",
+            "ibis.io.nio.NioWrapLittleConversion",
+            "ibis.io.nio.VarHandleLittleConversion",
+            "ibis.io.SimpleLittleConversion" })
+    public String conversion;
+
+    @Param({ "4096" })
+    public int bufferSize;
+
+    private final double[] doubles = new double[64];
+
+    private byte[] bytes;
+
+    private byte[] message;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        bytes = new byte[doubles.length * Conversion.DOUBLE_SIZE];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = i * 0.5;
+        }
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        BufferedArrayOutputStream out
+                = new BufferedArrayOutputStream(b, bufferSize);
+        out.writeInt(doubles.length);
+        out.writeArray(doubles, 0, doubles.length);
+        out.close();
+        message = b.toByteArray();
+    }
+
+    /** Creates a conversion and converts one array in both directions. */
+    @Benchmark
+    public double conversion() throws Exception {
+        Conversion c = Conversion.loadConversion(conversion);
+        c.double2byte(doubles, 0, doubles.length, bytes, 0);
+        c.byte2double(bytes, 0, doubles, 0, doubles.length);
+        return doubles[1];
+    }
+
+    /** Creates a pair of streams and sends a message through them. */
+    @Benchmark
+    public double streams() throws IOException {
+        BufferedArrayOutputStream out = new BufferedArrayOutputStream(
+                new ByteArrayOutputStream(message.length), bufferSize);
+        out.writeInt(doubles.length);
+        out.writeArray(doubles, 0, doubles.length);
+        out.close();
+        BufferedArrayInputStream in = new BufferedArrayInputStream(
+                new ByteArrayInputStream(message), bufferSize);
+        int n = in.readInt();
+        in.readArray(doubles, 0, n);
+        in.close();
+        return doubles[1];
+    }
+}
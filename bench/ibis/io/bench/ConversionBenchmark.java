@@ -0,0 +1,171 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.Conversion;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the array conversions of all {@link Conversion} implementations,
+ * for every primitive type, in both directions, over a range of array
+ * sizes. Run it with <code>ant bench</code>, which writes the results as
+ * CSV. The results are used to choose the default conversion and the
+ * thresholds of the hybrid conversions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({ "ibis.io.SimpleLittleConversion",
+            "ibis.io.SimpleBigConversion",
+            "ibis.io.nio.NioWrapLittleConversion",
+            "ibis.io.nio.NioWrapBigConversion",
+            "ibis.io.nio.NioChunkLittleConversion",
+            "ibis.io.nio.NioChunkBigConversion",
+            "ibis.io.nio.HybridChunkLittleConversion",
+            "ibis.io.nio.HybridChunkBigConversion",
+            "ibis.io.nio.HybridWrapLittleConversion",
+            "ibis.io.nio.HybridWrapBigConversion",
+            "ibis.io.nio.VarHandleLittleConversion",
+            "ibis.io.nio.VarHandleBigConversion" })
+    public String conversion;
+
+    @Param({ "boolean", "char", "short", "int", "long", "float", "double" })
+    public String type;
+
+    @Param({ "1", "4", "16", "64", "256", "1024", "4096", "16384", "65536",
+            "262144", "1048576" })
+    public int size;
+
+    private Conversion conv;
+
+    private byte[] bytes;
+
+    private boolean[] booleans;
+
+    private char[] chars;
+
+    private short[] shorts;
+
+    private int[] ints;
+
+    private long[] longs;
+
+    private float[] floats;
+
+    private double[] doubles;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        conv = Conversion.loadConversion(conversion);
+        bytes = new byte[size * Conversion.DOUBLE_SIZE];
+        if (type.equals("boolean")) {
+            booleans = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                booleans[i] = (i & 1) == 0;
+            }
+            conv.boolean2byte(booleans, 0, size, bytes, 0);
+        } else if (type.equals("char")) {
+            chars = new char[size];
+            for (int i = 0; i < size; i++) {
+                chars[i] = (char) i;
+            }
+            conv.char2byte(chars, 0, size, bytes, 0);
+        } else if (type.equals("short")) {
+            shorts = new short[size];
+            for (int i = 0; i < size; i++) {
+                shorts[i] = (short) i;
+            }
+            conv.short2byte(shorts, 0, size, bytes, 0);
+        } else if (type.equals("int")) {
+            ints = new int[size];
+            for (int i = 0; i < size; i++) {
+                ints[i] = i * 31;
+            }
+            conv.int2byte(ints, 0, size, bytes, 0);
+        } else if (type.equals("long")) {
+            longs = new long[size];
+            for (int i = 0; i < size; i++) {
+                longs[i] = i * 31L;
+            }
+            conv.long2byte(longs, 0, size, bytes, 0);
+        } else if (type.equals("float")) {
+            floats = new float[size];
+            for (int i = 0; i < size; i++) {
+                floats[i] = i * 0.5f;
+            }
+            conv.float2byte(floats, 0, size, bytes, 0);
+        } else {
+            doubles = new double[size];
+            for (int i = 0; i < size; i++) {
+                doubles[i] = i * 0.5;
+            }
+            conv.double2byte(doubles, 0, size, bytes, 0);
+        }
+    }
+
+    /** Converts the array of the selected type to bytes. */
+    @Benchmark
+    public byte[] toBytes() {
+        if (booleans != null) {
+            conv.boolean2byte(booleans, 0, size, bytes, 0);
+        } else if (chars != null) {
+            conv.char2byte(chars, 0, size, bytes, 0);
+        } else if (shorts != null) {
+            conv.short2byte(shorts, 0, size, bytes, 0);
+        } else if (ints != null) {
+            conv.int2byte(ints, 0, size, bytes, 0);
+        } else if (longs != null) {
+            conv.long2byte(longs, 0, size, bytes, 0);
+        } else if (floats != null) {
+            conv.float2byte(floats, 0, size, bytes, 0);
+        } else {
+            conv.double2byte(doubles, 0, size, bytes, 0);
+        }
+        return bytes;
+    }
+
+    /** Converts bytes to the array of the selected type. */
+    @Benchmark
+    public Object fromBytes() {
+        if (booleans != null) {
+            conv.byte2boolean(bytes, 0, booleans, 0, size);
+            return booleans;
+        } else if (chars != null) {
+            conv.byte2char(bytes, 0, chars, 0, size);
+            return chars;
+        } else if (shorts != null) {
+            conv.byte2short(bytes, 0, shorts, 0, size);
+            return shorts;
+        } else if (ints != null) {
+            conv.byte2int(bytes, 0, ints, 0, size);
+            return ints;
+        } else if (longs != null) {
+            conv.byte2long(bytes, 0, longs, 0, size);
+            return longs;
+        } else if (floats != null) {
+            conv.byte2float(bytes, 0, floats, 0, size);
+            return floats;
+        }
+        conv.byte2double(bytes, 0, doubles, 0, size);
+        return doubles;
+    }
+}
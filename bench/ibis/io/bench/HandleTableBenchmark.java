@@ -0,0 +1,125 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the handle tables of ibis serialization: the chained
+ * {@link ibis.io.HandleHash}, and the probing table with and without
+ * cached hashcodes. Each operation writes a message of distinct objects,
+ * half of which are referenced twice, and resets the stream, as a
+ * long-lived stream does after every message. The table is selected per
+ * JVM, so each variant runs in its own fork. A message that is much
+ * smaller than an earlier one shows the cost of clearing a table that
+ * has grown.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HandleTableBenchmark {
+
+    /** A sink that discards all data. */
+    private static final class NullSink extends OutputStream {
+        public void write(int b) {
+            // discard
+        }
+
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    }
+
+    static class Item implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int value;
+
+        Item other;
+
+        Item(int value) {
+            this.value = value;
+        }
+    }
+
+    /** Number of objects in a message. */
+    @Param({ "16", "1024" })
+    public int objects;
+
+    /** Number of objects in a first, large message, or 0. */
+    @Param({ "0", "100000" })
+    public int grown;
+
+    private IbisSerializationOutputStream out;
+
+    private Item[] message;
+
+    private static Item[] message(int n) {
+        Item[] items = new Item[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = new Item(i);
+        }
+        for (int i = 0; i < n; i += 2) {
+            items[i].other = items[n - 1 - i];
+        }
+        return items;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(new NullSink(), 4096));
+        if (grown > 0) {
+            out.writeObject(message(grown));
+            out.reset();
+            out.flush();
+        }
+        message = message(objects);
+    }
+
+    private void write() throws IOException {
+        out.writeObject(message);
+        out.reset();
+        out.flush();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dibis.io.hash.type=chained")
+    public void chained() throws IOException {
+        write();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dibis.io.hash.type=probing")
+    public void probing() throws IOException {
+        write();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "-Dibis.io.hash.type=probing",
+            "-Dibis.io.hash.cache=true" })
+    public void probingCached() throws IOException {
+        write();
+    }
+}
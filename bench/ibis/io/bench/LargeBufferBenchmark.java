@@ -0,0 +1,147 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.DataSerializationInputStream;
+import ibis.io.DataSerializationOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the bulk throughput of the segregated data serialization
+ * streams with 64KB, 1MB and 8MB buffers. The larger buffers need the
+ * extended int header. Each operation writes, or reads, a message of
+ * <code>count</code> doubles and ints, one at a time, so that all of them
+ * go through the typed buffers; multiply the operations per second by
+ * 12 * <code>count</code> bytes for the throughput. The reader reads the
+ * same recorded message over and over again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LargeBufferBenchmark {
+
+    /** A sink that discards all data. */
+    private static final class NullSink extends OutputStream {
+        public void write(int b) {
+            // discard
+        }
+
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    }
+
+    /** A source that repeats the same data forever. */
+    private static final class ReplaySource extends InputStream {
+        private final byte[] data;
+
+        private int index;
+
+        ReplaySource(byte[] data) {
+            this.data = data;
+        }
+
+        public int read() {
+            int b = data[index++] & 0xff;
+            if (index == data.length) {
+                index = 0;
+            }
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            len = Math.min(len, data.length - index);
+            System.arraycopy(data, index, b, off, len);
+            index += len;
+            if (index == data.length) {
+                index = 0;
+            }
+            return len;
+        }
+
+        public int available() {
+            return data.length - index;
+        }
+    }
+
+    @Param({ "65536", "1048576", "8388608" })
+    public int bufferSize;
+
+    @Param({ "1048576" })
+    public int count;
+
+    private DataSerializationOutputStream out;
+
+    private DataSerializationInputStream in;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        out = new DataSerializationOutputStream(new BufferedArrayOutputStream(
+                new NullSink(), bufferSize));
+        out.setMode(DataSerializationOutputStream.SEGREGATED);
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataSerializationOutputStream o = new DataSerializationOutputStream(
+                new BufferedArrayOutputStream(b, bufferSize));
+        o.setMode(DataSerializationOutputStream.SEGREGATED);
+        writeMessage(o);
+        o.close();
+        in = new DataSerializationInputStream(new BufferedArrayInputStream(
+                new ReplaySource(b.toByteArray()), bufferSize));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        out.close();
+    }
+
+    private void writeMessage(DataSerializationOutputStream o)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            o.writeDouble(i);
+            o.writeInt(i);
+        }
+        o.flush();
+    }
+
+    /** Writes a message and flushes it. */
+    @Benchmark
+    public void write() throws IOException {
+        writeMessage(out);
+    }
+
+    /** Reads a message. */
+    @Benchmark
+    public double read() throws IOException {
+        double d = 0;
+        for (int i = 0; i < count; i++) {
+            d += in.readDouble();
+            d += in.readInt();
+        }
+        return d;
+    }
+}
@@ -0,0 +1,97 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.DataOutputStream;
+import ibis.io.IOProperties;
+import ibis.io.MappedDataOutputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares writing a spill file through {@link MappedDataOutputStream}
+ * with writing it through a {@link BufferedArrayOutputStream} on a
+ * <code>FileOutputStream</code>. Each operation writes a
+ * <code>double[]</code> of the selected size and a few primitives. The
+ * file is closed and rewritten when it reaches the file size, so the
+ * cost of mapping, unmapping and truncating is included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappedBenchmark {
+
+    @Param({ "mapped", "file" })
+    public String stream;
+
+    @Param({ "16", "1024", "131072" })
+    public int size;
+
+    @Param({ "67108864" })
+    public long fileSize;
+
+    private double[] doubles;
+
+    private File file;
+
+    private DataOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+            doubles[i] = i * 0.5;
+        }
+        file = File.createTempFile("ibis-bench", ".bin");
+        file.deleteOnExit();
+        open();
+    }
+
+    private void open() throws IOException {
+        if (stream.equals("mapped")) {
+            out = new MappedDataOutputStream(file);
+        } else {
+            out = new BufferedArrayOutputStream(new FileOutputStream(file),
+                    IOProperties.BUFFER_SIZE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        out.close();
+        file.delete();
+    }
+
+    /** Writes a record, starting a new file when the file is full. */
+    @Benchmark
+    public void write() throws IOException {
+        if (out.bytesWritten() > fileSize) {
+            out.close();
+            open();
+        }
+        out.writeInt(size);
+        out.writeLong(size);
+        out.writeArray(doubles, 0, size);
+    }
+}
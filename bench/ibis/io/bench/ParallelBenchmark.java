@@ -0,0 +1,89 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of writing a large <code>double[]</code> to a
+ * <code>BufferedArrayOutputStream</code> with 1, 4 and 16 conversion
+ * threads. The number of threads is read once per JVM, so each variant
+ * runs in its own fork with <code>ibis.io.parallel.threads</code> set;
+ * with 1 thread the array is converted sequentially. The sink discards
+ * the data, so that the conversion is the bottleneck.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParallelBenchmark {
+
+    /** A sink that discards all data. */
+    private static final class NullSink extends OutputStream {
+        public void write(int b) {
+            // discard
+        }
+
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    }
+
+    /** Number of doubles; the default is 64MB of data. */
+    @Param({ "8388608" })
+    public int size;
+
+    private double[] doubles;
+
+    private BufferedArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+            doubles[i] = i * 0.5;
+        }
+        out = new BufferedArrayOutputStream(new NullSink(), 65536);
+    }
+
+    private void write() throws IOException {
+        out.writeArray(doubles, 0, size);
+        out.flush();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dibis.io.parallel.threads=1")
+    public void threads1() throws IOException {
+        write();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dibis.io.parallel.threads=4")
+    public void threads4() throws IOException {
+        write();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dibis.io.parallel.threads=16")
+    public void threads16() throws IOException {
+        write();
+    }
+}
@@ -0,0 +1,137 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.DataInputStream;
+import ibis.io.DataOutputStream;
+import ibis.io.PrefetchingBufferedArrayInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link PrefetchingBufferedArrayInputStream} with
+ * {@link BufferedArrayInputStream} on a slow producer, which blocks for
+ * a fixed time per kilobyte read, like a slow network link. The
+ * producer endlessly repeats a block of encoded records. Each operation
+ * reads a record of doubles and does some work on it, so that the
+ * prefetching stream can overlap the work with the blocking reads. With
+ * a delay of 0 the producer does not block, which shows the overhead of
+ * the hand-off.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefetchBenchmark {
+
+    /** A producer that repeats its data, blocking for a while. */
+    private static final class SlowProducer extends InputStream {
+        private final byte[] data;
+
+        private final long nanosPerKB;
+
+        private int pos = 0;
+
+        SlowProducer(byte[] data, long nanosPerKB) {
+            this.data = data;
+            this.nanosPerKB = nanosPerKB;
+        }
+
+        public int read() {
+            int b = data[pos] & 0xff;
+            pos = (pos + 1) % data.length;
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos = (pos + n) % data.length;
+            if (nanosPerKB > 0) {
+                LockSupport.parkNanos(n * nanosPerKB / 1024);
+            }
+            return n;
+        }
+    }
+
+    @Param({ "prefetch", "buffered" })
+    public String stream;
+
+    @Param({ "0", "20000" })
+    public long nanosPerKB;
+
+    @Param({ "65536" })
+    public int bufferSize;
+
+    @Param({ "4" })
+    public int buffers;
+
+    @Param({ "1024" })
+    public int size;
+
+    private double[] doubles;
+
+    private DataInputStream in;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        doubles = new double[size];
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        DataOutputStream out = new BufferedArrayOutputStream(b, bufferSize);
+        for (int r = 0; r < 64; r++) {
+            for (int i = 0; i < size; i++) {
+                doubles[i] = r + i * 0.5;
+            }
+            out.writeInt(size);
+            out.writeArray(doubles, 0, size);
+        }
+        out.close();
+
+        InputStream producer = new SlowProducer(b.toByteArray(), nanosPerKB);
+        if (stream.equals("prefetch")) {
+            in = new PrefetchingBufferedArrayInputStream(producer, bufferSize,
+                    buffers);
+        } else {
+            in = new BufferedArrayInputStream(producer, bufferSize);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        in.close();
+    }
+
+    /** Reads a record and does some work on it. */
+    @Benchmark
+    public double read() throws IOException {
+        int n = in.readInt();
+        in.readArray(doubles, 0, n);
+        double d = 0;
+        for (int i = 0; i < n; i++) {
+            d = Math.sin(d) + doubles[i];
+        }
+        return d;
+    }
+}
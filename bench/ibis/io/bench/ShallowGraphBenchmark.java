@@ -0,0 +1,183 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the recursive and the iterative traversal of object graphs by
+ * ibis serialization for the shallow graphs that are the common case,
+ * where the explicit work stack of the iterative traversal buys nothing
+ * and only costs. Each operation writes a message of records that are
+ * two levels deep, resets the stream, flushes it through an in-memory
+ * loopback and reads it back. The traversal is selected per JVM with
+ * <code>ibis.io.serialization.iterative</code>, so each variant runs in
+ * its own fork.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShallowGraphBenchmark {
+
+    /**
+     * An in-memory pipe for a single thread: the data written can be
+     * read back once it is flushed.
+     */
+    private static final class Loopback {
+        byte[] data = new byte[1024];
+
+        int head;
+
+        int tail;
+
+        final OutputStream out = new OutputStream() {
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                if (tail + len > data.length) {
+                    byte[] d = new byte[2 * (tail + len)];
+                    System.arraycopy(data, 0, d, 0, tail);
+                    data = d;
+                }
+                System.arraycopy(b, off, data, tail, len);
+                tail += len;
+            }
+        };
+
+        final InputStream in = new InputStream() {
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (head == tail) {
+                    throw new IOException("read beyond the flushed data");
+                }
+                len = Math.min(len, tail - head);
+                System.arraycopy(data, head, b, off, len);
+                head += len;
+                if (head == tail) {
+                    head = 0;
+                    tail = 0;
+                }
+                return len;
+            }
+
+            public int available() {
+                return tail - head;
+            }
+        };
+    }
+
+    static class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        double x;
+
+        double y;
+
+        Point(double x, double y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Record implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int id;
+
+        String name;
+
+        Point from;
+
+        Point to;
+
+        Record(int id) {
+            this.id = id;
+            this.name = "record";
+            this.from = new Point(id, 0);
+            this.to = new Point(0, id);
+        }
+    }
+
+    /** Number of records in a message. */
+    @Param({ "1", "16", "1024" })
+    public int records;
+
+    private IbisSerializationOutputStream out;
+
+    private IbisSerializationInputStream in;
+
+    private Record[] message;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Loopback loop = new Loopback();
+        out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(loop.out, 4096));
+        in = new IbisSerializationInputStream(
+                new BufferedArrayInputStream(loop.in, 4096));
+        message = new Record[records];
+        for (int i = 0; i < records; i++) {
+            message[i] = new Record(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        out.close();
+        in.close();
+    }
+
+    private Object roundTrip() throws IOException, ClassNotFoundException {
+        out.writeObject(message);
+        out.reset();
+        out.flush();
+        return in.readObject();
+    }
+
+    /** Writes a message with recursion and reads it back. */
+    @Benchmark
+    @Fork(value = 1,
+            jvmArgsAppend = "-Dibis.io.serialization.iterative=false")
+    public Object recursive() throws IOException, ClassNotFoundException {
+        return roundTrip();
+    }
+
+    /** Writes a message with the work stack and reads it back. */
+    @Benchmark
+    @Fork(value = 1,
+            jvmArgsAppend = "-Dibis.io.serialization.iterative=true")
+    public Object iterative() throws IOException, ClassNotFoundException {
+        return roundTrip();
+    }
+}
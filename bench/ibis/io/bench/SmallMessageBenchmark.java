@@ -0,0 +1,150 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.DataSerializationInputStream;
+import ibis.io.DataSerializationOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the round-trip latency of the segregated, interleaved and auto
+ * wire modes of the data serialization streams for small messages. Each
+ * operation writes an RPC-like message of a few ints and a string,
+ * flushes it through an in-memory loopback, and reads it back. The
+ * <code>ints</code> parameter makes the message larger, to show where
+ * the auto mode switches to segregated.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmallMessageBenchmark {
+
+    /**
+     * An in-memory pipe for a single thread: the data written can be
+     * read back once it is flushed.
+     */
+    private static final class Loopback {
+        byte[] data = new byte[1024];
+
+        int head;
+
+        int tail;
+
+        final OutputStream out = new OutputStream() {
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                if (tail + len > data.length) {
+                    byte[] d = new byte[2 * (tail + len)];
+                    System.arraycopy(data, 0, d, 0, tail);
+                    data = d;
+                }
+                System.arraycopy(b, off, data, tail, len);
+                tail += len;
+            }
+        };
+
+        final InputStream in = new InputStream() {
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (head == tail) {
+                    throw new IOException("read beyond the flushed data");
+                }
+                len = Math.min(len, tail - head);
+                System.arraycopy(data, head, b, off, len);
+                head += len;
+                if (head == tail) {
+                    head = 0;
+                    tail = 0;
+                }
+                return len;
+            }
+
+            public int available() {
+                return tail - head;
+            }
+        };
+    }
+
+    @Param({ "segregated", "interleaved", "auto" })
+    public String mode;
+
+    @Param({ "3", "1000" })
+    public int ints;
+
+    @Param({ "65536" })
+    public int bufferSize;
+
+    private DataSerializationOutputStream out;
+
+    private DataSerializationInputStream in;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Loopback loop = new Loopback();
+        out = new DataSerializationOutputStream(new BufferedArrayOutputStream(
+                loop.out, bufferSize));
+        in = new DataSerializationInputStream(new BufferedArrayInputStream(
+                loop.in, bufferSize));
+        if (mode.equals("segregated")) {
+            out.setMode(DataSerializationOutputStream.SEGREGATED);
+        } else if (mode.equals("interleaved")) {
+            out.setMode(DataSerializationOutputStream.INTERLEAVED);
+        } else {
+            out.setMode(DataSerializationOutputStream.AUTO);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        out.close();
+        in.close();
+    }
+
+    /** Writes a message, flushes it, and reads it back. */
+    @Benchmark
+    public int roundTrip() throws IOException {
+        out.writeInt(ints);
+        for (int i = 0; i < ints; i++) {
+            out.writeInt(i);
+        }
+        out.writeString("method");
+        out.flush();
+
+        int n = in.readInt();
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += in.readInt();
+        }
+        return sum + in.readString().length();
+    }
+}
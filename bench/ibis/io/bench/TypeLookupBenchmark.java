@@ -0,0 +1,136 @@
+/* $Id$ */
+
+package ibis.io.bench;
+
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how serialization scales with the number of threads, each
+ * writing to its own stream. Every object written needs its type
+ * information, so without a lock-free type lookup the threads contend
+ * on a single monitor. Compare the total throughput at 1, 4, 16 and 32
+ * threads; on a machine with enough cores it should grow with the
+ * number of threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeLookupBenchmark {
+
+    /** A sink that discards all data. */
+    private static final class NullSink extends OutputStream {
+        public void write(int b) {
+            // discard
+        }
+
+        public void write(byte[] b, int off, int len) {
+            // discard
+        }
+    }
+
+    static class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int x;
+
+        int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Segment implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        Point from;
+
+        Point to;
+
+        String label;
+
+        Segment(Point from, Point to, String label) {
+            this.from = from;
+            this.to = to;
+            this.label = label;
+        }
+    }
+
+    static class Shape implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        Segment[] segments;
+
+        double[] weights;
+    }
+
+    private IbisSerializationOutputStream out;
+
+    private Shape shape;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(new NullSink(), 4096));
+        shape = new Shape();
+        shape.segments = new Segment[16];
+        for (int i = 0; i < shape.segments.length; i++) {
+            shape.segments[i] = new Segment(new Point(i, i + 1),
+                    new Point(i + 2, i + 3), "s" + i);
+        }
+        shape.weights = new double[4];
+    }
+
+    private void write() throws IOException {
+        out.writeObject(shape);
+        out.reset();
+        out.flush();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1() throws IOException {
+        write();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4() throws IOException {
+        write();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void threads16() throws IOException {
+        write();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void threads32() throws IOException {
+        write();
+    }
+}
@@ -7,6 +7,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
 import java.io.ObjectStreamField;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -14,7 +17,7 @@ import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
@@ -34,11 +37,37 @@ final class AlternativeTypeInfo {
     private static Logger logger = Logger.getLogger(AlternativeTypeInfo.class);
 
     /**
-     * Maintains all <code>AlternativeTypeInfo</code> structures in a
-     * hashmap, to be accessed through their classname.
+     * Maintains all <code>AlternativeTypeInfo</code> structures, attached
+     * to their class. Lookups are lock-free, and an entry does not keep
+     * the class (or its classloader) alive once it is no longer used.
+     * When two threads race to create the structure for a class, both may
+     * construct one, but only one is published and returned to both.
      */
-    private static HashMap<Class<?>, AlternativeTypeInfo> alternativeTypes
-            = new HashMap<Class<?>, AlternativeTypeInfo>();
+    private static final ClassValue<AlternativeTypeInfo> alternativeTypes
+            = new ClassValue<AlternativeTypeInfo>() {
+                protected AlternativeTypeInfo computeValue(Class<?> type) {
+                    return new AlternativeTypeInfo(type);
+                }
+            };
+
+    /** The next free class index. */
+    private static final AtomicInteger nextClassIndex = new AtomicInteger();
+
+    /**
+     * Set when field accesses and the custom serialization methods are
+     * done through method handles instead of core reflection.
+     */
+    private static final boolean USE_HANDLES
+            = IOProperties.properties.getBooleanProperty(
+                    IOProperties.s_method_handles, true);
+
+    /**
+     * Set when serializers are generated at run time for serializable
+     * classes that were not rewritten.
+     */
+    private static final boolean GENERATE
+            = IOProperties.properties.getBooleanProperty(
+                    IOProperties.s_generate, false);
 
     /** newInstance method of ObjectStreamClass, when it exists. */
     private static Method newInstance = null;
@@ -119,6 +148,16 @@ final class AlternativeTypeInfo {
         }
     }
 
+    private static class RuntimeSerializerWriter extends IbisWriter {
+        void writeObject(IbisSerializationOutputStream out, Object ref,
+                AlternativeTypeInfo t, int hashCode, boolean unshared)
+                throws IOException {
+            super.writeHeader(out, ref, t, hashCode, unshared);
+            t.serializer.writeFields(out, ref);
+            IbisSerializationOutputStream.addStatSendObject(ref);
+        }
+    }
+
     private static class NotSerializableWriter extends IbisWriter {
         void writeObject(IbisSerializationOutputStream out, Object ref,
                 AlternativeTypeInfo t, int hashCode, boolean unshared)
@@ -225,12 +264,28 @@ final class AlternativeTypeInfo {
         }
     }
 
+    private static class RuntimeSerializerReader extends IbisReader {
+        Object readObject(IbisSerializationInputStream in,
+                AlternativeTypeInfo t, int typeHandle)
+                throws IOException, ClassNotFoundException {
+            Object obj = in.create_uninitialized_object(t.clazz);
+            t.serializer.readFields(in, obj);
+            return obj;
+        }
+    }
+
     /**
      * The <code>Class</code> structure of the class represented by this
      * <code>AlternativeTypeInfo</code> structure.
      */
     Class<?> clazz;
 
+    /**
+     * A small number, unique in this JVM, by which serialization streams
+     * index their tables of types.
+     */
+    final int classIndex = nextClassIndex.getAndIncrement();
+
     /** The ObjectStreamClass of clazz. */
     private ObjectStreamClass objectStreamClass;
 
@@ -326,6 +381,36 @@ final class AlternativeTypeInfo {
     /** Helper class for this class, generated by IOGenerator. */
     Generator gen;
 
+    /**
+     * Serializer for the fields declared in this class, generated at run
+     * time, or <code>null</code>.
+     */
+    RuntimeSerializer serializer;
+
+    /**
+     * Set when objects of this type can be written by the iterative
+     * traversal of <code>IbisSerializationOutputStream</code>: object arrays,
+     * and serializable classes that are not rewritten and have no
+     * <code>writeObject</code> methods or serialPersistentFields at any
+     * level.
+     */
+    boolean iterativeWrite;
+
+    /**
+     * Set when objects of this type can be read by the iterative traversal
+     * of <code>IbisSerializationInputStream</code>. The conditions are those
+     * of <code>iterativeWrite</code>, with <code>readObject</code> instead of
+     * <code>writeObject</code>.
+     */
+    boolean iterativeRead;
+
+    /**
+     * For classes that can be traversed iteratively, the type infos of all
+     * serializable levels, from the topmost serializable superclass down to
+     * this class.
+     */
+    AlternativeTypeInfo[] levels;
+
     /**
      * A <code>Comparator</code> implementation for sorting the
      * fields array.
@@ -354,6 +439,34 @@ final class AlternativeTypeInfo {
     /** The <code>readResolve</code> method, if there is one. */
     private Method readResolveMethod;
 
+    /**
+     * Getters for the serializable fields, in the order of
+     * <code>serializable_fields</code>. Each getter has type
+     * <code>(Object)T</code>, where <code>T</code> is the field type for
+     * primitive fields and <code>Object</code> for reference fields.
+     * <code>null</code> when core reflection must be used.
+     */
+    private MethodHandle[] field_getters;
+
+    /**
+     * Setters for the serializable fields, of type <code>(Object,T)void</code>.
+     * These include setters for final fields, which may be assigned to
+     * through a handle because the fields have been made accessible.
+     */
+    private MethodHandle[] field_setters;
+
+    /** Handle for the <code>writeObject</code> method, if there is one. */
+    private MethodHandle writeObjectHandle;
+
+    /** Handle for the <code>readObject</code> method, if there is one. */
+    private MethodHandle readObjectHandle;
+
+    /** Handle for the <code>writeReplace</code> method, if there is one. */
+    private MethodHandle writeReplaceHandle;
+
+    /** Handle for the <code>readResolve</code> method, if there is one. */
+    private MethodHandle readResolveHandle;
+
     /** This is needed for the private field access hack. */
     Field temporary_field;
 
@@ -410,16 +523,8 @@ final class AlternativeTypeInfo {
      * @param type the <code>Class</code> of the requested type.
      * @return the <code>AlternativeTypeInfo</code> structure for this type.
      */
-    public static synchronized AlternativeTypeInfo getAlternativeTypeInfo(
-            Class<?> type) {
-        AlternativeTypeInfo t = alternativeTypes.get(type);
-
-        if (t == null) {
-            t = new AlternativeTypeInfo(type);
-            alternativeTypes.put(type, t);
-        }
-
-        return t;
+    public static AlternativeTypeInfo getAlternativeTypeInfo(Class<?> type) {
+        return alternativeTypes.get(type);
     }
 
     /**
@@ -429,7 +534,7 @@ final class AlternativeTypeInfo {
      * @param classname the name of the requested type.
      * @return the <code>AlternativeTypeInfo</code> structure for this type.
      */
-    public static synchronized AlternativeTypeInfo getAlternativeTypeInfo(
+    public static AlternativeTypeInfo getAlternativeTypeInfo(
             String classname) throws ClassNotFoundException {
         Class<?> type = null;
 
@@ -496,6 +601,14 @@ final class AlternativeTypeInfo {
             throws IllegalAccessException, IllegalArgumentException,
             InvocationTargetException {
         //	System.out.println("invoke writeObject");
+        if (writeObjectHandle != null) {
+            try {
+                writeObjectHandle.invokeExact(o, out);
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+            return;
+        }
         writeObjectMethod.invoke(o, new Object[] { out });
     }
 
@@ -513,6 +626,14 @@ final class AlternativeTypeInfo {
             throws IllegalAccessException, IllegalArgumentException,
             InvocationTargetException {
         //	System.out.println("invoke readObject");
+        if (readObjectHandle != null) {
+            try {
+                readObjectHandle.invokeExact(o, in);
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+            return;
+        }
         readObjectMethod.invoke(o, new Object[] { in });
     }
 
@@ -526,6 +647,13 @@ final class AlternativeTypeInfo {
      */
     Object invokeReadResolve(Object o) throws IllegalAccessException,
             IllegalArgumentException, InvocationTargetException {
+        if (readResolveHandle != null) {
+            try {
+                return (Object) readResolveHandle.invokeExact(o);
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
         return readResolveMethod.invoke(o, new Object[0]);
     }
 
@@ -539,9 +667,254 @@ final class AlternativeTypeInfo {
      */
     Object invokeWriteReplace(Object o) throws IllegalAccessException,
             IllegalArgumentException, InvocationTargetException {
+        if (writeReplaceHandle != null) {
+            try {
+                return (Object) writeReplaceHandle.invokeExact(o);
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
         return writeReplaceMethod.invoke(o, new Object[0]);
     }
 
+    /**
+     * Rethrows unchecked exceptions from a field handle, and converts
+     * anything else to an <code>IllegalAccessException</code>.
+     */
+    private static IllegalAccessException accessFailure(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        IllegalAccessException ex
+                = new IllegalAccessException("field access failed");
+        ex.initCause(e);
+        return ex;
+    }
+
+    /**
+     * Returns <code>true</code> if the fields of this class, final ones
+     * included, can be assigned through the setXxx methods below.
+     */
+    boolean hasFieldSetters() {
+        return field_setters != null;
+    }
+
+    /*
+     * Accessors for serializable field number i of ref, through its method
+     * handle if there is one, otherwise through core reflection.
+     */
+
+    double getDouble(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (double) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getDouble(ref);
+    }
+
+    long getLong(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (long) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getLong(ref);
+    }
+
+    float getFloat(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (float) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getFloat(ref);
+    }
+
+    int getInt(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (int) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getInt(ref);
+    }
+
+    short getShort(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (short) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getShort(ref);
+    }
+
+    char getChar(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (char) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getChar(ref);
+    }
+
+    byte getByte(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (byte) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getByte(ref);
+    }
+
+    boolean getBoolean(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (boolean) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].getBoolean(ref);
+    }
+
+    Object getObject(int i, Object ref) throws IllegalAccessException {
+        if (field_getters != null) {
+            try {
+                return (Object) field_getters[i].invokeExact(ref);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+        }
+        return serializable_fields[i].get(ref);
+    }
+
+    void setDouble(int i, Object ref, double v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setDouble(ref, v);
+    }
+
+    void setLong(int i, Object ref, long v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setLong(ref, v);
+    }
+
+    void setFloat(int i, Object ref, float v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setFloat(ref, v);
+    }
+
+    void setInt(int i, Object ref, int v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setInt(ref, v);
+    }
+
+    void setShort(int i, Object ref, short v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setShort(ref, v);
+    }
+
+    void setChar(int i, Object ref, char v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setChar(ref, v);
+    }
+
+    void setByte(int i, Object ref, byte v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setByte(ref, v);
+    }
+
+    void setBoolean(int i, Object ref, boolean v)
+            throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].setBoolean(ref, v);
+    }
+
+    void setObject(int i, Object ref, Object v) throws IllegalAccessException {
+        if (field_setters != null) {
+            try {
+                field_setters[i].invokeExact(ref, v);
+            } catch (Throwable e) {
+                throw accessFailure(e);
+            }
+            return;
+        }
+        serializable_fields[i].set(ref, v);
+    }
+
     /**
      * Constructor is private. Use {@link #getAlternativeTypeInfo(Class)} to
      * obtain the <code>AlternativeTypeInfo</code> for a type.
@@ -834,10 +1207,129 @@ final class AlternativeTypeInfo {
                     + "info for " + clazz.getName(), e);
         }
 
+        if (USE_HANDLES) {
+            createHandles();
+        }
+
+        if (GENERATE && gen == null) {
+            serializer = RuntimeSerializerGenerator.generate(this);
+        }
+
+        initIterative();
+
         writer = createWriter();
         reader = createReader();
     }
 
+    /**
+     * Determines whether objects of this type can be written and read by
+     * the iterative traversal, and if so, collects the serializable levels.
+     */
+    private void initIterative() {
+        if (isArray) {
+            iterativeWrite = iterativeRead
+                    = ! clazz.getComponentType().isPrimitive();
+            return;
+        }
+        if (! isSerializable || isExternalizable || isIbisSerializable
+                || gen != null || isString || isClass || clazz.isEnum()
+                || serial_persistent_fields != null) {
+            return;
+        }
+        AlternativeTypeInfo sup = superSerializable ? alternativeSuperInfo
+                : null;
+        iterativeWrite = ! hasWriteObject
+                && (sup == null || sup.iterativeWrite);
+        iterativeRead = ! hasReadObject
+                && (sup == null || sup.iterativeRead);
+        if (iterativeWrite || iterativeRead) {
+            if (sup == null) {
+                levels = new AlternativeTypeInfo[] { this };
+            } else {
+                levels = new AlternativeTypeInfo[sup.levels.length + 1];
+                System.arraycopy(sup.levels, 0, levels, 0, sup.levels.length);
+                levels[sup.levels.length] = this;
+            }
+        }
+    }
+
+    /**
+     * Creates method handles for the serializable fields and the custom
+     * serialization methods. The fields and methods have already been made
+     * accessible, so the handles do not need access checks. If anything
+     * fails, core reflection is used instead.
+     */
+    private void createHandles() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        try {
+            if (writeObjectMethod != null) {
+                writeObjectHandle = lookup.unreflect(writeObjectMethod).asType(
+                        MethodType.methodType(Void.TYPE, Object.class,
+                                ObjectOutputStream.class));
+            }
+            if (readObjectMethod != null) {
+                readObjectHandle = lookup.unreflect(readObjectMethod).asType(
+                        MethodType.methodType(Void.TYPE, Object.class,
+                                ObjectInputStream.class));
+            }
+            if (writeReplaceMethod != null) {
+                writeReplaceHandle = lookup.unreflect(writeReplaceMethod)
+                        .asType(MethodType.methodType(Object.class,
+                                Object.class));
+            }
+            if (readResolveMethod != null) {
+                readResolveHandle = lookup.unreflect(readResolveMethod)
+                        .asType(MethodType.methodType(Object.class,
+                                Object.class));
+            }
+        } catch (IllegalAccessException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not create method handles for "
+                        + clazz.getName(), e);
+            }
+            writeObjectHandle = null;
+            readObjectHandle = null;
+            writeReplaceHandle = null;
+            readResolveHandle = null;
+        }
+
+        if (serializable_fields == null) {
+            return;
+        }
+
+        int size = serializable_fields.length;
+        MethodHandle[] getters = new MethodHandle[size];
+        MethodHandle[] setters = new MethodHandle[size];
+
+        try {
+            for (int i = 0; i < size; i++) {
+                Field f = serializable_fields[i];
+                if (f == null) {
+                    // serialPersistentFields entry without a real field.
+                    return;
+                }
+                Class<?> tp = f.getType();
+                if (!tp.isPrimitive()) {
+                    tp = Object.class;
+                }
+                getters[i] = lookup.unreflectGetter(f).asType(
+                        MethodType.methodType(tp, Object.class));
+                setters[i] = lookup.unreflectSetter(f).asType(
+                        MethodType.methodType(Void.TYPE, Object.class, tp));
+            }
+        } catch (IllegalAccessException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not create field handles for "
+                        + clazz.getName(), e);
+            }
+            return;
+        }
+
+        field_getters = getters;
+        field_setters = setters;
+    }
+
     private IbisWriter createWriter() {
         if (isArray) {
             return new ArrayWriter();
@@ -858,6 +1350,9 @@ final class AlternativeTypeInfo {
             return new EnumWriter();
         }
         if (isSerializable) {
+            if (serializer != null && ! superSerializable && ! hasWriteObject) {
+                return new RuntimeSerializerWriter();
+            }
             return new SerializableWriter();
         }
         return new NotSerializableWriter();
@@ -882,6 +1377,9 @@ final class AlternativeTypeInfo {
         if (clazz.isEnum()) {
             return new EnumReader();
         }
+        if (serializer != null && ! superSerializable && ! hasReadObject) {
+            return new RuntimeSerializerReader();
+        }
         return new SerializableReader();
     }
 
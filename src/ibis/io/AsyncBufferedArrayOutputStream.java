@@ -0,0 +1,555 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a complete implementation of <code>DataOutputStream</code>,
+ * built on top of an <code>OutputStream</code>, like
+ * {@link BufferedArrayOutputStream}. The difference is that full buffers
+ * are handed to a background thread that writes them to the underlying
+ * stream, so that serialization and blocking writes overlap. A fixed
+ * number of buffers is used: when all of them are waiting to be written,
+ * the serializing thread blocks until one is available.
+ * {@link #flush()} waits until all data has been written, so it has
+ * the same semantics as in {@link BufferedArrayOutputStream}.
+ * Exceptions of the background thread are reported at the next
+ * buffer hand-off or flush.
+ * <p>
+ * The stream <strong>must</strong> be closed with {@link #close()}: that
+ * is the only way to stop the background thread. An unclosed stream
+ * keeps its thread blocked, and the thread keeps the stream and its
+ * buffers reachable, until the JVM exits. The thread is a daemon thread,
+ * so it does not keep the JVM alive.
+ * <p>
+ * Waiting for the background thread is not interruptible, because the
+ * buffered data would be lost, but an interrupt that arrives while
+ * waiting is preserved: the interrupt status is set again when the
+ * method returns.
+ */
+public final class AsyncBufferedArrayOutputStream extends DataOutputStream {
+    
+    private static final Logger logger = Logger.getLogger(AsyncBufferedArrayOutputStream.class);
+
+    private static final boolean DEBUG = IOProperties.DEBUG;
+
+    /** Default number of buffers. */
+    public static final int DEFAULT_BUFFERS = 2;
+
+    /** Size of the buffer in which output data is collected. */
+    private final int BUF_SIZE;
+
+    /** The underlying <code>OutputStream</code>. */
+    private OutputStream out;
+
+    /** The buffer in which output data is collected. */
+    private byte[] buffer;
+
+    /** Size of the buffer in which output data is collected. */
+    private int index = 0;
+
+    /** Number of bytes handed to the underlying layer so far. */
+    private long bytes = 0;
+
+    /** Object used for conversion of primitive types to bytes. */
+    private Conversion conversion;
+
+    /** Buffers waiting to be written, in order. */
+    private final byte[][] queue;
+
+    /** Lengths of the buffers in <code>queue</code>. */
+    private final int[] lengths;
+
+    /** Index of the first buffer in <code>queue</code>. */
+    private int head = 0;
+
+    /** Number of buffers in <code>queue</code>. */
+    private int queued = 0;
+
+    /** Buffers that are available for collecting data. */
+    private final byte[][] free;
+
+    /** Number of buffers in <code>free</code>. */
+    private int numFree;
+
+    /** Set when the stream is closed, to stop the writer thread. */
+    private boolean done = false;
+
+    /** Set when the writer thread has exited. */
+    private boolean writerDone = false;
+
+    /** The first exception of the writer thread. */
+    private IOException exception = null;
+
+    /**
+     * Constructor, using the default number of buffers.
+     * @param out	the underlying <code>OutputStream</code>
+     * @param bufSize	the size of each buffer
+     */
+    public AsyncBufferedArrayOutputStream(OutputStream out, int bufSize) {
+        this(out, bufSize, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * Constructor.
+     * @param out	the underlying <code>OutputStream</code>
+     * @param bufSize	the size of each buffer
+     * @param count	the number of buffers, at least 2
+     */
+    public AsyncBufferedArrayOutputStream(OutputStream out, int bufSize,
+            int count) {
+        if (count < 2) {
+            throw new IllegalArgumentException("need at least two buffers");
+        }
+        this.out = out;
+        BUF_SIZE = bufSize;
+        buffer = new byte[BUF_SIZE];
+        if (Conversion.NEGOTIATE_BYTE_ORDER) {
+            conversion = Conversion.loadConversion(Conversion.WRITE_BIG_ENDIAN);
+            Conversion.putByteOrder(buffer, index,
+                    Conversion.WRITE_BIG_ENDIAN);
+            index += Conversion.BYTE_ORDER_HEADER_SIZE;
+        } else {
+            conversion = Conversion.loadConversion(false);
+        }
+        queue = new byte[count][];
+        lengths = new int[count];
+        free = new byte[count][];
+        for (int i = 0; i < count - 1; i++) {
+            free[i] = new byte[BUF_SIZE];
+        }
+        numFree = count - 1;
+
+        Thread writer = new Thread("AsyncBufferedArrayOutputStream writer") {
+            public void run() {
+                writeBuffers();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * The writer thread: writes the queued buffers to the underlying
+     * stream, until the stream is closed.
+     */
+    private void writeBuffers() {
+        boolean interrupted = false;
+
+        for (;;) {
+            byte[] b;
+            int len;
+            IOException failed;
+
+            synchronized (this) {
+                while (queued == 0 && ! done) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (queued == 0) {
+                    writerDone = true;
+                    notifyAll();
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+                b = queue[head];
+                len = lengths[head];
+                failed = exception;
+            }
+
+            if (failed == null) {
+                try {
+                    out.write(b, 0, len);
+                } catch(IOException e) {
+                    failed = e;
+                }
+            }
+
+            synchronized (this) {
+                exception = failed;
+                queue[head] = null;
+                head = (head + 1) % queue.length;
+                queued--;
+                free[numFree++] = b;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Throws the exception of the writer thread, if there is one.
+     * Must be called with the lock held.
+     * @exception IOException	the exception of the writer thread.
+     */
+    private void checkException() throws IOException {
+        if (exception != null) {
+            throw new IbisIOException("background write failed", exception);
+        }
+    }
+
+    /**
+     * Queues the current buffer for writing and obtains a free one.
+     * @exception IOException	in case of trouble.
+     */
+    private void handOff() throws IOException {
+        if (index == 0) {
+            return;
+        }
+        bytes += index;
+
+        synchronized (this) {
+            checkException();
+            queue[(head + queued) % queue.length] = buffer;
+            lengths[(head + queued) % queue.length] = index;
+            queued++;
+            notifyAll();
+            boolean interrupted = false;
+            while (numFree == 0) {
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            buffer = free[--numFree];
+            free[numFree] = null;
+        }
+        index = 0;
+    }
+
+    /**
+     * Waits until all queued buffers have been written.
+     * @exception IOException	in case of trouble.
+     */
+    private synchronized void drain() throws IOException {
+        boolean interrupted = false;
+        while (queued != 0) {
+            try {
+                wait();
+            } catch(InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        checkException();
+    }
+
+    public long bytesWritten() {
+        return bytes + index;
+    }
+
+    public void resetBytesWritten() {
+        bytes = index;
+    }
+
+    /**
+     * Checks if there is space for <code>incr</code> more bytes and if not,
+     * the buffer is handed to the writer thread.
+     *
+     * @param incr		the space requested
+     * @exception IOException	in case of trouble.
+     */
+    private void flush(int incr) throws IOException {
+
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("flush(" + incr + ") : " + " "
+                    + (index + incr >= BUF_SIZE) + " " + (index) + ")");
+        }
+
+        if (index + incr > BUF_SIZE) {
+            handOff();
+        }
+    }
+
+    public void write(int b) throws IOException {
+        writeByte((byte) b);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        byte b = conversion.boolean2byte(value);
+        flush(1);
+        buffer[index++] = b;
+    }
+
+    public void writeByte(byte value) throws IOException {
+        flush(1);
+        buffer[index++] = value;
+    }
+
+    public void writeChar(char value) throws IOException {
+        flush(Constants.SIZEOF_CHAR);
+        conversion.char2byte(value, buffer, index);
+        index += Constants.SIZEOF_CHAR;
+    }
+
+    public void writeShort(short value) throws IOException {
+        flush(Constants.SIZEOF_SHORT);
+        conversion.short2byte(value, buffer, index);
+        index += Constants.SIZEOF_SHORT;
+    }
+
+    public void writeInt(int value) throws IOException {
+        flush(Constants.SIZEOF_INT);
+        conversion.int2byte(value, buffer, index);
+        index += Constants.SIZEOF_INT;
+    }
+
+    public void writeLong(long value) throws IOException {
+        flush(Constants.SIZEOF_LONG);
+        conversion.long2byte(value, buffer, index);
+        index += Constants.SIZEOF_LONG;
+    }
+
+    public void writeFloat(float value) throws IOException {
+        flush(Constants.SIZEOF_FLOAT);
+        conversion.float2byte(value, buffer, index);
+        index += Constants.SIZEOF_FLOAT;
+    }
+
+    public void writeDouble(double value) throws IOException {
+        flush(Constants.SIZEOF_DOUBLE);
+        conversion.double2byte(value, buffer, index);
+        index += Constants.SIZEOF_DOUBLE;
+    }
+
+    public void write(byte[] b) throws IOException {
+        writeArray(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeArray(b, off, len);
+    }
+
+    public void writeArray(boolean[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(boolean[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        do {
+            flush(1);
+
+            int size = Math.min(BUF_SIZE - index, len);
+
+            conversion.boolean2byte(ref, off, size, buffer, index);
+
+            off += size;
+            index += size;
+            len -= size;
+
+        } while (len != 0);
+    }
+
+    public void writeArray(byte[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(byte[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        if (len > (BUF_SIZE - index)) {
+
+            handOff();
+            if (len >= BUF_SIZE) {
+                // The caller may modify the array after we return, so
+                // write it directly, once the queued buffers are out.
+                drain();
+                bytes += len;
+                out.write(ref, off, len);
+            } else {
+                System.arraycopy(ref, off, buffer, 0, len);
+                index = len;
+            }
+        } else {
+            System.arraycopy(ref, off, buffer, index, len);
+            index += len;
+        }
+    }
+
+    public void writeArray(char[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(char[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        do {
+            flush(Constants.SIZEOF_CHAR);
+
+            int size = Math.min((BUF_SIZE - index) / Constants.SIZEOF_CHAR, len);
+
+            conversion.char2byte(ref, off, size, buffer, index);
+
+            off += size;
+            len -= size;
+            index += size * Constants.SIZEOF_CHAR;
+
+        } while (len != 0);
+    }
+
+    public void writeArray(short[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(short[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        do {
+            flush(Constants.SIZEOF_SHORT);
+
+            int size = Math.min((BUF_SIZE - index) / Constants.SIZEOF_SHORT, len);
+
+            conversion.short2byte(ref, off, size, buffer, index);
+
+            off += size;
+            len -= size;
+            index += size * Constants.SIZEOF_SHORT;
+
+        } while (len != 0);
+    }
+
+    public void writeArray(int[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(int[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        do {
+            flush(Constants.SIZEOF_INT);
+
+            int size = Math.min((BUF_SIZE - index) / Constants.SIZEOF_INT, len);
+
+            conversion.int2byte(ref, off, size, buffer, index);
+
+            off += size;
+            len -= size;
+            index += size * Constants.SIZEOF_INT;
+
+        } while (len != 0);
+    }
+
+    public void writeArray(long[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(long[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        do {
+            flush(Constants.SIZEOF_LONG);
+
+            int size = Math.min((BUF_SIZE - index) / Constants.SIZEOF_LONG, len);
+
+            conversion.long2byte(ref, off, size, buffer, index);
+
+            off += size;
+            len -= size;
+            index += size * Constants.SIZEOF_LONG;
+
+        } while (len != 0);
+    }
+
+    public void writeArray(float[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(float[" + off + " ... "
+                    + (off + len) + "])");
+        }
+        do {
+            flush(Constants.SIZEOF_FLOAT);
+
+            int size = Math.min((BUF_SIZE - index) / Constants.SIZEOF_FLOAT, len);
+
+            conversion.float2byte(ref, off, size, buffer, index);
+
+            off += size;
+            len -= size;
+            index += size * Constants.SIZEOF_FLOAT;
+
+        } while (len != 0);
+    }
+
+    public void writeArray(double[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(double[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        do {
+            flush(Constants.SIZEOF_DOUBLE);
+
+            int size = Math.min((BUF_SIZE - index) / Constants.SIZEOF_DOUBLE, len);
+
+            conversion.double2byte(ref, off, size, buffer, index);
+
+            off += size;
+            len -= size;
+            index += size * Constants.SIZEOF_DOUBLE;
+
+        } while (len != 0);
+    }
+
+    public void flush() throws IOException {
+        handOff();
+        drain();
+        out.flush();
+    }
+
+    public void finish() {
+        // empty
+    }
+
+    public boolean finished() {
+        return true;
+    }
+
+    /**
+     * Flushes the stream, stops the background thread and closes the
+     * underlying stream. This method must be called to release the
+     * background thread.
+     * @exception IOException	in case of trouble.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                done = true;
+                notifyAll();
+                boolean interrupted = false;
+                while (! writerDone) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            out.close();
+        }
+    }
+    
+    public int bufferSize() {
+        return BUF_SIZE;
+    }
+}
@@ -0,0 +1,166 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Typed views of a byte buffer, for bulk transfers of primitive arrays at
+ * the position of the buffer. A view of a byte buffer starts at a fixed
+ * byte offset, so one view is kept per element size and alignment, and
+ * made on first use. This avoids creating a view for every array that is
+ * written or read. The views have the byte order that the buffer had
+ * when they were made; {@link #clear()} must be called when it changes.
+ */
+final class BufferViews {
+
+    private final ByteBuffer buffer;
+
+    private final CharBuffer[] chars = new CharBuffer[Constants.SIZEOF_CHAR];
+
+    private final ShortBuffer[] shorts
+            = new ShortBuffer[Constants.SIZEOF_SHORT];
+
+    private final IntBuffer[] ints = new IntBuffer[Constants.SIZEOF_INT];
+
+    private final LongBuffer[] longs = new LongBuffer[Constants.SIZEOF_LONG];
+
+    private final FloatBuffer[] floats
+            = new FloatBuffer[Constants.SIZEOF_FLOAT];
+
+    private final DoubleBuffer[] doubles
+            = new DoubleBuffer[Constants.SIZEOF_DOUBLE];
+
+    BufferViews(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /** Forgets the views, for instance after a change of byte order. */
+    void clear() {
+        for (int i = 0; i < Constants.SIZEOF_LONG; i++) {
+            if (i < Constants.SIZEOF_CHAR) {
+                chars[i] = null;
+                shorts[i] = null;
+            }
+            if (i < Constants.SIZEOF_INT) {
+                ints[i] = null;
+                floats[i] = null;
+            }
+            longs[i] = null;
+            doubles[i] = null;
+        }
+    }
+
+    /**
+     * Returns a duplicate of the buffer that covers all of it from byte
+     * <code>align</code> on, with the byte order of the buffer.
+     */
+    private ByteBuffer from(int align) {
+        ByteBuffer b = buffer.duplicate().order(buffer.order());
+        b.limit(b.capacity());
+        b.position(align);
+        return b;
+    }
+
+    /**
+     * Returns a char view positioned at the position of the buffer.
+     * @return the view.
+     */
+    CharBuffer chars() {
+        int p = buffer.position();
+        int a = p % Constants.SIZEOF_CHAR;
+        CharBuffer v = chars[a];
+        if (v == null) {
+            v = from(a).asCharBuffer();
+            chars[a] = v;
+        }
+        v.position(p / Constants.SIZEOF_CHAR);
+        return v;
+    }
+
+    /**
+     * Returns a short view positioned at the position of the buffer.
+     * @return the view.
+     */
+    ShortBuffer shorts() {
+        int p = buffer.position();
+        int a = p % Constants.SIZEOF_SHORT;
+        ShortBuffer v = shorts[a];
+        if (v == null) {
+            v = from(a).asShortBuffer();
+            shorts[a] = v;
+        }
+        v.position(p / Constants.SIZEOF_SHORT);
+        return v;
+    }
+
+    /**
+     * Returns an int view positioned at the position of the buffer.
+     * @return the view.
+     */
+    IntBuffer ints() {
+        int p = buffer.position();
+        int a = p % Constants.SIZEOF_INT;
+        IntBuffer v = ints[a];
+        if (v == null) {
+            v = from(a).asIntBuffer();
+            ints[a] = v;
+        }
+        v.position(p / Constants.SIZEOF_INT);
+        return v;
+    }
+
+    /**
+     * Returns a long view positioned at the position of the buffer.
+     * @return the view.
+     */
+    LongBuffer longs() {
+        int p = buffer.position();
+        int a = p % Constants.SIZEOF_LONG;
+        LongBuffer v = longs[a];
+        if (v == null) {
+            v = from(a).asLongBuffer();
+            longs[a] = v;
+        }
+        v.position(p / Constants.SIZEOF_LONG);
+        return v;
+    }
+
+    /**
+     * Returns a float view positioned at the position of the buffer.
+     * @return the view.
+     */
+    FloatBuffer floats() {
+        int p = buffer.position();
+        int a = p % Constants.SIZEOF_FLOAT;
+        FloatBuffer v = floats[a];
+        if (v == null) {
+            v = from(a).asFloatBuffer();
+            floats[a] = v;
+        }
+        v.position(p / Constants.SIZEOF_FLOAT);
+        return v;
+    }
+
+    /**
+     * Returns a double view positioned at the position of the buffer.
+     * @return the view.
+     */
+    DoubleBuffer doubles() {
+        int p = buffer.position();
+        int a = p % Constants.SIZEOF_DOUBLE;
+        DoubleBuffer v = doubles[a];
+        if (v == null) {
+            v = from(a).asDoubleBuffer();
+            doubles[a] = v;
+        }
+        v.position(p / Constants.SIZEOF_DOUBLE);
+        return v;
+    }
+}
@@ -13,6 +13,8 @@ import org.apache.log4j.Logger;
  * It is built on top of an <code>InputStream</code>.
  * There is no need to put any buffering inbetween. This implementation
  * does all the buffering needed.
+ * If the <code>ibis.io.byteorder</code> property is set, the stream is expected to start with a byte-order
+ * header, and primitives are read in the order it announces.
  */
 public final class BufferedArrayInputStream extends DataInputStream {
     
@@ -37,6 +39,9 @@ public final class BufferedArrayInputStream extends DataInputStream {
     /** Object used to convert primitive types to bytes. */
     private Conversion conversion;
 
+    /** Set once the byte order of the stream is known. */
+    private boolean negotiated = ! Conversion.NEGOTIATE_BYTE_ORDER;
+
     public BufferedArrayInputStream(InputStream in, int bufSize) {
         this.in = in;
         BUF_SIZE = bufSize;
@@ -74,6 +79,12 @@ public final class BufferedArrayInputStream extends DataInputStream {
         if (buffered_bytes >= len) {
             return;
         }
+        if (! negotiated) {
+            readByteOrder();
+            if (buffered_bytes >= len) {
+                return;
+            }
+        }
         if (buffered_bytes == 0) {
             index = 0;
         } else if (index + buffered_bytes > BUF_SIZE - len) {
@@ -92,6 +103,23 @@ public final class BufferedArrayInputStream extends DataInputStream {
         }
     }
 
+    /**
+     * Reads the byte-order header at the start of the stream, and selects
+     * the matching conversion. When the order of the writer matches the
+     * native order, the conversion of arrays is a plain copy.
+     * @exception IOException	in case of trouble.
+     */
+    private void readByteOrder() throws IOException {
+        negotiated = true;
+        fillBuffer(Conversion.BYTE_ORDER_HEADER_SIZE);
+        boolean bigEndian = Conversion.getByteOrder(buffer, index);
+        index += Conversion.BYTE_ORDER_HEADER_SIZE;
+        buffered_bytes -= Conversion.BYTE_ORDER_HEADER_SIZE;
+        if (bigEndian != conversion.bigEndian()) {
+            conversion = Conversion.loadConversion(bigEndian);
+        }
+    }
+
     public final int available() throws IOException {
         return (buffered_bytes + in.available());
     }
@@ -148,6 +176,10 @@ public final class BufferedArrayInputStream extends DataInputStream {
                     + "])");
         }
 
+        if (! negotiated) {
+            readByteOrder();
+        }
+
         if (buffered_bytes >= len) {
             // data is already in the buffer.
             System.arraycopy(buffer, index, a, off, len);
@@ -531,6 +563,10 @@ public final class BufferedArrayInputStream extends DataInputStream {
                     + "])");
         }
 
+        if (! negotiated) {
+            readByteOrder();
+        }
+
         if (buffered_bytes >= len) {
             // data is already in the buffer.
 
@@ -12,6 +12,8 @@ import org.apache.log4j.Logger;
  * It is built on top of an <code>OutputStream</code>.
  * There is no need to put any buffering inbetween. This implementation
  * does all the buffering needed.
+ * If the <code>ibis.io.byteorder</code> property is set, the stream starts with a byte-order header, and
+ * primitives are written in the configured order.
  */
 public final class BufferedArrayOutputStream extends DataOutputStream {
     
@@ -45,7 +47,14 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
         this.out = out;
         BUF_SIZE = bufSize;
         buffer = new byte[BUF_SIZE];
-        conversion = Conversion.loadConversion(false);
+        if (Conversion.NEGOTIATE_BYTE_ORDER) {
+            conversion = Conversion.loadConversion(Conversion.WRITE_BIG_ENDIAN);
+            Conversion.putByteOrder(buffer, index,
+                    Conversion.WRITE_BIG_ENDIAN);
+            index += Conversion.BYTE_ORDER_HEADER_SIZE;
+        } else {
+            conversion = Conversion.loadConversion(false);
+        }
     }
 
     public long bytesWritten() {
@@ -192,6 +201,11 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
                     + "])");
         }
 
+        if (ParallelConversion.use(len, Constants.SIZEOF_CHAR)) {
+            writeParallel(ref, off, len, Constants.SIZEOF_CHAR);
+            return;
+        }
+
         do {
             flush(Constants.SIZEOF_CHAR);
 
@@ -213,6 +227,11 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
                     + (off + len) + "])");
         }
 
+        if (ParallelConversion.use(len, Constants.SIZEOF_SHORT)) {
+            writeParallel(ref, off, len, Constants.SIZEOF_SHORT);
+            return;
+        }
+
         do {
             flush(Constants.SIZEOF_SHORT);
 
@@ -234,6 +253,11 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
                     + "])");
         }
 
+        if (ParallelConversion.use(len, Constants.SIZEOF_INT)) {
+            writeParallel(ref, off, len, Constants.SIZEOF_INT);
+            return;
+        }
+
         do {
             flush(Constants.SIZEOF_INT);
 
@@ -255,6 +279,11 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
                     + "])");
         }
 
+        if (ParallelConversion.use(len, Constants.SIZEOF_LONG)) {
+            writeParallel(ref, off, len, Constants.SIZEOF_LONG);
+            return;
+        }
+
         do {
             flush(Constants.SIZEOF_LONG);
 
@@ -275,6 +304,11 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
             logger.debug("writeArray(float[" + off + " ... "
                     + (off + len) + "])");
         }
+
+        if (ParallelConversion.use(len, Constants.SIZEOF_FLOAT)) {
+            writeParallel(ref, off, len, Constants.SIZEOF_FLOAT);
+            return;
+        }
         do {
             flush(Constants.SIZEOF_FLOAT);
 
@@ -296,6 +330,11 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
                     + (off + len) + "])");
         }
 
+        if (ParallelConversion.use(len, Constants.SIZEOF_DOUBLE)) {
+            writeParallel(ref, off, len, Constants.SIZEOF_DOUBLE);
+            return;
+        }
+
         do {
             flush(Constants.SIZEOF_DOUBLE);
 
@@ -310,6 +349,25 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
         } while (len != 0);
     }
 
+    /**
+     * Writes a large primitive array, converted by several threads.
+     * @param ref		the array
+     * @param off		offset in the array
+     * @param len		number of elements
+     * @param size		size of an element in bytes
+     * @exception IOException	in case of trouble.
+     */
+    private void writeParallel(Object ref, int off, int len, int size)
+            throws IOException {
+        if (index > 0) {
+            bytes += index;
+            out.write(buffer, 0, index);
+            index = 0;
+        }
+        ParallelConversion.write(out, conversion, ref, off, len, size);
+        bytes += (long) len * size;
+    }
+
     public void flush() throws IOException {
         flush(BUF_SIZE + 1); /* Forces flush */
         out.flush();
@@ -0,0 +1,559 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A conversion that is composed of the other conversions, selected with
+ * <code>ibis.io.conversion=auto</code>. On first use, a short calibration
+ * times the available conversions for each primitive type and a number
+ * of array size ranges, and the fastest one is used for arrays of that
+ * type and size. Single values are converted by the var handle
+ * conversion if it is available.
+ * <p>
+ * The calibration takes in the order of a second, so it runs in a
+ * background thread: until it is done, all streams use the var handle
+ * conversion (or the simple one), and then switch to the choices of the
+ * calibration. All conversions for a byte order produce the same bytes,
+ * so a switch in the middle of a stream is harmless. The calibration
+ * does compete for the CPU with the application while it runs.
+ * If <code>ibis.io.conversion.cache</code> names a file, the outcome of
+ * the calibration is stored there, and later runs on the same JVM and
+ * architecture skip the calibration.
+ */
+final class CalibratedConversion extends Conversion {
+
+    private static final Logger logger
+            = Logger.getLogger(CalibratedConversion.class);
+
+    private static final int CHAR = 0;
+
+    private static final int SHORT = 1;
+
+    private static final int INT = 2;
+
+    private static final int LONG = 3;
+
+    private static final int FLOAT = 4;
+
+    private static final int DOUBLE = 5;
+
+    private static final String[] TYPES = {
+        "char", "short", "int", "long", "float", "double" };
+
+    /** Upper bounds (exclusive, in elements) of the array size ranges. */
+    private static final int[] RANGES = { 16, 256, 4096 };
+
+    /** Array size, in elements, at which each size range is calibrated. */
+    private static final int[] SAMPLES = { 8, 128, 2048, 32768 };
+
+    /** Number of elements converted per timing, in each direction. */
+    private static final int WORK = 1 << 15;
+
+    /** Conversions taking part in the calibration, without the order. */
+    private static final String[] CANDIDATES = {
+        "ibis.io.nio.VarHandle%sConversion",
+        "ibis.io.nio.HybridChunk%sConversion",
+        "ibis.io.nio.HybridWrap%sConversion",
+        "ibis.io.nio.NioChunk%sConversion",
+        "ibis.io.nio.NioWrap%sConversion",
+        "ibis.io.Simple%sConversion" };
+
+    private static final String CACHE_FILE = IOProperties.properties
+            .getProperty(IOProperties.s_conversion_cache);
+
+    private static final String JVM = System.getProperty("java.vm.name")
+            + " " + System.getProperty("java.vm.version") + " "
+            + System.getProperty("os.arch");
+
+    /** Number of rounds that only warm up the candidates. */
+    private static final int WARMUP_ROUNDS = 2;
+
+    /** Number of timed rounds; the best time of each candidate counts. */
+    private static final int ROUNDS = 3;
+
+    /** The conversions in use for one byte order, shared by all streams. */
+    private static final class Table {
+        /** Conversion for single values, booleans and empty arrays. */
+        final Conversion scalar;
+
+        /** The conversion to use, per type and size range. */
+        volatile Conversion[][] conv;
+
+        Table(Conversion scalar) {
+            this.scalar = scalar;
+        }
+    }
+
+    /** The tables, per byte order, created on first use. */
+    private static final Table[] tables = new Table[2];
+
+    private final boolean bigEndian;
+
+    /** Conversion for single values, booleans and empty arrays. */
+    private final Conversion scalar;
+
+    /** The conversions to use for this byte order. */
+    private final Table table;
+
+    CalibratedConversion(boolean bigEndian) {
+        this.bigEndian = bigEndian;
+        table = getTable(bigEndian);
+        scalar = table.scalar;
+    }
+
+    /**
+     * Returns the table for the specified byte order. The first call
+     * fills it from the cache file if possible, and otherwise fills it
+     * with the default conversion and starts the calibration.
+     */
+    private static synchronized Table getTable(final boolean bigEndian) {
+        int o = bigEndian ? 1 : 0;
+        if (tables[o] != null) {
+            return tables[o];
+        }
+
+        Conversion s = load(candidate(0, bigEndian));
+        if (s == null) {
+            s = load(candidate(CANDIDATES.length - 1, bigEndian));
+        }
+        final Table table = new Table(s);
+        tables[o] = table;
+
+        String[][] names = getCachedChoices(bigEndian);
+        if (names != null) {
+            table.conv = instantiate(names, s);
+            return table;
+        }
+
+        Conversion[][] conv = new Conversion[TYPES.length][RANGES.length + 1];
+        for (int t = 0; t < TYPES.length; t++) {
+            for (int r = 0; r <= RANGES.length; r++) {
+                conv[t][r] = s;
+            }
+        }
+        table.conv = conv;
+
+        Thread calibrator = new Thread("CalibratedConversion calibration") {
+            public void run() {
+                String[][] names;
+                // One calibration at a time, so that they do not disturb
+                // each other's timings.
+                synchronized (Table.class) {
+                    names = calibrate(bigEndian);
+                    Properties cache = readCache();
+                    for (int t = 0; t < TYPES.length; t++) {
+                        for (int r = 0; r <= RANGES.length; r++) {
+                            cache.setProperty(key(bigEndian, t, r),
+                                    names[t][r]);
+                        }
+                    }
+                    writeCache(cache);
+                }
+                table.conv = instantiate(names, table.scalar);
+            }
+        };
+        calibrator.setDaemon(true);
+        calibrator.start();
+        return table;
+    }
+
+    /**
+     * Loads the conversions with the specified class names, once per
+     * class name.
+     */
+    private static Conversion[][] instantiate(String[][] names,
+            Conversion scalar) {
+        HashMap<String, Conversion> instances
+                = new HashMap<String, Conversion>();
+        Conversion[][] conv = new Conversion[TYPES.length][RANGES.length + 1];
+        for (int t = 0; t < TYPES.length; t++) {
+            for (int r = 0; r <= RANGES.length; r++) {
+                Conversion c = instances.get(names[t][r]);
+                if (c == null) {
+                    c = load(names[t][r]);
+                    if (c == null) {
+                        c = scalar;
+                    }
+                    instances.put(names[t][r], c);
+                }
+                conv[t][r] = c;
+            }
+        }
+        return conv;
+    }
+
+    private static int range(int len) {
+        if (len < RANGES[0]) {
+            return 0;
+        }
+        if (len < RANGES[1]) {
+            return 1;
+        }
+        if (len < RANGES[2]) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static String candidate(int i, boolean bigEndian) {
+        return String.format(CANDIDATES[i], bigEndian ? "Big" : "Little");
+    }
+
+    private static Conversion load(String name) {
+        try {
+            return loadConversion(name);
+        } catch(Throwable e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not load conversion " + name, e);
+            }
+            return null;
+        }
+    }
+
+    private static String key(boolean bigEndian, int type, int range) {
+        return (bigEndian ? "big." : "little.") + TYPES[type] + "." + range;
+    }
+
+    /**
+     * Returns the class names of the conversions to use for the specified
+     * byte order from the cache file, or <code>null</code> if the cache
+     * file does not have a complete and usable set.
+     */
+    private static String[][] getCachedChoices(boolean bigEndian) {
+        Properties cache = readCache();
+        String[][] names = new String[TYPES.length][RANGES.length + 1];
+        for (int t = 0; t < TYPES.length; t++) {
+            for (int r = 0; r <= RANGES.length; r++) {
+                names[t][r] = cache.getProperty(key(bigEndian, t, r));
+                if (names[t][r] == null || load(names[t][r]) == null) {
+                    return null;
+                }
+            }
+        }
+        return names;
+    }
+
+    private static Properties readCache() {
+        Properties p = new Properties();
+        if (CACHE_FILE == null) {
+            return p;
+        }
+        try {
+            FileInputStream in = new FileInputStream(CACHE_FILE);
+            try {
+                p.load(in);
+            } finally {
+                in.close();
+            }
+        } catch(IOException e) {
+            // No usable cache file.
+            return new Properties();
+        }
+        if (! JVM.equals(p.getProperty("jvm"))) {
+            // Calibrated on another JVM, start over.
+            return new Properties();
+        }
+        return p;
+    }
+
+    private static void writeCache(Properties p) {
+        if (CACHE_FILE == null) {
+            return;
+        }
+        p.setProperty("jvm", JVM);
+        try {
+            File f = new File(CACHE_FILE);
+            File tmp = new File(f.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                p.store(out, "Ibis conversion calibration");
+            } finally {
+                out.close();
+            }
+            if (! tmp.renameTo(f)) {
+                f.delete();
+                tmp.renameTo(f);
+            }
+        } catch(IOException e) {
+            logger.warn("Could not write conversion cache " + CACHE_FILE, e);
+        }
+    }
+
+    /**
+     * Times all candidate conversions for the specified byte order, and
+     * returns the class names of the fastest, per type and size range.
+     */
+    private static String[][] calibrate(boolean bigEndian) {
+        long start = System.nanoTime();
+
+        String[] names = new String[CANDIDATES.length];
+        Conversion[] cands = new Conversion[CANDIDATES.length];
+        int count = 0;
+        for (int i = 0; i < CANDIDATES.length; i++) {
+            Conversion c = load(candidate(i, bigEndian));
+            if (c != null) {
+                names[count] = candidate(i, bigEndian);
+                cands[count++] = c;
+            }
+        }
+
+        byte[] b = new byte[SAMPLES[SAMPLES.length - 1] * DOUBLE_SIZE];
+        String[][] result = new String[TYPES.length][RANGES.length + 1];
+
+        for (int t = 0; t < TYPES.length; t++) {
+            for (int r = 0; r <= RANGES.length; r++) {
+                int n = SAMPLES[r];
+                Object a = allocate(t, n);
+                int reps = Math.max(1, WORK / n);
+                long[] times = new long[count];
+                for (int i = 0; i < count; i++) {
+                    times[i] = Long.MAX_VALUE;
+                }
+                // The candidates take turns, starting with a different
+                // one in each round, so that none of them profits from
+                // its position. The warm-up rounds are not counted.
+                for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                    for (int k = 0; k < count; k++) {
+                        int i = (round + k) % count;
+                        long time = time(cands[i], t, a, n, b, reps);
+                        if (round >= WARMUP_ROUNDS) {
+                            times[i] = Math.min(times[i], time);
+                        }
+                    }
+                }
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < count; i++) {
+                    if (times[i] < best) {
+                        best = times[i];
+                        result[t][r] = names[i];
+                    }
+                }
+                if (logger.isInfoEnabled()) {
+                    logger.info("conversion for " + TYPES[t] + "[" + n
+                            + "], " + (bigEndian ? "big" : "little")
+                            + "-endian: " + result[t][r]);
+                }
+            }
+        }
+
+        if (logger.isInfoEnabled()) {
+            logger.info("conversion calibration took "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return result;
+    }
+
+    private static long time(Conversion c, int type, Object a, int n,
+            byte[] b, int reps) {
+        long start = System.nanoTime();
+        for (int i = 0; i < reps; i++) {
+            toBytes(c, type, a, n, b);
+            fromBytes(c, type, a, n, b);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Object allocate(int type, int n) {
+        switch (type) {
+        case CHAR:
+            return new char[n];
+        case SHORT:
+            return new short[n];
+        case INT:
+            return new int[n];
+        case LONG:
+            return new long[n];
+        case FLOAT:
+            return new float[n];
+        case DOUBLE:
+            return new double[n];
+        default:
+            return new double[n];
+        }
+    }
+
+    private static void toBytes(Conversion c, int type, Object a, int n,
+            byte[] b) {
+        switch (type) {
+        case CHAR:
+            c.char2byte((char[]) a, 0, n, b, 0);
+            break;
+        case SHORT:
+            c.short2byte((short[]) a, 0, n, b, 0);
+            break;
+        case INT:
+            c.int2byte((int[]) a, 0, n, b, 0);
+            break;
+        case LONG:
+            c.long2byte((long[]) a, 0, n, b, 0);
+            break;
+        case FLOAT:
+            c.float2byte((float[]) a, 0, n, b, 0);
+            break;
+        case DOUBLE:
+            c.double2byte((double[]) a, 0, n, b, 0);
+            break;
+        default:
+            break;
+        }
+    }
+
+    private static void fromBytes(Conversion c, int type, Object a, int n,
+            byte[] b) {
+        switch (type) {
+        case CHAR:
+            c.byte2char(b, 0, (char[]) a, 0, n);
+            break;
+        case SHORT:
+            c.byte2short(b, 0, (short[]) a, 0, n);
+            break;
+        case INT:
+            c.byte2int(b, 0, (int[]) a, 0, n);
+            break;
+        case LONG:
+            c.byte2long(b, 0, (long[]) a, 0, n);
+            break;
+        case FLOAT:
+            c.byte2float(b, 0, (float[]) a, 0, n);
+            break;
+        case DOUBLE:
+            c.byte2double(b, 0, (double[]) a, 0, n);
+            break;
+        default:
+            break;
+        }
+    }
+
+    public boolean bigEndian() {
+        return bigEndian;
+    }
+
+    public byte boolean2byte(boolean src) {
+        return scalar.boolean2byte(src);
+    }
+
+    public boolean byte2boolean(byte src) {
+        return scalar.byte2boolean(src);
+    }
+
+    public void char2byte(char src, byte[] dst, int off) {
+        scalar.char2byte(src, dst, off);
+    }
+
+    public char byte2char(byte[] src, int off) {
+        return scalar.byte2char(src, off);
+    }
+
+    public void short2byte(short src, byte[] dst, int off) {
+        scalar.short2byte(src, dst, off);
+    }
+
+    public short byte2short(byte[] src, int off) {
+        return scalar.byte2short(src, off);
+    }
+
+    public void int2byte(int src, byte[] dst, int off) {
+        scalar.int2byte(src, dst, off);
+    }
+
+    public int byte2int(byte[] src, int off) {
+        return scalar.byte2int(src, off);
+    }
+
+    public void long2byte(long src, byte[] dst, int off) {
+        scalar.long2byte(src, dst, off);
+    }
+
+    public long byte2long(byte[] src, int off) {
+        return scalar.byte2long(src, off);
+    }
+
+    public void float2byte(float src, byte[] dst, int off) {
+        scalar.float2byte(src, dst, off);
+    }
+
+    public float byte2float(byte[] src, int off) {
+        return scalar.byte2float(src, off);
+    }
+
+    public void double2byte(double src, byte[] dst, int off) {
+        scalar.double2byte(src, dst, off);
+    }
+
+    public double byte2double(byte[] src, int off) {
+        return scalar.byte2double(src, off);
+    }
+
+    public void boolean2byte(boolean[] src, int off, int len, byte[] dst,
+            int off2) {
+        scalar.boolean2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2boolean(byte[] src, int index_src, boolean[] dst,
+            int index_dst, int len) {
+        scalar.byte2boolean(src, index_src, dst, index_dst, len);
+    }
+
+    public void char2byte(char[] src, int off, int len, byte[] dst, int off2) {
+        table.conv[CHAR][range(len)].char2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2char(byte[] src, int index_src, char[] dst, int index_dst,
+            int len) {
+        table.conv[CHAR][range(len)].byte2char(src, index_src, dst, index_dst, len);
+    }
+
+    public void short2byte(short[] src, int off, int len, byte[] dst, int off2) {
+        table.conv[SHORT][range(len)].short2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2short(byte[] src, int index_src, short[] dst, int index_dst,
+            int len) {
+        table.conv[SHORT][range(len)].byte2short(src, index_src, dst, index_dst, len);
+    }
+
+    public void int2byte(int[] src, int off, int len, byte[] dst, int off2) {
+        table.conv[INT][range(len)].int2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2int(byte[] src, int index_src, int[] dst, int index_dst,
+            int len) {
+        table.conv[INT][range(len)].byte2int(src, index_src, dst, index_dst, len);
+    }
+
+    public void long2byte(long[] src, int off, int len, byte[] dst, int off2) {
+        table.conv[LONG][range(len)].long2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2long(byte[] src, int index_src, long[] dst, int index_dst,
+            int len) {
+        table.conv[LONG][range(len)].byte2long(src, index_src, dst, index_dst, len);
+    }
+
+    public void float2byte(float[] src, int off, int len, byte[] dst, int off2) {
+        table.conv[FLOAT][range(len)].float2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2float(byte[] src, int index_src, float[] dst, int index_dst,
+            int len) {
+        table.conv[FLOAT][range(len)].byte2float(src, index_src, dst, index_dst, len);
+    }
+
+    public void double2byte(double[] src, int off, int len, byte[] dst, int off2) {
+        table.conv[DOUBLE][range(len)].double2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2double(byte[] src, int index_src, double[] dst, int index_dst,
+            int len) {
+        table.conv[DOUBLE][range(len)].byte2double(src, index_src, dst, index_dst, len);
+    }
+}
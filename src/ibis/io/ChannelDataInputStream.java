@@ -0,0 +1,350 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a complete implementation of <code>DataInputStream</code>,
+ * built on top of a <code>ReadableByteChannel</code>.
+ * Data is read into a direct byte buffer, from which it is converted
+ * without going through a byte array. Large byte arrays are read directly
+ * from the channel. The channel must be in blocking mode.
+ * It reads the data written by {@link ChannelDataOutputStream} and by
+ * {@link BufferedArrayOutputStream}. When the
+ * <code>ibis.io.byteorder</code> property is set, the stream starts with
+ * a byte-order header, and the order of the header is adopted.
+ */
+public final class ChannelDataInputStream extends DataInputStream {
+
+    private static final Logger logger
+            = Logger.getLogger(ChannelDataInputStream.class);
+
+    private static final boolean DEBUG = IOProperties.DEBUG;
+
+    /** Size of the buffer. */
+    private final int BUF_SIZE;
+
+    /** The underlying channel. */
+    private ReadableByteChannel channel;
+
+    /**
+     * The buffer, kept in "get" mode: the data between position and limit
+     * has not been consumed yet.
+     */
+    private ByteBuffer buffer;
+
+    /** Typed views of the buffer, for array reads. */
+    private BufferViews views;
+
+    /** Number of bytes read so far from the underlying layer. */
+    private long bytes = 0;
+
+    /** Set once the byte order of the stream is known. */
+    private boolean negotiated = ! Conversion.NEGOTIATE_BYTE_ORDER;
+
+    /**
+     * Constructor.
+     * @param channel	the underlying channel
+     * @param bufSize	the size of the buffer
+     */
+    public ChannelDataInputStream(ReadableByteChannel channel, int bufSize) {
+        this.channel = channel;
+        BUF_SIZE = bufSize;
+        buffer = DirectBufferPool.get(BUF_SIZE);
+        buffer.limit(0);
+        views = new BufferViews(buffer);
+    }
+
+    public long bytesRead() {
+        return bytes - buffer.remaining();
+    }
+
+    public void resetBytesRead() {
+        bytes = buffer.remaining();
+    }
+
+    /**
+     * Makes sure that at least <code>len</code> bytes are available in
+     * the buffer.
+     * @param len	the number of bytes needed
+     * @exception IOException	in case of trouble.
+     */
+    private void fill(int len) throws IOException {
+        if (buffer.remaining() >= len) {
+            return;
+        }
+        if (! negotiated) {
+            readByteOrder();
+            if (buffer.remaining() >= len) {
+                return;
+            }
+        }
+        buffer.compact();
+        while (buffer.position() < len) {
+            int n = channel.read(buffer);
+            if (n < 0) {
+                buffer.flip();
+                throw new EOFException("EOF encountered");
+            }
+            bytes += n;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Reads the byte-order header at the start of the stream, and sets
+     * the byte order of the buffer accordingly.
+     * @exception IOException	in case of trouble.
+     */
+    private void readByteOrder() throws IOException {
+        negotiated = true;
+        fill(Conversion.BYTE_ORDER_HEADER_SIZE);
+        byte[] header = new byte[Conversion.BYTE_ORDER_HEADER_SIZE];
+        buffer.get(header);
+        buffer.order(Conversion.getByteOrder(header, 0)
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        views.clear();
+    }
+
+    public int read() throws IOException {
+        try {
+            return readByte() & 0377;
+        } catch(EOFException e) {
+            return -1;
+        }
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (! buffer.hasRemaining()) {
+            try {
+                fill(1);
+            } catch(EOFException e) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    public int available() throws IOException {
+        return buffer.remaining();
+    }
+
+    public boolean readBoolean() throws IOException {
+        fill(1);
+        return buffer.get() != (byte) 0;
+    }
+
+    public byte readByte() throws IOException {
+        fill(1);
+        return buffer.get();
+    }
+
+    public char readChar() throws IOException {
+        fill(Constants.SIZEOF_CHAR);
+        return buffer.getChar();
+    }
+
+    public short readShort() throws IOException {
+        fill(Constants.SIZEOF_SHORT);
+        return buffer.getShort();
+    }
+
+    public int readInt() throws IOException {
+        fill(Constants.SIZEOF_INT);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        fill(Constants.SIZEOF_LONG);
+        return buffer.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        fill(Constants.SIZEOF_FLOAT);
+        return buffer.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        fill(Constants.SIZEOF_DOUBLE);
+        return buffer.getDouble();
+    }
+
+    public void readArray(boolean[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(boolean[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            fill(1);
+            int size = Math.min(buffer.remaining(), len);
+            for (int i = off; i < off + size; i++) {
+                a[i] = buffer.get() != (byte) 0;
+            }
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void readArray(byte[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(byte[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        if (! negotiated) {
+            readByteOrder();
+        }
+
+        int size = Math.min(buffer.remaining(), len);
+        buffer.get(a, off, size);
+        off += size;
+        len -= size;
+
+        if (len == 0) {
+            return;
+        }
+
+        if (len < BUF_SIZE) {
+            fill(len);
+            buffer.get(a, off, len);
+            return;
+        }
+
+        // Read the rest directly from the channel, bypassing the buffer.
+        ByteBuffer b = ByteBuffer.wrap(a, off, len);
+        while (b.hasRemaining()) {
+            int n = channel.read(b);
+            if (n < 0) {
+                throw new EOFException("EOF encountered");
+            }
+            bytes += n;
+        }
+    }
+
+    public void readArray(char[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(char[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            fill(Constants.SIZEOF_CHAR);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_CHAR, len);
+            views.chars().get(a, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_CHAR);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void readArray(short[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(short[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            fill(Constants.SIZEOF_SHORT);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_SHORT, len);
+            views.shorts().get(a, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_SHORT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void readArray(int[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(int[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            fill(Constants.SIZEOF_INT);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_INT, len);
+            views.ints().get(a, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_INT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void readArray(long[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(long[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            fill(Constants.SIZEOF_LONG);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_LONG, len);
+            views.longs().get(a, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_LONG);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void readArray(float[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(float[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            fill(Constants.SIZEOF_FLOAT);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_FLOAT, len);
+            views.floats().get(a, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_FLOAT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void readArray(double[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(double[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            fill(Constants.SIZEOF_DOUBLE);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_DOUBLE, len);
+            views.doubles().get(a, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_DOUBLE);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        channel.close();
+        DirectBufferPool.release(buffer);
+        buffer = null;
+        views = null;
+    }
+
+    public int bufferSize() {
+        return BUF_SIZE;
+    }
+}
@@ -0,0 +1,345 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a complete implementation of <code>DataOutputStream</code>,
+ * built on top of a <code>WritableByteChannel</code>.
+ * Data is collected in a direct byte buffer, so that the channel can
+ * write it without an extra copy. Large byte arrays are written together
+ * with the buffered data, with a gathering write if the channel supports
+ * it. The channel must be in blocking mode.
+ * The data written is the same as with {@link BufferedArrayOutputStream}:
+ * little-endian data without a header, or, when the
+ * <code>ibis.io.byteorder</code> property is set, a byte-order header
+ * followed by data in the order given.
+ */
+public final class ChannelDataOutputStream extends DataOutputStream {
+
+    private static final Logger logger
+            = Logger.getLogger(ChannelDataOutputStream.class);
+
+    private static final boolean DEBUG = IOProperties.DEBUG;
+
+    /** Size of the buffer in which output data is collected. */
+    private final int BUF_SIZE;
+
+    /** The underlying channel. */
+    private WritableByteChannel channel;
+
+    /** The buffer in which output data is collected. */
+    private ByteBuffer buffer;
+
+    /** Typed views of the buffer, for array writes. */
+    private BufferViews views;
+
+    /** Buffers for a gathering write. */
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+
+    /** Number of bytes written so far to the underlying layer. */
+    private long bytes = 0;
+
+    /**
+     * Constructor.
+     * @param channel	the underlying channel
+     * @param bufSize	the size of the buffer
+     */
+    public ChannelDataOutputStream(WritableByteChannel channel, int bufSize) {
+        this.channel = channel;
+        BUF_SIZE = bufSize;
+        buffer = DirectBufferPool.get(BUF_SIZE);
+        if (Conversion.NEGOTIATE_BYTE_ORDER) {
+            byte[] header = new byte[Conversion.BYTE_ORDER_HEADER_SIZE];
+            Conversion.putByteOrder(header, 0, Conversion.WRITE_BIG_ENDIAN);
+            buffer.put(header);
+            buffer.order(Conversion.WRITE_BIG_ENDIAN
+                    ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        }
+        views = new BufferViews(buffer);
+    }
+
+    public long bytesWritten() {
+        return bytes + buffer.position();
+    }
+
+    public void resetBytesWritten() {
+        bytes = - buffer.position();
+    }
+
+    /**
+     * Checks if there is space for <code>incr</code> more bytes and if not,
+     * the buffer is written to the underlying channel.
+     *
+     * @param incr		the space requested
+     * @exception IOException	in case of trouble.
+     */
+    private void flush(int incr) throws IOException {
+        if (buffer.remaining() < incr) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Writes the buffered data to the channel.
+     * @exception IOException	in case of trouble.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        bytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    public void write(int b) throws IOException {
+        writeByte((byte) b);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        flush(1);
+        buffer.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    public void writeByte(byte value) throws IOException {
+        flush(1);
+        buffer.put(value);
+    }
+
+    public void writeChar(char value) throws IOException {
+        flush(Constants.SIZEOF_CHAR);
+        buffer.putChar(value);
+    }
+
+    public void writeShort(short value) throws IOException {
+        flush(Constants.SIZEOF_SHORT);
+        buffer.putShort(value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        flush(Constants.SIZEOF_INT);
+        buffer.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        flush(Constants.SIZEOF_LONG);
+        buffer.putLong(value);
+    }
+
+    public void writeFloat(float value) throws IOException {
+        flush(Constants.SIZEOF_FLOAT);
+        buffer.putFloat(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        flush(Constants.SIZEOF_DOUBLE);
+        buffer.putDouble(value);
+    }
+
+    public void write(byte[] b) throws IOException {
+        writeArray(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeArray(b, off, len);
+    }
+
+    public void writeArray(boolean[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(boolean[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            flush(1);
+            int size = Math.min(buffer.remaining(), len);
+            for (int i = off; i < off + size; i++) {
+                buffer.put(ref[i] ? (byte) 1 : (byte) 0);
+            }
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(byte[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(byte[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        if (len <= buffer.remaining()) {
+            buffer.put(ref, off, len);
+            return;
+        }
+
+        if (len < BUF_SIZE) {
+            writeBuffer();
+            buffer.put(ref, off, len);
+            return;
+        }
+
+        // Write the buffered data and the array in one go.
+        ByteBuffer b = ByteBuffer.wrap(ref, off, len);
+        buffer.flip();
+        bytes += buffer.remaining() + len;
+        if (channel instanceof GatheringByteChannel) {
+            gather[0] = buffer;
+            gather[1] = b;
+            GatheringByteChannel g = (GatheringByteChannel) channel;
+            while (b.hasRemaining()) {
+                g.write(gather);
+            }
+            gather[0] = null;
+            gather[1] = null;
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            while (b.hasRemaining()) {
+                channel.write(b);
+            }
+        }
+        buffer.clear();
+    }
+
+    public void writeArray(char[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(char[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            flush(Constants.SIZEOF_CHAR);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_CHAR, len);
+            views.chars().put(ref, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_CHAR);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(short[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(short[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            flush(Constants.SIZEOF_SHORT);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_SHORT, len);
+            views.shorts().put(ref, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_SHORT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(int[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(int[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            flush(Constants.SIZEOF_INT);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_INT, len);
+            views.ints().put(ref, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_INT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(long[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(long[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            flush(Constants.SIZEOF_LONG);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_LONG, len);
+            views.longs().put(ref, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_LONG);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(float[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(float[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            flush(Constants.SIZEOF_FLOAT);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_FLOAT, len);
+            views.floats().put(ref, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_FLOAT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(double[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(double[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            flush(Constants.SIZEOF_DOUBLE);
+            int size = Math.min(buffer.remaining() / Constants.SIZEOF_DOUBLE, len);
+            views.doubles().put(ref, off, size);
+            buffer.position(buffer.position() + size * Constants.SIZEOF_DOUBLE);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void flush() throws IOException {
+        if (buffer.position() > 0) {
+            writeBuffer();
+        }
+    }
+
+    public void finish() {
+        // empty
+    }
+
+    public boolean finished() {
+        return true;
+    }
+
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        flush();
+        channel.close();
+        DirectBufferPool.release(buffer);
+        buffer = null;
+        views = null;
+    }
+
+    public int bufferSize() {
+        return BUF_SIZE;
+    }
+}
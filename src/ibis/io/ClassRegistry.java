@@ -0,0 +1,250 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A process-wide table of classes with fixed numbers, shared by all
+ * Ibis serialization streams. Normally, Ibis serialization sends the
+ * name of a class the first time it appears on a stream, and again after
+ * each <code>reset(true)</code>. A registered class is sent as its number
+ * instead, and the receiver finds it without loading the class by name.
+ * Before the first registered class, a stream announces a hash of the
+ * registry, and the receiver refuses the stream if its own registry
+ * differs, so both sides must register the same classes with the same
+ * numbers. Classes that are not registered are sent by name, as before.
+ * <p>
+ * Classes are registered with {@link #register(Class, int)} or
+ * {@link #register(String, int)}, before the streams that use them are
+ * created, or from a manifest named by the <code>ibis.io.registry</code>
+ * property. A manifest is a properties file, read as a file or else as a
+ * resource, with lines of the form <code>class name = id</code>.
+ * Numbers are used as array indices, so they should be small and dense.
+ */
+public final class ClassRegistry {
+
+    /** The largest number that can be registered. */
+    public static final int MAX_ID = (1 << 24) - 1;
+
+    private static final boolean DEBUG = IOProperties.DEBUG;
+
+    private static final Logger logger
+            = Logger.getLogger(ClassRegistry.class);
+
+    /**
+     * An immutable snapshot of the registry. Streams keep the snapshot
+     * that they announced, so that later registrations do not affect them.
+     */
+    static final class Table {
+
+        /** Registered numbers, per class name. */
+        private final HashMap<String, Integer> ids;
+
+        /** Class names, indexed by number. */
+        private final String[] names;
+
+        /** Type information, per number, resolved when first read. */
+        private final AlternativeTypeInfo[] infos;
+
+        /** Hash of the names and numbers, announced on the streams. */
+        final long hash;
+
+        Table(HashMap<String, Integer> ids, String[] names) {
+            this.ids = ids;
+            this.names = names;
+            this.infos = new AlternativeTypeInfo[names.length];
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == null) {
+                    continue;
+                }
+                h = (h ^ i) * 0x100000001b3L;
+                for (int j = 0; j < names[i].length(); j++) {
+                    h = (h ^ names[i].charAt(j)) * 0x100000001b3L;
+                }
+            }
+            this.hash = h;
+        }
+
+        /**
+         * Returns the number of the specified class, or -1 if it is not
+         * registered.
+         */
+        int find(Class<?> clazz) {
+            if (names.length == 0) {
+                return -1;
+            }
+            Integer id = ids.get(clazz.getName());
+            return id == null ? -1 : id.intValue();
+        }
+
+        /**
+         * Returns the type information of the class with the specified
+         * number, loading the class through the stream if it has not
+         * been read before.
+         */
+        AlternativeTypeInfo typeInfo(int id, IbisSerializationInputStream in)
+                throws ClassNotFoundException {
+            if (id >= names.length || names[id] == null) {
+                throw new SerializationError("Class registry number " + id
+                        + " is not registered");
+            }
+            AlternativeTypeInfo t = infos[id];
+            if (t == null) {
+                // A race here only resolves the same class twice.
+                t = AlternativeTypeInfo.getAlternativeTypeInfo(
+                        in.getClassFromName(names[id]));
+                infos[id] = t;
+            }
+            return t;
+        }
+    }
+
+    private static volatile Table table
+            = new Table(new HashMap<String, Integer>(), new String[0]);
+
+    static {
+        String manifest = IOProperties.properties
+                .getProperty(IOProperties.s_registry);
+        if (manifest != null) {
+            try {
+                load(manifest);
+            } catch (IOException e) {
+                logger.warn("Could not read class registry " + manifest, e);
+            }
+        }
+    }
+
+    private ClassRegistry() {
+        // no instances
+    }
+
+    /**
+     * Registers the specified class with the specified number.
+     * Registering the same class with the same number again has no effect.
+     * @param clazz	the class to be registered
+     * @param id	its number, at most {@link #MAX_ID}
+     * @exception IllegalArgumentException when the class or the number is
+     *  already registered differently, or the number is out of range.
+     */
+    public static void register(Class<?> clazz, int id) {
+        register(clazz.getName(), id);
+    }
+
+    /**
+     * Registers the class with the specified name with the specified number.
+     * The class is not loaded until it is read from a stream.
+     * @param className	the name of the class to be registered
+     * @param id		its number, at most {@link #MAX_ID}
+     * @exception IllegalArgumentException when the class or the number is
+     *  already registered differently, or the number is out of range.
+     */
+    public static synchronized void register(String className, int id) {
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("Class registry number " + id
+                    + " out of range");
+        }
+        Table t = table;
+        Integer old = t.ids.get(className);
+        if (old != null) {
+            if (old.intValue() != id) {
+                throw new IllegalArgumentException("Class " + className
+                        + " already registered as " + old);
+            }
+            return;
+        }
+        if (id < t.names.length && t.names[id] != null) {
+            throw new IllegalArgumentException("Class registry number " + id
+                    + " already used by " + t.names[id]);
+        }
+
+        HashMap<String, Integer> ids = new HashMap<String, Integer>(t.ids);
+        ids.put(className, Integer.valueOf(id));
+        String[] names = new String[Math.max(t.names.length, id + 1)];
+        System.arraycopy(t.names, 0, names, 0, t.names.length);
+        names[id] = className;
+        table = new Table(ids, names);
+
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("registered class " + className + " as " + id);
+        }
+    }
+
+    /**
+     * Registers the classes listed in the specified manifest, which is
+     * read as a file if it exists, and otherwise as a resource.
+     * @param manifest	the file or resource name of the manifest
+     * @exception IOException	when the manifest cannot be read.
+     * @exception IllegalArgumentException when the manifest conflicts with
+     *  the classes registered so far.
+     */
+    public static void load(String manifest) throws IOException {
+        InputStream in;
+        File f = new File(manifest);
+        if (f.exists()) {
+            in = new FileInputStream(f);
+        } else {
+            in = ClassRegistry.class.getClassLoader()
+                    .getResourceAsStream(manifest);
+            if (in == null) {
+                throw new IOException("Class registry manifest " + manifest
+                        + " not found");
+            }
+        }
+        try {
+            load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Registers the classes listed in the manifest read from the specified
+     * stream, in properties format, with lines of the form
+     * <code>class name = id</code>.
+     * @param in	the stream to read the manifest from
+     * @exception IOException	when the manifest cannot be read, or an id
+     *  is not a number.
+     * @exception IllegalArgumentException when the manifest conflicts with
+     *  the classes registered so far.
+     */
+    public static void load(InputStream in) throws IOException {
+        Properties p = new Properties();
+        p.load(in);
+        for (Map.Entry<Object, Object> e : p.entrySet()) {
+            int id;
+            try {
+                id = Integer.parseInt(((String) e.getValue()).trim());
+            } catch (NumberFormatException ex) {
+                throw new IbisIOException("Class registry number for "
+                        + e.getKey() + " is not a number: " + e.getValue(), ex);
+            }
+            register((String) e.getKey(), id);
+        }
+    }
+
+    /**
+     * Returns the hash of the registry as it is now, which is announced
+     * by the streams that use it.
+     * @return the hash.
+     */
+    public static long hash() {
+        return table.hash;
+    }
+
+    /**
+     * Returns the current snapshot of the registry.
+     */
+    static Table table() {
+        return table;
+    }
+}
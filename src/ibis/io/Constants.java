@@ -13,6 +13,26 @@ public final class Constants {
 
     public static final int CONTROL_HANDLES = 2;
 
+    /** Announces the hash of the class registry, see {@link ClassRegistry}. */
+    public static final int REGISTRY_HANDLE = -2;
+
+    /** Objects that follow get no handles, see tree mode. */
+    public static final int TREE_HANDLE = -3;
+
+    /** Objects that follow get handles again. */
+    public static final int GRAPH_HANDLE = -4;
+
+    /**
+     * Retires the handles below the int that follows, see
+     * ibis.io.handle.window.
+     */
+    public static final int WINDOW_HANDLE = -5;
+
+    /** Set in type numbers that are class registry ids. */
+    public static final int REGISTRY_BIT = (1 << 30);
+
+    public static final int REGISTRY_MASK = REGISTRY_BIT - 1;
+
     public static final Class<?> classBooleanArray = AlternativeTypeInfo.getClass("[Z");
 
     public static final Class<?> classByteArray = AlternativeTypeInfo.getClass("[B");
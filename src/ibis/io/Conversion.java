@@ -8,6 +8,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteOrder;
 import java.util.Properties;
 
 public abstract class Conversion {
@@ -78,6 +80,83 @@ public abstract class Conversion {
     /** The number of bits in a single 'double' */
     public final static int BITS_PER_DOUBLE = BITS_PER_BYTE * DOUBLE_SIZE;
 
+    /** Set if the native byte order of this machine is big-endian. */
+    public static final boolean NATIVE_BIG_ENDIAN
+            = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+    /**
+     * Set if the buffered data streams negotiate the byte order through a
+     * header at the start of the stream.
+     */
+    static final boolean NEGOTIATE_BYTE_ORDER;
+
+    /** The byte order written by the buffered data streams. */
+    static final boolean WRITE_BIG_ENDIAN;
+
+    static {
+        String order = IOProperties.properties.getProperty(
+                IOProperties.s_byte_order);
+        NEGOTIATE_BYTE_ORDER = order != null;
+        if (order == null || order.equalsIgnoreCase("little")) {
+            WRITE_BIG_ENDIAN = false;
+        } else if (order.equalsIgnoreCase("big")) {
+            WRITE_BIG_ENDIAN = true;
+        } else {
+            WRITE_BIG_ENDIAN = NATIVE_BIG_ENDIAN;
+        }
+    }
+
+    /**
+     * Size of the byte-order header: the magic bytes "IBO", followed by
+     * {@link #ORDER_BIG} or {@link #ORDER_LITTLE}.
+     */
+    static final int BYTE_ORDER_HEADER_SIZE = 4;
+
+    /** Byte-order header value for a little-endian stream. */
+    static final byte ORDER_LITTLE = 'L';
+
+    /** Byte-order header value for a big-endian stream. */
+    static final byte ORDER_BIG = 'B';
+
+    /**
+     * Stores a byte-order header.
+     * @param b		the destination
+     * @param off	the offset in <code>b</code>
+     * @param bigEndian	the byte order of the stream
+     */
+    static void putByteOrder(byte[] b, int off, boolean bigEndian) {
+        b[off] = 'I';
+        b[off + 1] = 'B';
+        b[off + 2] = 'O';
+        b[off + 3] = bigEndian ? ORDER_BIG : ORDER_LITTLE;
+    }
+
+    /**
+     * Checks a byte-order header and returns the byte order it announces.
+     * @param b		the source
+     * @param off	the offset in <code>b</code>
+     * @return <code>true</code> for a big-endian stream.
+     * @exception StreamCorruptedException	if the header is not valid,
+     * for instance because the writer did not set the
+     * <code>ibis.io.byteorder</code> property.
+     */
+    static boolean getByteOrder(byte[] b, int off)
+            throws StreamCorruptedException {
+        if (b[off] != 'I' || b[off + 1] != 'B' || b[off + 2] != 'O') {
+            throw new StreamCorruptedException("no byte-order header; the "
+                    + IOProperties.s_byte_order
+                    + " property must be set on both sides or on neither");
+        }
+        if (b[off + 3] == ORDER_BIG) {
+            return true;
+        }
+        if (b[off + 3] == ORDER_LITTLE) {
+            return false;
+        }
+        throw new StreamCorruptedException("unknown byte order in header: "
+                + b[off + 3]);
+    }
+
     /**
      * Returns a conversion, given the class name of it.
      */
@@ -96,6 +175,32 @@ public abstract class Conversion {
 
         String conversion = properties.getProperty(IOProperties.s_conversion);
 
+        if (conversion != null && conversion.equalsIgnoreCase("auto")) {
+            try {
+                return new CalibratedConversion(bigEndian);
+            } catch (Throwable e) {
+                // calibration failed, use the default conversion
+                conversion = null;
+            }
+        }
+
+        if (conversion == null || conversion.equalsIgnoreCase("varhandle")) {
+            // default conversion
+            if (conversion != null) {
+                System.err.println("varhandle conversion selected");
+            }
+
+            try {
+                if (bigEndian) {
+                    return new ibis.io.nio.VarHandleBigConversion();
+                }
+                return new ibis.io.nio.VarHandleLittleConversion();
+            } catch (Throwable e) {
+                // var handles are not supported, try hybrid conversion
+                conversion = null;
+            }
+        }
+
         if (conversion != null && conversion.equalsIgnoreCase("wrap")) {
             System.err.println("nio/wrap conversion selected");
             try {
@@ -117,7 +222,7 @@ public abstract class Conversion {
                 // nio conversion loading failed
             }
         } else if (conversion == null || conversion.equalsIgnoreCase("hybrid")) {
-            // default conversion
+            // fallback for the var handle conversion
             if (conversion != null) {
                 System.err.println("hybrid conversion selected");
             }
@@ -4,6 +4,10 @@ package ibis.io;
 
 import java.io.IOException;
 import java.io.UTFDataFormatException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.log4j.Logger;
 
@@ -36,6 +40,13 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
      */
     private short[] indices_short;
 
+    /**
+     * When the array count in <code>indices_short</code> indicates an
+     * extended header, the counts follow as ints, and are read into
+     * <code>indices_int</code>.
+     */
+    private int[] indices_int;
+
     /** Storage for bytes (or booleans) read. */
     private byte[] byte_buffer;
 
@@ -84,6 +95,19 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
     /** Number of bytes in <code>byte_buffer</code>. */
     private int max_byte_index;
 
+    /** Strings of more bytes than this are not decoded in scratch space. */
+    private static final int UTF_SCRATCH_SIZE = 64 * 1024;
+
+    /** Reads eight bytes at a time, for the ASCII check of strings. */
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.nativeOrder());
+
+    /** Scratch space for strings that are not decoded in place. */
+    private byte[] utf_bytes;
+
+    /** Scratch space for decoded characters. */
+    private char[] utf_chars;
+
     /** Number of chars in <code>char_buffer</code>. */
     private int max_char_index;
 
@@ -104,6 +128,18 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
 
     /** Number of arrays in current bunch. */
     private int max_array_index;
+
+    /** Storage for the values of an interleaved bunch. */
+    private byte[] il_buffer;
+
+    /** Current index in <code>il_buffer</code>. */
+    private int il_index;
+
+    /** Number of bytes in <code>il_buffer</code>. */
+    private int il_max;
+
+    /** Byte order of interleaved bunches. */
+    private Conversion conversion;
     
     private final int BYTE_BUFFER_SIZE;
     
@@ -174,10 +210,14 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readBoolean();
         } else {
-            while (byte_index == max_byte_index) {
+            while (byte_index == max_byte_index && il_index == il_max) {
                 receive();
             }
-            a = (byte_buffer[byte_index++] != (byte) 0);
+            if (il_index < il_max) {
+                a = conversion.byte2boolean(il_buffer[il_index++]);
+            } else {
+                a = (byte_buffer[byte_index++] != (byte) 0);
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read boolean: " + a);
@@ -197,10 +237,14 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readByte();
         } else {
-            while (byte_index == max_byte_index) {
+            while (byte_index == max_byte_index && il_index == il_max) {
                 receive();
             }
-            a = byte_buffer[byte_index++];
+            if (il_index < il_max) {
+                a = il_buffer[il_index++];
+            } else {
+                a = byte_buffer[byte_index++];
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read byte: " + a);
@@ -220,10 +264,15 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readChar();
         } else {
-            while (char_index == max_char_index) {
+            while (char_index == max_char_index && il_index == il_max) {
                 receive();
             }
-            a = char_buffer[char_index++];
+            if (il_index < il_max) {
+                a = conversion.byte2char(il_buffer, il_index);
+                il_index += Constants.SIZEOF_CHAR;
+            } else {
+                a = char_buffer[char_index++];
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read char: " + a);
@@ -243,10 +292,15 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readShort();
         } else {
-            while (short_index == max_short_index) {
+            while (short_index == max_short_index && il_index == il_max) {
                 receive();
             }
-            a = short_buffer[short_index++];
+            if (il_index < il_max) {
+                a = conversion.byte2short(il_buffer, il_index);
+                il_index += Constants.SIZEOF_SHORT;
+            } else {
+                a = short_buffer[short_index++];
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read short: " + a);
@@ -266,10 +320,15 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readInt();
         } else {
-            while (int_index == max_int_index) {
+            while (int_index == max_int_index && il_index == il_max) {
                 receive();
             }
-            a = int_buffer[int_index++];
+            if (il_index < il_max) {
+                a = conversion.byte2int(il_buffer, il_index);
+                il_index += Constants.SIZEOF_INT;
+            } else {
+                a = int_buffer[int_index++];
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read int[HEX]: " + a + "[0x" + Integer.toHexString(a)
@@ -290,10 +349,15 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readLong();
         } else {
-            while (long_index == max_long_index) {
+            while (long_index == max_long_index && il_index == il_max) {
                 receive();
             }
-            a = long_buffer[long_index++];
+            if (il_index < il_max) {
+                a = conversion.byte2long(il_buffer, il_index);
+                il_index += Constants.SIZEOF_LONG;
+            } else {
+                a = long_buffer[long_index++];
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read long: " + a);
@@ -313,10 +377,15 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readFloat();
         } else {
-            while (float_index == max_float_index) {
+            while (float_index == max_float_index && il_index == il_max) {
                 receive();
             }
-            a = float_buffer[float_index++];
+            if (il_index < il_max) {
+                a = conversion.byte2float(il_buffer, il_index);
+                il_index += Constants.SIZEOF_FLOAT;
+            } else {
+                a = float_buffer[float_index++];
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read float: " + a);
@@ -336,10 +405,15 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         if (NO_ARRAY_BUFFERS) {
             a = in.readDouble();
         } else {
-            while (double_index == max_double_index) {
+            while (double_index == max_double_index && il_index == il_max) {
                 receive();
             }
-            a = double_buffer[double_index++];
+            if (il_index < il_max) {
+                a = conversion.byte2double(il_buffer, il_index);
+                il_index += Constants.SIZEOF_DOUBLE;
+            } else {
+                a = double_buffer[double_index++];
+            }
         }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("read double: " + a);
@@ -642,6 +716,8 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         long_buffer = new long[LONG_BUFFER_SIZE];
         float_buffer = new float[FLOAT_BUFFER_SIZE];
         double_buffer = new double[DOUBLE_BUFFER_SIZE];
+        il_buffer = new byte[BYTE_BUFFER_SIZE];
+        conversion = Conversion.loadConversion(false);
     }
 
     /**
@@ -661,7 +737,8 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
                     + (max_long_index - long_index)
                     + (max_float_index - float_index)
                     + (max_double_index - double_index)
-                    + (max_array_index - array_index);
+                    + (max_array_index - array_index)
+                    + (il_max - il_index);
             if (sum != 0) {
                 logger.debug("EEEEK : receiving while there is data in buffer !!!");
                 logger.debug("byte_index " + (max_byte_index - byte_index));
@@ -672,6 +749,7 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
                 logger.debug("float_index " + (max_float_index - float_index));
                 logger.debug("double_index " + (max_double_index - double_index));
                 logger.debug("array_index " + (max_array_index - array_index));
+                logger.debug("il_index " + (il_max - il_index));
 
                 throw new SerializationError("Internal error!");
             }
@@ -681,7 +759,9 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
             suspendTimer();
         }
 
-        in.readArray(indices_short, Constants.BEGIN_TYPES, Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+        // The first entry of the header tells whether this is an
+        // interleaved bunch.
+        short header = in.readShort();
 
         array_index = 0;
         byte_index = 0;
@@ -691,15 +771,61 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         long_index = 0;
         float_index = 0;
         double_index = 0;
+        il_index = 0;
 
-        max_array_index = indices_short[TYPE_ARRAY];
-        max_byte_index = indices_short[Constants.TYPE_BYTE];
-        max_char_index = indices_short[Constants.TYPE_CHAR];
-        max_short_index = indices_short[Constants.TYPE_SHORT];
-        max_int_index = indices_short[Constants.TYPE_INT];
-        max_long_index = indices_short[Constants.TYPE_LONG];
-        max_float_index = indices_short[Constants.TYPE_FLOAT];
-        max_double_index = indices_short[Constants.TYPE_DOUBLE];
+        if (header == DataSerializationOutputStream.INTERLEAVED_HEADER) {
+            il_max = in.readInt();
+            if (DEBUG && logger.isDebugEnabled()) {
+                logger.debug("reading interleaved " + il_max);
+            }
+            if (il_max > il_buffer.length) {
+                il_buffer = new byte[il_max];
+            }
+            in.readArray(il_buffer, 0, il_max);
+            max_array_index = 0;
+            max_byte_index = 0;
+            max_char_index = 0;
+            max_short_index = 0;
+            max_int_index = 0;
+            max_long_index = 0;
+            max_float_index = 0;
+            max_double_index = 0;
+            if (TIME_DATA_SERIALIZATION) {
+                resumeTimer();
+            }
+            return;
+        }
+
+        il_max = 0;
+        indices_short[TYPE_ARRAY] = header;
+        in.readArray(indices_short, TYPE_ARRAY + 1,
+                Constants.PRIMITIVE_TYPES - TYPE_ARRAY - 1);
+
+        if (indices_short[TYPE_ARRAY]
+                == DataSerializationOutputStream.EXTENDED_HEADER) {
+            if (indices_int == null) {
+                indices_int = new int[Constants.PRIMITIVE_TYPES];
+            }
+            in.readArray(indices_int, Constants.BEGIN_TYPES,
+                    Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+            max_array_index = indices_int[TYPE_ARRAY];
+            max_byte_index = indices_int[Constants.TYPE_BYTE];
+            max_char_index = indices_int[Constants.TYPE_CHAR];
+            max_short_index = indices_int[Constants.TYPE_SHORT];
+            max_int_index = indices_int[Constants.TYPE_INT];
+            max_long_index = indices_int[Constants.TYPE_LONG];
+            max_float_index = indices_int[Constants.TYPE_FLOAT];
+            max_double_index = indices_int[Constants.TYPE_DOUBLE];
+        } else {
+            max_array_index = indices_short[TYPE_ARRAY];
+            max_byte_index = indices_short[Constants.TYPE_BYTE];
+            max_char_index = indices_short[Constants.TYPE_CHAR];
+            max_short_index = indices_short[Constants.TYPE_SHORT];
+            max_int_index = indices_short[Constants.TYPE_INT];
+            max_long_index = indices_short[Constants.TYPE_LONG];
+            max_float_index = indices_short[Constants.TYPE_FLOAT];
+            max_double_index = indices_short[Constants.TYPE_DOUBLE];
+        }
 
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("reading arrays " + max_array_index);
@@ -787,45 +913,119 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
             return null;
         }
 
-        byte[] b = new byte[bn];
-        readByteArray(b, 0, bn);
+        String s;
+        if (! NO_ARRAY_BUFFERS
+                && bn < IOProperties.SMALL_ARRAY_BOUND / Constants.SIZEOF_BYTE
+                && max_byte_index - byte_index >= bn) {
+            // Decode directly from the byte buffer.
+            s = decodeUTF(byte_buffer, byte_index, bn);
+            byte_index += bn;
+        } else if (! NO_ARRAY_BUFFERS
+                && bn < IOProperties.SMALL_ARRAY_BOUND / Constants.SIZEOF_BYTE
+                && il_max - il_index >= bn) {
+            // Decode directly from the interleaved bunch.
+            s = decodeUTF(il_buffer, il_index, bn);
+            il_index += bn;
+        } else if (bn > UTF_SCRATCH_SIZE) {
+            byte[] b = new byte[bn];
+            readByteArray(b, 0, bn);
+            s = decodeUTF(b, 0, bn);
+        } else {
+            if (utf_bytes == null || utf_bytes.length < bn) {
+                utf_bytes = new byte[bn];
+            }
+            readByteArray(utf_bytes, 0, bn);
+            s = decodeUTF(utf_bytes, 0, bn);
+        }
+        // logger.debug("readUTF: " + s);
+        if (TIME_DATA_SERIALIZATION) {
+            stopTimer();
+        }
+
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("read string " + s);
+        }
+        return s;
+    }
+
+    /**
+     * Decodes the <code>bn</code> bytes of modified UTF-8 at offset
+     * <code>off</code> in <code>b</code>.
+     */
+    private String decodeUTF(byte[] b, int off, int bn)
+            throws UTFDataFormatException {
+        int end = off + bn;
+
+        if (isASCII(b, off, end)) {
+            // A single latin-1 copy into the string.
+            return new String(b, off, bn, StandardCharsets.ISO_8859_1);
+        }
 
+        int need = bn < UTF_SCRATCH_SIZE ? bn : UTF_SCRATCH_SIZE;
+        if (utf_chars == null || utf_chars.length < need) {
+            utf_chars = new char[need];
+        }
+        char[] c = utf_chars;
         int len = 0;
-        char[] c = new char[bn];
 
-        for (int i = 0; i < bn; i++) {
+        // Huge strings are decoded in chunks of the scratch size.
+        StringBuilder sb = null;
+
+        for (int i = off; i < end; i++) {
+            if (len == c.length) {
+                if (sb == null) {
+                    sb = new StringBuilder(bn);
+                }
+                sb.append(c, 0, len);
+                len = 0;
+            }
             if ((b[i] & ~0x7f) == 0) {
-                c[len++] = (char) (b[i] & 0x7f);
-            } else if ((b[i] & ~0x1f) == 0xc0) {
-                if (i + 1 >= bn || (b[i + 1] & ~0x3f) != 0x80) {
+                c[len++] = (char) b[i];
+            } else if ((b[i] & 0xe0) == 0xc0) {
+                if (i + 1 >= end || (b[i + 1] & 0xc0) != 0x80) {
                     throw new UTFDataFormatException(
                             "UTF Data Format Exception");
                 }
-                c[len++] = (char) (((b[i] & 0x1f) << 6) | (b[i] & 0x3f));
+                c[len++] = (char) (((b[i] & 0x1f) << 6) | (b[i + 1] & 0x3f));
                 i++;
-            } else if ((b[i] & ~0x0f) == 0xe0) {
-                if (i + 2 >= bn || (b[i + 1] & ~0x3f) != 0x80
-                        || (b[i + 2] & ~0x3f) != 0x80) {
+            } else if ((b[i] & 0xf0) == 0xe0) {
+                if (i + 2 >= end || (b[i + 1] & 0xc0) != 0x80
+                        || (b[i + 2] & 0xc0) != 0x80) {
                     throw new UTFDataFormatException(
                             "UTF Data Format Exception");
                 }
                 c[len++] = (char) (((b[i] & 0x0f) << 12)
                         | ((b[i + 1] & 0x3f) << 6) | (b[i + 2] & 0x3f));
+                i += 2;
             } else {
                 throw new UTFDataFormatException("UTF Data Format Exception");
             }
         }
 
-        String s = new String(c, 0, len);
-        // logger.debug("readUTF: " + s);
-        if (TIME_DATA_SERIALIZATION) {
-            stopTimer();
+        if (sb != null) {
+            sb.append(c, 0, len);
+            return sb.toString();
         }
+        return new String(c, 0, len);
+    }
 
-        if (DEBUG && logger.isDebugEnabled()) {
-            logger.debug("read string " + s);
+    /**
+     * Returns whether the bytes of <code>b</code> from <code>off</code> up
+     * to <code>end</code> are all ASCII, checking eight of them at a time.
+     */
+    private static boolean isASCII(byte[] b, int off, int end) {
+        int i = off;
+        for (; i <= end - 8; i += 8) {
+            if (((long) LONGS.get(b, i) & 0x8080808080808080L) != 0) {
+                return false;
+            }
         }
-        return s;
+        for (; i < end; i++) {
+            if (b[i] < 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public String readString() throws IOException {
@@ -834,6 +1034,7 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
     
     public void close() throws IOException {
         indices_short = null;
+        indices_int = null;
         byte_buffer = null;
         char_buffer = null;
         short_buffer = null;
@@ -841,6 +1042,9 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         long_buffer = null;
         float_buffer = null;
         double_buffer = null;
+        utf_bytes = null;
+        utf_chars = null;
+        il_buffer = null;
         super.close();
     }
 }
@@ -32,6 +32,49 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
     /** Boolean count is not used, use it for arrays. */
     static final int TYPE_ARRAY = Constants.TYPE_BOOLEAN;
 
+    /**
+     * Array count in the header that indicates an extended header: the
+     * real counts follow as ints. Only used when a count does not fit in a
+     * short, so that peers that only know the short header still
+     * interoperate with the default buffer sizes.
+     */
+    static final short EXTENDED_HEADER = Short.MIN_VALUE;
+
+    /**
+     * Array count in the header that indicates an interleaved bunch: an
+     * int byte count follows, and then the values in program order.
+     */
+    static final short INTERLEAVED_HEADER = Short.MIN_VALUE + 1;
+
+    /** Wire mode in which values are collected per type. */
+    public static final int SEGREGATED = 0;
+
+    /** Wire mode in which values are written in program order. */
+    public static final int INTERLEAVED = 1;
+
+    /**
+     * Wire mode in which values are written in program order, until a
+     * flush gets larger than a threshold, or contains a large array.
+     */
+    public static final int AUTO = 2;
+
+    private static final int DEFAULT_MODE;
+
+    static {
+        String mode = IOProperties.properties.getProperty(
+                IOProperties.s_data_mode, "segregated");
+        if (mode.equals("interleaved")) {
+            DEFAULT_MODE = INTERLEAVED;
+        } else if (mode.equals("auto")) {
+            DEFAULT_MODE = AUTO;
+        } else {
+            DEFAULT_MODE = SEGREGATED;
+        }
+    }
+
+    private static final int AUTO_THRESHOLD = IOProperties.properties.getIntProperty(
+            IOProperties.s_data_threshold, 1024);
+
     /** Storage for bytes (or booleans) written. */
     private byte[] byte_buffer;
 
@@ -114,6 +157,66 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         int len;
     }
 
+    /**
+     * A set of primitive buffers, with which the buffers of the stream
+     * are exchanged when the lower layer still holds them after a flush.
+     */
+    private static final class BufferSet {
+        short[] indices_short;
+
+        byte[] il_buffer;
+
+        int[] indices_int;
+
+        byte[] byte_buffer;
+
+        char[] char_buffer;
+
+        short[] short_buffer;
+
+        int[] int_buffer;
+
+        long[] long_buffer;
+
+        float[] float_buffer;
+
+        double[] double_buffer;
+    }
+
+    /**
+     * Buffer sets that can be swapped in. Buffer sets that were handed to
+     * the lower layer come back here as soon as it has
+     * {@link DataOutputStream#finished() finished} with them.
+     */
+    private BufferSet[] pool;
+
+    /** Number of buffer sets in <code>pool</code>. */
+    private int pool_size;
+
+    /** Buffer sets that the lower layer may still be using. */
+    private BufferSet[] in_flight;
+
+    /** Number of buffer sets in <code>in_flight</code>. */
+    private int in_flight_size;
+
+    /** The wire mode of this stream. */
+    private int mode = DEFAULT_MODE;
+
+    /** Set when the current bunch is written in program order. */
+    private boolean interleaved;
+
+    /** Storage for the values of an interleaved bunch. */
+    private byte[] il_buffer;
+
+    /** Current index in <code>il_buffer</code>. */
+    private int il_index;
+
+    /** Number of bytes that an interleaved bunch may grow to. */
+    private int il_limit;
+
+    /** Byte order of interleaved bunches. */
+    private Conversion conversion;
+
     /** Where the arrays to be written are collected. */
     private ArrayDescriptor[] array;
 
@@ -123,8 +226,28 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
     /** Collects all indices of the <code>_buffer</code> arrays. */
     private short[] indices_short;
 
-    /** For each. */
-    private boolean[] touched = new boolean[Constants.PRIMITIVE_TYPES];
+    /**
+     * Collects all indices of the <code>_buffer</code> arrays when they do
+     * not fit in a short. Allocated when first needed.
+     */
+    private int[] indices_int;
+
+    /** Strings of more bytes than this are not encoded in scratch space. */
+    private static final int UTF_SCRATCH_SIZE = 64 * 1024;
+
+    /**
+     * Scratch space for strings that are written as a byte array.
+     * Successive strings are encoded at increasing offsets, and the space
+     * is reused once the lower layer has finished with it.
+     */
+    private byte[] utf_buffer;
+
+    /** Current index in <code>utf_buffer</code>. */
+    private int utf_index;
+
+    /** Scratch space for short strings that do not fit in the byte buffer. */
+    private byte[] utf_small;
+
 
     /**
      * Constructor with a <code>DataOutputStream</code>.
@@ -197,6 +320,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == IOProperties.ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayBoolean: " + ref + " offset: " + offset
                         + " len: " + len + " type: " + Constants.TYPE_BOOLEAN);
@@ -234,6 +360,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayByte: " + ref + " offset: " + offset
                         + " len: " + len + " type: " + Constants.TYPE_BYTE);
@@ -271,6 +400,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayChar: " + new String(ref) + " offset: "
                         + offset + " len: " + len + " type: " + Constants.TYPE_CHAR);
@@ -308,6 +440,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayShort: " + ref + " offset: " + offset
                         + " len: " + len + " type: " + Constants.TYPE_SHORT);
@@ -345,6 +480,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayInt: " + ref + " offset: " + offset
                         + " len: " + len + " type: " + Constants.TYPE_INT);
@@ -382,6 +520,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == IOProperties.ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayLong: " + ref + " offset: " + offset
                         + " len: " + len + " type: " + Constants.TYPE_LONG);
@@ -419,6 +560,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayFloat: " + ref + " offset: " + offset
                         + " len: " + len + " type: " + Constants.TYPE_FLOAT);
@@ -456,6 +600,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             if (array_index == ARRAY_BUFFER_SIZE) {
                 internalFlush();
             }
+            if (interleaved) {
+                endInterleaved();
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeArrayDouble: " + ref + " offset: " + offset
                         + " len: " + len + " type: " + Constants.TYPE_DOUBLE);
@@ -481,6 +628,85 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
     public void flush() throws IOException {
         internalFlush();
         out.finish();
+        if (! NO_ARRAY_BUFFERS) {
+            recycleBuffers();
+            utf_index = 0;
+            // A new message starts with the mode of the stream.
+            interleaved = mode != SEGREGATED;
+        }
+    }
+
+    /**
+     * The lower layer still holds the current buffers. Hands them over,
+     * and continues with a set from the pool, or with a new one.
+     */
+    private void swapBuffers() {
+        BufferSet b;
+        if (pool_size > 0) {
+            b = pool[--pool_size];
+            pool[pool_size] = null;
+        } else {
+            b = new BufferSet();
+            b.indices_short = new short[Constants.PRIMITIVE_TYPES];
+            b.il_buffer = new byte[BYTE_BUFFER_SIZE];
+            b.byte_buffer = new byte[BYTE_BUFFER_SIZE];
+            b.char_buffer = new char[CHAR_BUFFER_SIZE];
+            b.short_buffer = new short[SHORT_BUFFER_SIZE];
+            b.int_buffer = new int[INT_BUFFER_SIZE];
+            b.long_buffer = new long[LONG_BUFFER_SIZE];
+            b.float_buffer = new float[FLOAT_BUFFER_SIZE];
+            b.double_buffer = new double[DOUBLE_BUFFER_SIZE];
+        }
+
+        short[] s = indices_short;
+        indices_short = b.indices_short;
+        b.indices_short = s;
+        int[] ii = indices_int;
+        indices_int = b.indices_int;
+        b.indices_int = ii;
+        byte[] il = il_buffer;
+        il_buffer = b.il_buffer;
+        b.il_buffer = il;
+        byte[] by = byte_buffer;
+        byte_buffer = b.byte_buffer;
+        b.byte_buffer = by;
+        char[] c = char_buffer;
+        char_buffer = b.char_buffer;
+        b.char_buffer = c;
+        short[] sh = short_buffer;
+        short_buffer = b.short_buffer;
+        b.short_buffer = sh;
+        int[] i = int_buffer;
+        int_buffer = b.int_buffer;
+        b.int_buffer = i;
+        long[] l = long_buffer;
+        long_buffer = b.long_buffer;
+        b.long_buffer = l;
+        float[] f = float_buffer;
+        float_buffer = b.float_buffer;
+        b.float_buffer = f;
+        double[] d = double_buffer;
+        double_buffer = b.double_buffer;
+        b.double_buffer = d;
+
+        // If too many sets are in flight, just let this one go.
+        if (in_flight_size < in_flight.length) {
+            in_flight[in_flight_size++] = b;
+        }
+    }
+
+    /**
+     * The lower layer has finished with all data handed to it, so the
+     * buffer sets in flight may be used again.
+     */
+    private void recycleBuffers() {
+        while (in_flight_size > 0) {
+            BufferSet b = in_flight[--in_flight_size];
+            in_flight[in_flight_size] = null;
+            if (pool_size < pool.length) {
+                pool[pool_size++] = b;
+            }
+        }
     }
 
     private void internalFlush() throws IOException {
@@ -493,7 +719,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             suspendTimer();
         }
 
-        if (! NO_ARRAY_BUFFERS) {
+        if (interleaved) {
+            writeInterleaved();
+        } else if (! NO_ARRAY_BUFFERS) {
             flushBuffers();
 
             /* Retain the order in which the arrays were pushed. This 
@@ -539,34 +767,97 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
             resumeTimer();
         }
 
-        if (! NO_ARRAY_BUFFERS && !out.finished()) {
-            indices_short = new short[Constants.PRIMITIVE_TYPES];
-            if (touched[Constants.TYPE_BYTE]) {
-                byte_buffer = new byte[BYTE_BUFFER_SIZE];
-            }
-            if (touched[Constants.TYPE_CHAR]) {
-                char_buffer = new char[CHAR_BUFFER_SIZE];
-            }
-            if (touched[Constants.TYPE_SHORT]) {
-                short_buffer = new short[SHORT_BUFFER_SIZE];
-            }
-            if (touched[Constants.TYPE_INT]) {
-                int_buffer = new int[INT_BUFFER_SIZE];
-            }
-            if (touched[Constants.TYPE_LONG]) {
-                long_buffer = new long[LONG_BUFFER_SIZE];
-            }
-            if (touched[Constants.TYPE_FLOAT]) {
-                float_buffer = new float[FLOAT_BUFFER_SIZE];
-            }
-            if (touched[Constants.TYPE_DOUBLE]) {
-                double_buffer = new double[DOUBLE_BUFFER_SIZE];
+        if (! NO_ARRAY_BUFFERS) {
+            if (out.finished()) {
+                recycleBuffers();
+                utf_index = 0;
+            } else {
+                swapBuffers();
+                utf_buffer = null;
+                // unfinished++;
             }
-            // unfinished++;
         }
+    }
+
+    /**
+     * Sets the wire mode of this stream: {@link #SEGREGATED},
+     * {@link #INTERLEAVED} or {@link #AUTO}. The default is determined by
+     * the <code>ibis.io.data.mode</code> property. The new mode is used
+     * right away when nothing has been written since the last flush, and
+     * otherwise from the next flush on. The reader needs no setting, as
+     * each bunch of data tells how it was written.
+     * @param mode	the new wire mode.
+     */
+    public void setMode(int mode) {
+        if (mode != SEGREGATED && mode != INTERLEAVED && mode != AUTO) {
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+        this.mode = mode;
+        if (il_buffer == null) {
+            // No buffering in this layer.
+            return;
+        }
+        il_limit = il_buffer.length;
+        if (mode == AUTO && AUTO_THRESHOLD < il_limit) {
+            il_limit = AUTO_THRESHOLD;
+        }
+        if (il_index == 0 && array_index == 0 && byte_index == 0
+                && char_index == 0 && short_index == 0 && int_index == 0
+                && long_index == 0 && float_index == 0 && double_index == 0) {
+            interleaved = mode != SEGREGATED;
+        }
+    }
+
+    /**
+     * Returns the wire mode of this stream.
+     * @return the wire mode.
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * Called when a value does not fit in the current interleaved bunch.
+     * In {@link #AUTO} mode, the bunch is ended, and the rest of the flush
+     * is segregated. Otherwise, everything is flushed, after which the
+     * value fits.
+     * @return <code>true</code> if the value should still be written
+     * interleaved.
+     * @exception IOException on IO error.
+     */
+    private boolean interleavedFull() throws IOException {
+        if (mode == AUTO) {
+            endInterleaved();
+            return false;
+        }
+        internalFlush();
+        return true;
+    }
 
-        for (int i = 0; i < Constants.PRIMITIVE_TYPES; i++) {
-            touched[i] = false;
+    /**
+     * Ends the current interleaved bunch, and segregates the rest of the
+     * flush. Used for large arrays, which are not copied.
+     * @exception IOException on IO error.
+     */
+    private void endInterleaved() throws IOException {
+        writeInterleaved();
+        interleaved = false;
+    }
+
+    /**
+     * Writes the current interleaved bunch, if not empty: the header, the
+     * byte count, and the values.
+     * @exception IOException on IO error.
+     */
+    private void writeInterleaved() throws IOException {
+        if (il_index > 0) {
+            if (DEBUG && logger.isDebugEnabled()) {
+                logger.debug("writing interleaved " + il_index);
+            }
+            out.writeShort(INTERLEAVED_HEADER);
+            out.writeInt(il_index);
+            out.writeArray(il_buffer, 0, il_index);
+            il_index = 0;
         }
     }
 
@@ -581,6 +872,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeBoolean(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_BOOLEAN <= il_limit
+                || interleavedFull())) {
+            il_buffer[il_index++] = conversion.boolean2byte(value);
         } else {
             if (byte_index == byte_buffer.length) {
                 internalFlush();
@@ -606,6 +900,9 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeByte(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_BYTE <= il_limit
+                || interleavedFull())) {
+            il_buffer[il_index++] = value;
         } else {
             if (byte_index == byte_buffer.length) {
                 internalFlush();
@@ -631,6 +928,10 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeChar(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_CHAR <= il_limit
+                || interleavedFull())) {
+            conversion.char2byte(value, il_buffer, il_index);
+            il_index += Constants.SIZEOF_CHAR;
         } else {
             if (char_index == char_buffer.length) {
                 internalFlush();
@@ -656,6 +957,10 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeShort(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_SHORT <= il_limit
+                || interleavedFull())) {
+            conversion.short2byte(value, il_buffer, il_index);
+            il_index += Constants.SIZEOF_SHORT;
         } else {
             if (short_index == short_buffer.length) {
                 internalFlush();
@@ -681,6 +986,10 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeInt(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_INT <= il_limit
+                || interleavedFull())) {
+            conversion.int2byte(value, il_buffer, il_index);
+            il_index += Constants.SIZEOF_INT;
         } else {
             if (int_index == int_buffer.length) {
                 internalFlush();
@@ -707,6 +1016,10 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeLong(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_LONG <= il_limit
+                || interleavedFull())) {
+            conversion.long2byte(value, il_buffer, il_index);
+            il_index += Constants.SIZEOF_LONG;
         } else {
             if (long_index == long_buffer.length) {
                 internalFlush();
@@ -732,6 +1045,10 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeFloat(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_FLOAT <= il_limit
+                || interleavedFull())) {
+            conversion.float2byte(value, il_buffer, il_index);
+            il_index += Constants.SIZEOF_FLOAT;
         } else {
             if (float_index == float_buffer.length) {
                 internalFlush();
@@ -757,6 +1074,10 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         }
         if (NO_ARRAY_BUFFERS) {
             out.writeDouble(value);
+        } else if (interleaved && (il_index + Constants.SIZEOF_DOUBLE <= il_limit
+                || interleavedFull())) {
+            conversion.double2byte(value, il_buffer, il_index);
+            il_index += Constants.SIZEOF_DOUBLE;
         } else {
             if (double_index == double_buffer.length) {
                 internalFlush();
@@ -788,6 +1109,13 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         long_buffer = new long[LONG_BUFFER_SIZE];
         float_buffer = new float[FLOAT_BUFFER_SIZE];
         double_buffer = new double[DOUBLE_BUFFER_SIZE];
+
+        pool = new BufferSet[IOProperties.BUFFER_POOL_SIZE];
+        in_flight = new BufferSet[IOProperties.BUFFER_POOL_SIZE];
+
+        il_buffer = new byte[BYTE_BUFFER_SIZE];
+        conversion = Conversion.loadConversion(false);
+        setMode(mode);
     }
 
     /* This is the data output / object output part */
@@ -816,41 +1144,115 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         // writeInt(len);
         // writeArray(str.toCharArray(), 0, len);
 
-        int bn = 0;
+        // Count the bytes first: the reader picks the buffer that it reads
+        // them from by this length, which goes in front of them. This loop
+        // has no early exit, so that the JIT compiler keeps it tight. It
+        // measured faster for ASCII strings than encoding into scratch
+        // space and counting on the way, followed by a copy.
+        int bn = len;
 
         for (int i = 0; i < len; i++) {
             char c = str.charAt(i);
             if (c > 0x0000 && c <= 0x007f) {
-                bn++;
+                // one byte
             } else if (c <= 0x07ff) {
+                bn++;
+            } else {
                 bn += 2;
+            }
+        }
+
+        writeInt(bn);
+
+        if (NO_ARRAY_BUFFERS) {
+            byte[] b = new byte[bn];
+            encodeUTF(str, len, bn, b, 0);
+            out.writeArray(b, 0, bn);
+        } else if (bn < SMALL_ARRAY_BOUND / Constants.SIZEOF_BYTE) {
+            // Encode directly into the byte buffer or the interleaved
+            // bunch, if it fits. If not,
+            // write the bytes one by one, as writeArrayByte would.
+            if (interleaved && il_limit - il_index >= bn) {
+                encodeUTF(str, len, bn, il_buffer, il_index);
+                il_index += bn;
+            } else if (! interleaved && byte_buffer.length - byte_index >= bn) {
+                encodeUTF(str, len, bn, byte_buffer, byte_index);
+                byte_index += bn;
             } else {
-                bn += 3;
+                if (utf_small == null) {
+                    utf_small = new byte[SMALL_ARRAY_BOUND];
+                }
+                encodeUTF(str, len, bn, utf_small, 0);
+                for (int i = 0; i < bn; i++) {
+                    writeByte(utf_small[i]);
+                }
+            }
+        } else if (bn > UTF_SCRATCH_SIZE) {
+            // Huge strings get an array of their own.
+            byte[] b = new byte[bn];
+            encodeUTF(str, len, bn, b, 0);
+            writeArrayByte(b, 0, bn);
+        } else {
+            // Make sure that writeArrayByte will not flush, so that
+            // utf_buffer is not recycled while being filled.
+            if (array_index == ARRAY_BUFFER_SIZE) {
+                internalFlush();
             }
+            if (utf_buffer == null || utf_buffer.length - utf_index < bn) {
+                int sz = BYTE_BUFFER_SIZE;
+                if (utf_buffer != null
+                        && utf_buffer.length < 4 * UTF_SCRATCH_SIZE) {
+                    sz = utf_buffer.length << 1;
+                }
+                while (sz < bn) {
+                    sz <<= 1;
+                }
+                utf_buffer = new byte[sz];
+                utf_index = 0;
+            }
+            encodeUTF(str, len, bn, utf_buffer, utf_index);
+            writeArrayByte(utf_buffer, utf_index, bn);
+            utf_index += bn;
+        }
+
+        if (TIME_DATA_SERIALIZATION) {
+            stopTimer();
         }
+    }
 
-        byte[] b = new byte[bn];
-        bn = 0;
+    /**
+     * Encodes the <code>len</code> characters of <code>str</code>, which
+     * take <code>bn</code> bytes, into <code>b</code> at offset
+     * <code>off</code>.
+     * The encoding is the modified UTF-8 of <code>DataOutput</code>,
+     * except that the length is not included.
+     */
+    @SuppressWarnings("deprecation")
+    private static void encodeUTF(String str, int len, int bn, byte[] b,
+            int off) {
+        if (bn == len) {
+            // All characters are in 0x01 .. 0x7f. This deprecated method
+            // is the only bulk copy of the characters of a string into an
+            // existing byte array: it keeps the low byte of each
+            // character, which is the whole character here. The
+            // getBytes methods that take a charset allocate a new array.
+            str.getBytes(0, len, b, off);
+            return;
+        }
 
         for (int i = 0; i < len; i++) {
             char c = str.charAt(i);
             if (c > 0x0000 && c <= 0x007f) {
-                b[bn++] = (byte) c;
+                b[off++] = (byte) c;
             } else if (c <= 0x07ff) {
-                b[bn++] = (byte) (0xc0 | (0x1f & (c >> 6)));
-                b[bn++] = (byte) (0x80 | (0x3f & c));
+                b[off++] = (byte) (0xc0 | (0x1f & (c >> 6)));
+                b[off++] = (byte) (0x80 | (0x3f & c));
             } else {
-                b[bn++] = (byte) (0xe0 | (0x0f & (c >> 12)));
-                b[bn++] = (byte) (0x80 | (0x3f & (c >> 6)));
-                b[bn++] = (byte) (0x80 | (0x3f & c));
+                b[off++] = (byte) (0xe0 | (0x0f & (c >> 12)));
+                b[off++] = (byte) (0x80 | (0x3f & (c >> 6)));
+                b[off++] = (byte) (0x80 | (0x3f & c));
             }
         }
-
-        writeInt(bn);
-        writeArrayByte(b, 0, bn);
-        if (TIME_DATA_SERIALIZATION) {
-            stopTimer();
-        }
     }
 
     /**
@@ -873,14 +1275,37 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
      * throws it.
      */
     private void flushBuffers() throws IOException {
-        indices_short[TYPE_ARRAY] = (short) array_index;
-        indices_short[Constants.TYPE_BYTE] = (short) byte_index;
-        indices_short[Constants.TYPE_CHAR] = (short) char_index;
-        indices_short[Constants.TYPE_SHORT] = (short) short_index;
-        indices_short[Constants.TYPE_INT] = (short) int_index;
-        indices_short[Constants.TYPE_LONG] = (short) long_index;
-        indices_short[Constants.TYPE_FLOAT] = (short) float_index;
-        indices_short[Constants.TYPE_DOUBLE] = (short) double_index;
+        boolean extended = (array_index | byte_index | char_index
+                | short_index | int_index | long_index | float_index
+                | double_index) > Short.MAX_VALUE;
+
+        if (extended) {
+            if (indices_int == null) {
+                indices_int = new int[Constants.PRIMITIVE_TYPES];
+            }
+            indices_int[TYPE_ARRAY] = array_index;
+            indices_int[Constants.TYPE_BYTE] = byte_index;
+            indices_int[Constants.TYPE_CHAR] = char_index;
+            indices_int[Constants.TYPE_SHORT] = short_index;
+            indices_int[Constants.TYPE_INT] = int_index;
+            indices_int[Constants.TYPE_LONG] = long_index;
+            indices_int[Constants.TYPE_FLOAT] = float_index;
+            indices_int[Constants.TYPE_DOUBLE] = double_index;
+            for (int i = Constants.BEGIN_TYPES; i < Constants.PRIMITIVE_TYPES;
+                    i++) {
+                indices_short[i] = 0;
+            }
+            indices_short[TYPE_ARRAY] = EXTENDED_HEADER;
+        } else {
+            indices_short[TYPE_ARRAY] = (short) array_index;
+            indices_short[Constants.TYPE_BYTE] = (short) byte_index;
+            indices_short[Constants.TYPE_CHAR] = (short) char_index;
+            indices_short[Constants.TYPE_SHORT] = (short) short_index;
+            indices_short[Constants.TYPE_INT] = (short) int_index;
+            indices_short[Constants.TYPE_LONG] = (short) long_index;
+            indices_short[Constants.TYPE_FLOAT] = (short) float_index;
+            indices_short[Constants.TYPE_DOUBLE] = (short) double_index;
+        }
 
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("writing arrays " + array_index);
@@ -895,34 +1320,31 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
 
         out.writeArray(indices_short, Constants.BEGIN_TYPES,
                 Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+        if (extended) {
+            out.writeArray(indices_int, Constants.BEGIN_TYPES,
+                    Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+        }
 
         if (byte_index > 0) {
             out.writeArray(byte_buffer, 0, byte_index);
-            touched[Constants.TYPE_BYTE] = true;
         }
         if (char_index > 0) {
             out.writeArray(char_buffer, 0, char_index);
-            touched[Constants.TYPE_CHAR] = true;
         }
         if (short_index > 0) {
             out.writeArray(short_buffer, 0, short_index);
-            touched[Constants.TYPE_SHORT] = true;
         }
         if (int_index > 0) {
             out.writeArray(int_buffer, 0, int_index);
-            touched[Constants.TYPE_INT] = true;
         }
         if (long_index > 0) {
             out.writeArray(long_buffer, 0, long_index);
-            touched[Constants.TYPE_LONG] = true;
         }
         if (float_index > 0) {
             out.writeArray(float_buffer, 0, float_index);
-            touched[Constants.TYPE_FLOAT] = true;
         }
         if (double_index > 0) {
             out.writeArray(double_buffer, 0, double_index);
-            touched[Constants.TYPE_DOUBLE] = true;
         }
 
         reset_indices();
@@ -1020,5 +1442,10 @@ public class DataSerializationOutputStream extends ByteSerializationOutputStream
         float_buffer = null;
         double_buffer = null;
         array = null;
+        pool = null;
+        in_flight = null;
+        utf_buffer = null;
+        utf_small = null;
+        il_buffer = null;
     }
 }
@@ -0,0 +1,59 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * A small pool of direct byte buffers, shared by the channel-based data
+ * streams. Direct buffers are expensive to allocate and are only freed by
+ * the garbage collector, so they are kept for reuse when a stream is
+ * closed. The buffers handed out are little-endian, the byte order of
+ * the other Ibis data streams.
+ */
+final class DirectBufferPool {
+
+    /** Maximum number of buffers kept. */
+    private static final int MAX_POOLED = 16;
+
+    private static final ArrayList<ByteBuffer> pool
+            = new ArrayList<ByteBuffer>();
+
+    private DirectBufferPool() {
+        // prevent construction
+    }
+
+    /**
+     * Returns a cleared direct buffer of the specified capacity.
+     * @param size	the capacity
+     * @return the buffer.
+     */
+    static ByteBuffer get(int size) {
+        synchronized (pool) {
+            for (int i = pool.size() - 1; i >= 0; i--) {
+                ByteBuffer b = pool.get(i);
+                if (b.capacity() == size) {
+                    pool.remove(i);
+                    b.clear();
+                    b.order(ByteOrder.LITTLE_ENDIAN);
+                    return b;
+                }
+            }
+        }
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gives a buffer obtained with {@link #get(int)} back to the pool.
+     * @param b	the buffer
+     */
+    static void release(ByteBuffer b) {
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) {
+                pool.add(b);
+            }
+        }
+    }
+}
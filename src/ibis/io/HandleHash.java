@@ -8,7 +8,7 @@ import ibis.util.Timer;
  * A hash table that aims for speed for pairs (Object, int). This one is
  * specially made for (object, handle) pairs.
  */
-public final class HandleHash {
+public final class HandleHash extends HandleTable {
 
     private static final boolean STATS = IOProperties.properties.getBooleanProperty(
             IOProperties.s_hash_stats);
@@ -322,6 +322,25 @@ public final class HandleHash {
         return lazyPut(ref, handle, getHashCode(ref));
     }
 
+    final void remove(Object ref, int hashcode) {
+        int h = mod(hashcode, map.length);
+        int prev = 0;
+        for (int i = map[h]; i > 0; i = nextBucket[i]) {
+            if (dataBucket[i] == ref) {
+                if (prev == 0) {
+                    map[h] = nextBucket[i];
+                } else {
+                    nextBucket[prev] = nextBucket[i];
+                }
+                nextBucket[i] = 0;
+                dataBucket[i] = null;
+                present--;
+                return;
+            }
+            prev = i;
+        }
+    }
+
     public final void clear() {
 
         // Check if the table has grown. If not, we
@@ -0,0 +1,72 @@
+/* $Id$ */
+
+package ibis.io;
+
+/**
+ * An identity table for (object, handle) pairs, as used by the serialization
+ * output stream to detect objects that have been written before.
+ * The implementation is chosen with the <code>ibis.io.hash.type</code>
+ * property.
+ */
+abstract class HandleTable {
+
+    private static final String TYPE = IOProperties.properties.getProperty(
+            IOProperties.s_hash_type, "chained");
+
+    /**
+     * Creates a handle table of the type indicated by the
+     * <code>ibis.io.hash.type</code> property.
+     *
+     * @param sz	the initial size, a power of two
+     * @return the new handle table.
+     */
+    static HandleTable createHandleTable(int sz) {
+        if (TYPE.equals("probing")) {
+            return new ProbingHandleHash(sz);
+        }
+        return new HandleHash(sz);
+    }
+
+    /**
+     * Looks up an object.
+     *
+     * @param ref	the object to look for
+     * @param hashcode	its hashcode, as computed by
+     *                  {@link HandleHash#getHashCode(Object)}
+     * @return the handle of the object, or 0 if it is not present.
+     */
+    abstract int find(Object ref, int hashcode);
+
+    /**
+     * Inserts (ref, handle) into the table. The object must not be present.
+     *
+     * @param ref	the object that is inserted
+     * @param handle	the handle of the object
+     * @param hashcode	its hashcode
+     * @return the handle.
+     */
+    abstract int put(Object ref, int handle, int hashcode);
+
+    /**
+     * Inserts (ref, handle) into the table, unless the object is already
+     * present, in which case its present handle is returned.
+     *
+     * @param ref	the object that is inserted
+     * @param handle	the handle of the object
+     * @return the handle found.
+     */
+    abstract int lazyPut(Object ref, int handle);
+
+    /**
+     * Removes an object, if present.
+     *
+     * @param ref	the object that is removed
+     * @param hashcode	its hashcode
+     */
+    abstract void remove(Object ref, int hashcode);
+
+    /** Removes all entries. */
+    abstract void clear();
+
+    abstract void statistics();
+}
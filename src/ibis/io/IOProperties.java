@@ -41,10 +41,26 @@ public final class IOProperties {
 
     static final String s_conversion = PREFIX + "conversion";
 
+    static final String s_conversion_cache = PREFIX + "conversion.cache";
+
+    static final String s_byte_order = PREFIX + "byteorder";
+
+    static final String s_registry = PREFIX + "registry";
+
     static final String s_buffer_size = PREFIX + "buffer.size";
 
     static final String s_array_buffer = PREFIX + "array.buffer";
 
+    static final String s_buffer_pool = PREFIX + "buffer.pool";
+
+    static final String s_data_mode = PREFIX + "data.mode";
+
+    static final String s_data_threshold = PREFIX + "data.threshold";
+
+    static final String s_parallel_threshold = PREFIX + "parallel.threshold";
+
+    static final String s_parallel_threads = PREFIX + "parallel.threads";
+
     static final String s_debug = PREFIX + "debug";
 
     static final String s_asserts = PREFIX + "assert";
@@ -59,8 +75,20 @@ public final class IOProperties {
 
     static final String s_hash_resize = PREFIX + "hash.resize";
 
+    static final String s_hash_type = PREFIX + "hash.type";
+
+    static final String s_hash_cache = PREFIX + "hash.cache";
+
+    static final String s_handle_window = PREFIX + "handle.window";
+
     static final String s_deepcopy_ser = PREFIX + "deepcopy.serialization";
 
+    static final String s_method_handles = PREFIX + "serialization.handles";
+
+    static final String s_generate = PREFIX + "serialization.generate";
+
+    static final String s_iterative = PREFIX + "serialization.iterative";
+
     private static final String[][] propertiesList = new String[][] {
             {
                     PROPERTIES_FILE,
@@ -83,7 +111,28 @@ public final class IOProperties {
                     "false",
                     "Boolean: if true, leaves all buffering of Ibis serialization "
                             + "to the layers below it" },
-            { s_conversion, "hybrid", "String: determines the conversion used" },
+            { s_conversion, "varhandle",
+                    "String: determines the conversion used: \"varhandle\", "
+                            + "\"hybrid\", \"chunk\", \"wrap\" or "
+                            + "\"auto\" (calibrated in the background at "
+                            + "first use)" },
+            { s_conversion_cache, null,
+                    "String: file in which the choices of the \"auto\" "
+                            + "conversion are kept, so that the calibration "
+                            + "is done only once per JVM" },
+            { s_byte_order, null,
+                    "String: if set, buffered data streams start with a "
+                            + "byte-order header and write primitives in the "
+                            + "order given: \"native\", \"big\" or "
+                            + "\"little\"; readers adopt the order of the "
+                            + "header. If unset, data is little-endian "
+                            + "without a header. Must be set on both sides "
+                            + "or on neither" },
+            { s_registry, null,
+                    "String: file or resource with a class registry "
+                            + "manifest, lines of the form "
+                            + "\"<class name> = <id>\"; registered classes "
+                            + "are sent as their id instead of their name" },
             {
                     s_buffer_size,
                     "4096",
@@ -111,8 +160,64 @@ public final class IOProperties {
                     "Integer: determines the fill-percentage before the ibis hash "
                             + " is resized; choose between 50 and 200; larger values "
                             + " mean more chaining but a smaller hash size" },
+            { s_hash_type, "chained",
+                    "String: the handle table used by ibis serialization: "
+                            + "\"chained\" (HandleHash) or \"probing\" "
+                            + "(ProbingHandleHash, open addressing with "
+                            + "constant-time clear)" },
+            { s_hash_cache, "false",
+                    "Boolean: if true, the probing handle table caches the "
+                            + "hashcodes of its objects" },
+            { s_handle_window, "0",
+                    "Integer: if positive, ibis serialization keeps only "
+                            + "the most recent handles, about this many "
+                            + "(rounded up to a power of two), so that "
+                            + "memory stays bounded on long streams "
+                            + "without reset; older objects are written "
+                            + "again when they reappear. A single object "
+                            + "graph keeps all its handles while it is "
+                            + "written. 0 means unbounded" },
             { s_deepcopy_ser, "ibis",
-                    "String: determines the serialization used for DeepCopy" } };
+                    "String: determines the serialization used for DeepCopy" },
+            {
+                    s_method_handles,
+                    "true",
+                    "Boolean: if true, fields and private serialization methods "
+                            + "of classes that are not rewritten are accessed "
+                            + "through method handles instead of reflection" },
+            {
+                    s_generate,
+                    "false",
+                    "Boolean: if true, serializers are generated at run time "
+                            + "for serializable classes that are not rewritten" },
+            {
+                    s_iterative,
+                    "false",
+                    "Boolean: if true, object graphs of classes that are not "
+                            + "rewritten and of object arrays are traversed "
+                            + "with an explicit stack instead of recursion" },
+            { s_buffer_pool, "4",
+                    "Integer: the number of sets of primitive buffers that "
+                            + "data serialization keeps for reuse while a "
+                            + "lower layer still holds the data of earlier "
+                            + "flushes" },
+            { s_data_mode, "segregated",
+                    "String: the wire mode of data serialization: "
+                            + "\"segregated\" (values collected per type), "
+                            + "\"interleaved\" (values in program order) or "
+                            + "\"auto\" (interleaved for small flushes)" },
+            { s_data_threshold, "1024",
+                    "Integer: in \"auto\" mode, the number of bytes above "
+                            + "which data serialization switches from "
+                            + "interleaved to segregated" },
+            { s_parallel_threshold, "8388608",
+                    "Integer: the size in bytes above which primitive "
+                            + "arrays written to a BufferedArrayOutputStream "
+                            + "are converted by several threads" },
+            { s_parallel_threads, "1",
+                    "Integer: the number of threads used for parallel "
+                            + "array conversion; the default, 1, disables "
+                            + "parallel conversion" } };
 
     static {
         properties = new TypedProperties(getDefaultProperties());
@@ -134,6 +239,9 @@ public final class IOProperties {
     public static final int ARRAY_BUFFER_SIZE = properties.getIntProperty(
             s_array_buffer, 32);
 
+    public static final int BUFFER_POOL_SIZE = properties.getIntProperty(
+            s_buffer_pool, 4);
+
     /**
      * Returns the hard-coded Ibis IO properties.
      * 
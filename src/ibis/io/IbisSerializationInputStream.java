@@ -9,9 +9,12 @@ import java.io.NotActiveException;
 import java.io.ObjectStreamClass;
 import java.io.ObjectInputStream;
 import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
@@ -40,56 +43,7 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     // if STATS_NONREWRITTEN
     static Hashtable<Class<?>, Integer> nonRewritten = null;
 
-    // Only works as of Java 1.4, earlier versions of Java don't have Unsafe.
-    // Use introspection, so that it at least compiles on systems that don't
-    // have unsafe.
-    private static Object unsafe = null;
-    private static Method unsafeObjectFieldOffsetMethod;
-    private static Method unsafePutDoubleMethod;
-    private static Method unsafePutLongMethod;
-    private static Method unsafePutFloatMethod;
-    private static Method unsafePutIntMethod;
-    private static Method unsafePutShortMethod;
-    private static Method unsafePutCharMethod;
-    private static Method unsafePutBooleanMethod;
-    private static Method unsafePutByteMethod;
-    private static Method unsafePutObjectMethod;
-
     static {
-        try {
-            // unsafe = Unsafe.getUnsafe();
-            // does not work when a classloader is present, so we get it
-            // from ObjectStreamClass.
-            Class<?> cl
-                = Class.forName("java.io.ObjectStreamClass$FieldReflector");
-            Field uf = cl.getDeclaredField("unsafe");
-            uf.setAccessible(true);
-            unsafe = uf.get(null);
-            cl = unsafe.getClass();
-            unsafeObjectFieldOffsetMethod = cl.getMethod(
-                    "objectFieldOffset", new Class[] {Field.class});
-            unsafePutDoubleMethod = cl.getMethod(
-                    "putDouble", new Class[] {Object.class, Long.TYPE, Double.TYPE});
-            unsafePutLongMethod = cl.getMethod(
-                    "putLong", new Class[] {Object.class, Long.TYPE, Long.TYPE});
-            unsafePutFloatMethod = cl.getMethod(
-                    "putFloat", new Class[] {Object.class, Long.TYPE, Float.TYPE});
-            unsafePutIntMethod = cl.getMethod(
-                    "putInt", new Class[] {Object.class, Long.TYPE, Integer.TYPE});
-            unsafePutShortMethod = cl.getMethod(
-                    "putShort", new Class[] {Object.class, Long.TYPE, Short.TYPE});
-            unsafePutCharMethod = cl.getMethod(
-                    "putChar", new Class[] {Object.class, Long.TYPE, Character.TYPE});
-            unsafePutByteMethod = cl.getMethod(
-                    "putByte", new Class[] {Object.class, Long.TYPE, Byte.TYPE});
-            unsafePutBooleanMethod = cl.getMethod(
-                    "putBoolean", new Class[] {Object.class, Long.TYPE, Boolean.TYPE});
-            unsafePutObjectMethod = cl.getMethod(
-                    "putObject", new Class[] {Object.class, Long.TYPE, Object.class});
-        } catch (Exception e) {
-            System.out.println("Got exception while getting unsafe: " + e);
-            unsafe = null;
-        }
         if (STATS_NONREWRITTEN) {
             nonRewritten = new Hashtable<Class<?>, Integer>();
             System.out.println("IbisSerializationInputStream.STATS_NONREWRITTEN"
@@ -105,6 +59,13 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         }
     }
 
+    /**
+     * If <code>true</code>, objects that allow it are read with an
+     * explicit work stack instead of recursion.
+     */
+    private static final boolean ITERATIVE
+            = IOProperties.properties.getBooleanProperty(IOProperties.s_iterative);
+
     private static ClassLoader customClassLoader;
 
     /** List of objects, for cycle checking. */
@@ -116,12 +77,38 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     /** Handle to invalidate. */
     private int unshared_handle = 0;
 
+    /** Set when the sender is in tree mode, so objects get no handles. */
+    private boolean tree = false;
+
+    /** Set when the next object read gets no handle. */
+    private boolean skip_cycle_check = false;
+
     /** First free type index. */
     private int next_type = 1;
 
     /** List of types seen sofar. */
     private IbisVector types;
 
+    /**
+     * The class registry announced on the stream since the last clear,
+     * or <code>null</code>.
+     */
+    private ClassRegistry.Table registry;
+
+    /**
+     * Setters for final fields, used by the <code>readFieldXxx</code>
+     * methods, per declaring class and field name. They are shared by all
+     * streams, so that each setter is resolved only once.
+     */
+    private static final ClassValue<ConcurrentHashMap<String, MethodHandle>>
+            finalFieldSetters
+            = new ClassValue<ConcurrentHashMap<String, MethodHandle>>() {
+                protected ConcurrentHashMap<String, MethodHandle> computeValue(
+                        Class<?> type) {
+                    return new ConcurrentHashMap<String, MethodHandle>();
+                }
+            };
+
     /**
      * There is a notion of a "current" object. This is needed when a
      * user-defined <code>readObject</code> refers to
@@ -155,6 +142,22 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
 
     private int stack_size = 0;
 
+    /**
+     * Work stack of the iterative traversal. Each entry is an object of
+     * which the reference fields (or elements) are still being read,
+     * with its type, the index of the serializable level it is at, and the
+     * index of the next reference field or element.
+     */
+    private Object[] work_objects;
+
+    private AlternativeTypeInfo[] work_types;
+
+    private int[] work_level;
+
+    private int[] work_index;
+
+    private int work_size = 0;
+
     /** <code>AlternativeTypeInfo</code> for <code>boolean</code> arrays. */
     private static AlternativeTypeInfo booleanArrayInfo
             = AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classBooleanArray);
@@ -242,6 +245,8 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         current_object = null;
         object_stack = null;
         level_stack = null;
+        work_objects = null;
+        work_types = null;
         super.close();
     }
 
@@ -577,6 +582,7 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
             types.add(Constants.TYPE_DOUBLE, doubleArrayInfo);
 
             next_type = Constants.PRIMITIVE_TYPES;
+            registry = null;
         }
 
         objects.clear();
@@ -631,6 +637,28 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
                 }
                 do_reset(true);
                 handle = readInt();
+            } else if (handle == Constants.TREE_HANDLE
+                    || handle == Constants.GRAPH_HANDLE) {
+                tree = handle == Constants.TREE_HANDLE;
+                if (DEBUG && logger.isDebugEnabled()) {
+                    logger.debug("received a " + (tree ? "TREE" : "GRAPH"));
+                }
+                handle = readInt();
+            } else if (handle == Constants.REGISTRY_HANDLE) {
+                readRegistry();
+                handle = readInt();
+            } else if (handle == Constants.WINDOW_HANDLE) {
+                int low = readInt();
+                if (low < Constants.CONTROL_HANDLES || low > next_handle) {
+                    throw new StreamCorruptedException("Bad handle window "
+                            + "start " + low + ", next handle is "
+                            + next_handle);
+                }
+                if (DEBUG && logger.isDebugEnabled()) {
+                    logger.debug("received a WINDOW from " + low);
+                }
+                objects.retire(low);
+                handle = readInt();
             } else {
                 break;
             }
@@ -643,6 +671,28 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         return handle;
     }
 
+    /**
+     * Reads the hash of the class registry of the sender, and checks that
+     * it matches the local class registry.
+     * @exception IOException	gets thrown when an IO error occurs, or
+     *  when the class registries differ.
+     */
+    private void readRegistry() throws IOException {
+        long hash = readLong();
+        ClassRegistry.Table r = ClassRegistry.table();
+        if (hash != r.hash) {
+            throw new StreamCorruptedException("Class registry of the sender "
+                    + "(hash 0x" + Long.toHexString(hash) + ") differs from "
+                    + "the local one (hash 0x" + Long.toHexString(r.hash)
+                    + ")");
+        }
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("received class registry hash 0x"
+                    + Long.toHexString(hash));
+        }
+        registry = r;
+    }
+
     /**
      * Reads a <code>Class</code> object from the stream and tries to load it.
      * @exception IOException when an IO error occurs.
@@ -729,6 +779,10 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
      * @param o		the object to be added
      */
     public void addObjectToCycleCheck(Object o) {
+        if (tree || skip_cycle_check) {
+            skip_cycle_check = false;
+            return;
+        }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("addObjectToCycleCheck: handle = " + next_handle);
         }
@@ -789,13 +843,46 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
             readType(handle_or_type);
         }
         if (DEBUG && logger.isDebugEnabled()) {
-            AlternativeTypeInfo t = (AlternativeTypeInfo) types.get(handle_or_type);
+            AlternativeTypeInfo t = readType(handle_or_type);
             logger.debug("readKnownTypeHeader -> reading NEW object, class = "
                     + t.clazz.getName());
         }
         return -1;
     }
 
+    /**
+     * Reads the header of an object or array that was written without a
+     * handle, with
+     * {@link IbisSerializationOutputStream#writeUnsharedObjectHeader(Object)}
+     * or
+     * {@link IbisSerializationOutputStream#writeUnsharedArrayHeader(Object, int)}.
+     * The object that is read next is not entered in the object table.
+     * This method gets called from IOGenerator-generated code.
+     *
+     * @exception IOException		when an IO error occurs.
+     * @exception ClassNotFoundException when the type could not be loaded.
+     * @return	0 for a null object, -1 for a new object.
+     */
+    public final int readUnsharedTypeHeader() throws IOException,
+            ClassNotFoundException {
+        int handle_or_type = readHandle();
+
+        if (handle_or_type == Constants.NUL_HANDLE) {
+            return 0;
+        }
+        if ((handle_or_type & Constants.TYPE_BIT) == 0) {
+            throw new StreamCorruptedException(
+                    "Unshared object header but I receive a HANDLE!");
+        }
+
+        handle_or_type &= Constants.TYPE_MASK;
+        if (handle_or_type >= next_type) {
+            readType(handle_or_type);
+        }
+        skip_cycle_check = true;
+        return -1;
+    }
+
     /**
      * Reads an array from the stream.
      * The handle and type have already been read.
@@ -956,6 +1043,19 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
             return (AlternativeTypeInfo) types.get(type);
         }
 
+        if ((type & Constants.REGISTRY_BIT) != 0) {
+            if (registry == null) {
+                throw new StreamCorruptedException("Registered type "
+                        + (type & Constants.REGISTRY_MASK)
+                        + " without class registry hash");
+            }
+            if (DEBUG && logger.isDebugEnabled()) {
+                logger.debug("read registered type "
+                        + (type & Constants.REGISTRY_MASK));
+            }
+            return registry.typeInfo(type & Constants.REGISTRY_MASK, this);
+        }
+
         if (next_type != type) {
             throw new SerializationError("Internal error: next_type = "
                     + next_type + ", type = " + type);
@@ -978,6 +1078,56 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         return t;
     }
 
+    /**
+     * Returns a setter for the final field <code>fieldname</code> of class
+     * <code>classname</code>, of type <code>(Object,T)void</code>, where
+     * <code>T</code> is the field type for primitive fields and
+     * <code>Object</code> otherwise. Setters are resolved once and then
+     * cached per declaring class and field name. The declaring class is
+     * found among the superclasses of the object, so that it does not have
+     * to be looked up by name.
+     *
+     * @param ref		the object of which the field is assigned
+     * @param classname		the name of the class declaring the field
+     * @param fieldname		the name of the field
+     * @return the setter.
+     * @exception IOException	is thrown when the field cannot be found or
+     * 				made accessible.
+     */
+    private MethodHandle getFinalFieldSetter(Object ref, String classname,
+            String fieldname) throws IOException {
+        Class<?> cl = ref.getClass();
+        while (cl != null && ! cl.getName().equals(classname)) {
+            cl = cl.getSuperclass();
+        }
+        if (cl == null) {
+            try {
+                cl = getClassFromName(classname);
+            } catch (ClassNotFoundException ex) {
+                throw new IbisIOException("got exception", ex);
+            }
+        }
+        ConcurrentHashMap<String, MethodHandle> setters
+                = finalFieldSetters.get(cl);
+        MethodHandle setter = setters.get(fieldname);
+        if (setter == null) {
+            try {
+                Field f = cl.getDeclaredField(fieldname);
+                f.setAccessible(true);
+                Class<?> tp = f.getType();
+                if (! tp.isPrimitive()) {
+                    tp = Object.class;
+                }
+                setter = MethodHandles.lookup().unreflectSetter(f).asType(
+                        MethodType.methodType(Void.TYPE, Object.class, tp));
+            } catch (Throwable ex) {
+                throw new IbisIOException("got exception", ex);
+            }
+            setters.put(fieldname, setter);
+        }
+        return setter;
+    }
+
     /**
      * This method reads a value from the stream and assigns it to a
      * final field.
@@ -995,18 +1145,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldDouble(Object ref, String fieldname, String classname)
             throws IOException {
         double d = readDouble();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutDoubleMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1015,18 +1159,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldLong(Object ref, String fieldname, String classname)
             throws IOException {
         long d = readLong();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutLongMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1035,18 +1173,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldFloat(Object ref, String fieldname, String classname)
             throws IOException {
         float d = readFloat();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutFloatMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1055,18 +1187,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldInt(Object ref, String fieldname, String classname)
             throws IOException {
         int d = readInt();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutIntMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1075,18 +1201,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldShort(Object ref, String fieldname, String classname)
             throws IOException {
         short d = readShort();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutShortMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1095,18 +1215,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldChar(Object ref, String fieldname, String classname)
             throws IOException {
         char d = readChar();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutCharMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1115,18 +1229,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldByte(Object ref, String fieldname, String classname)
             throws IOException {
         byte d = readByte();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutByteMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1135,18 +1243,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldBoolean(Object ref, String fieldname, String classname)
             throws IOException {
         boolean d = readBoolean();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutBooleanMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1155,18 +1257,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldString(Object ref, String fieldname, String classname)
             throws IOException {
         String d = readString();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutObjectMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, (Object) d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1176,18 +1272,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldClass(Object ref, String fieldname, String classname)
             throws IOException, ClassNotFoundException {
         Class<?> d = readClass();
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutObjectMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, (Object) d);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1198,21 +1288,14 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     public void readFieldObject(Object ref, String fieldname, String classname,
             String fieldsig) throws IOException, ClassNotFoundException {
         Object d = doReadObject(false);
-        if (unsafe != null) {
-            try {
-                Class<?> cl = getClassFromName(classname);
-                Field f = cl.getDeclaredField(fieldname);
-                if (d != null && !f.getType().isInstance(d)) {
-                    throw new IbisIOException("wrong field type");
-                }
-                Object key = unsafeObjectFieldOffsetMethod.invoke(unsafe, f);
-                unsafePutObjectMethod.invoke(unsafe, ref, key, d);
-                return;
-            } catch (Throwable ex) {
-                throw new IbisIOException("got exception", ex);
-            }
+        MethodHandle setter = getFinalFieldSetter(ref, classname, fieldname);
+        try {
+            setter.invokeExact(ref, d);
+        } catch (ClassCastException ex) {
+            throw new IbisIOException("wrong field type", ex);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
-        throw new IOException("No unsafe");
     }
 
     /**
@@ -1228,106 +1311,286 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
      */
     void alternativeDefaultReadObject(AlternativeTypeInfo t, Object ref)
             throws ClassNotFoundException, IllegalAccessException, IOException {
-        int temp = 0;
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("alternativeDefaultReadObject, class = "
                     + t.clazz.getName());
         }
+        if (t.serializer != null) {
+            t.serializer.readFields(this, ref);
+            return;
+        }
+        boolean setters = t.hasFieldSetters();
+        int temp = readPrimitiveFields(t, ref);
+        for (int i = 0; i < t.reference_count; i++) {
+            if (t.fields_final[temp] && ! setters) {
+                String fieldname = t.serializable_fields[temp].getName();
+                String fieldtype
+                        = t.serializable_fields[temp].getType().getName();
+
+                if (fieldtype.startsWith("[")) {
+                    // do nothing
+                } else {
+                    fieldtype = "L" + fieldtype.replace('.', '/') + ";";
+                }
+
+                // logger.debug("fieldname = " + fieldname);
+                // logger.debug("signature = " + fieldtype);
+
+                readFieldObject(ref, fieldname, t.clazz.getName(), fieldtype);
+            } else {
+                Object o = doReadObject(false);
+                if (DEBUG && logger.isDebugEnabled()) {
+                    if (o == null) {
+                        logger.debug("Assigning null to field "
+                                + t.serializable_fields[temp].getName());
+                    } else {
+                        logger.debug("Assigning an object of type "
+                                + o.getClass().getName() + " to field "
+                                + t.serializable_fields[temp].getName());
+                    }
+                }
+                t.setObject(temp, ref, o);
+            }
+            temp++;
+        }
+    }
+
+    /**
+     * Reads the primitive serializable fields of an object <code>ref</code>
+     * at the level of type information <code>t</code>.
+     *
+     * @param t		the type info for object <code>ref</code>
+     * @param ref	the object of which the fields are to be read
+     * @return the index of the first reference field.
+     *
+     * @exception IOException		 when an IO error occurs
+     * @exception IllegalAccessException when access to a field is denied.
+     */
+    private int readPrimitiveFields(AlternativeTypeInfo t, Object ref)
+            throws IOException, IllegalAccessException {
+        int temp = 0;
+        boolean setters = t.hasFieldSetters();
         for (int i = 0; i < t.double_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldDouble(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setDouble(ref, readDouble());
+                t.setDouble(temp, ref, readDouble());
             }
             temp++;
         }
         for (int i = 0; i < t.long_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldLong(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setLong(ref, readLong());
+                t.setLong(temp, ref, readLong());
             }
             temp++;
         }
         for (int i = 0; i < t.float_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldFloat(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setFloat(ref, readFloat());
+                t.setFloat(temp, ref, readFloat());
             }
             temp++;
         }
         for (int i = 0; i < t.int_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldInt(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setInt(ref, readInt());
+                t.setInt(temp, ref, readInt());
             }
             temp++;
         }
         for (int i = 0; i < t.short_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldShort(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setShort(ref, readShort());
+                t.setShort(temp, ref, readShort());
             }
             temp++;
         }
         for (int i = 0; i < t.char_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldChar(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setChar(ref, readChar());
+                t.setChar(temp, ref, readChar());
             }
             temp++;
         }
         for (int i = 0; i < t.byte_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldByte(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setByte(ref, readByte());
+                t.setByte(temp, ref, readByte());
             }
             temp++;
         }
         for (int i = 0; i < t.boolean_count; i++) {
-            if (t.fields_final[temp]) {
+            if (t.fields_final[temp] && ! setters) {
                 readFieldBoolean(ref, t.serializable_fields[temp].getName(), t.clazz.getName());
             } else {
-                t.serializable_fields[temp].setBoolean(ref, readBoolean());
+                t.setBoolean(temp, ref, readBoolean());
             }
             temp++;
         }
-        for (int i = 0; i < t.reference_count; i++) {
-            if (t.fields_final[temp]) {
-                String fieldname = t.serializable_fields[temp].getName();
-                String fieldtype
-                        = t.serializable_fields[temp].getType().getName();
+        return temp;
+    }
 
-                if (fieldtype.startsWith("[")) {
-                    // do nothing
+    /**
+     * Creates a new object of type <code>t</code> that is traversed
+     * iteratively, and reads its primitive fields at the topmost level, or,
+     * for arrays, its length. The object is then pushed on the work stack,
+     * so that its reference fields or elements are read by
+     * {@link #readWork(int)}.
+     *
+     * @param t		the type info of the object
+     * @return the new object.
+     * @exception IOException	gets thrown when an IO error occurs.
+     */
+    private Object pushWork(AlternativeTypeInfo t) throws IOException {
+        Object ref;
+
+        if (t.isArray) {
+            int len = readInt();
+            ref = java.lang.reflect.Array.newInstance(
+                    t.clazz.getComponentType(), len);
+            addObjectToCycleCheck(ref);
+        } else {
+            ref = create_uninitialized_object(t.clazz);
+            try {
+                readPrimitiveFields(t.levels[0], ref);
+            } catch (IllegalAccessException e) {
+                throw new IbisNotSerializableException(
+                        "Serializable failed for : " + t.clazz.getName(), e);
+            }
+        }
+
+        if (work_objects == null || work_size == work_objects.length) {
+            int size = work_objects == null ? 64 : 2 * work_size;
+            Object[] new_objects = new Object[size];
+            AlternativeTypeInfo[] new_types = new AlternativeTypeInfo[size];
+            int[] new_level = new int[size];
+            int[] new_index = new int[size];
+            if (work_objects != null) {
+                System.arraycopy(work_objects, 0, new_objects, 0, work_size);
+                System.arraycopy(work_types, 0, new_types, 0, work_size);
+                System.arraycopy(work_level, 0, new_level, 0, work_size);
+                System.arraycopy(work_index, 0, new_index, 0, work_size);
+            }
+            work_objects = new_objects;
+            work_types = new_types;
+            work_level = new_level;
+            work_index = new_index;
+        }
+        work_objects[work_size] = ref;
+        work_types[work_size] = t;
+        work_level[work_size] = 0;
+        work_index[work_size] = 0;
+        work_size++;
+
+        return ref;
+    }
+
+    /**
+     * Reads the remaining reference fields and elements of the objects on
+     * the work stack above <code>base</code>, in depth-first order, and
+     * assigns them as soon as they are created, so that back references
+     * resolve to partially read objects, just like with recursion.
+     *
+     * @param base	the work stack size at which to stop
+     * @exception IOException	gets thrown when an IO error occurs.
+     * @exception ClassNotFoundException when a class cannot be loaded.
+     */
+    private void readWork(int base)
+            throws IOException, ClassNotFoundException {
+        while (work_size > base) {
+            int top = work_size - 1;
+            Object ref = work_objects[top];
+            AlternativeTypeInfo t = work_types[top];
+            AlternativeTypeInfo lt = null;
+            int field = work_index[top];
+
+            try {
+                if (t.isArray) {
+                    if (field == ((Object[]) ref).length) {
+                        work_objects[top] = null;
+                        work_size--;
+                        continue;
+                    }
                 } else {
-                    fieldtype = "L" + fieldtype.replace('.', '/') + ";";
+                    lt = t.levels[work_level[top]];
+                    if (field == lt.reference_count) {
+                        int level = work_level[top] + 1;
+                        if (level == t.levels.length) {
+                            work_objects[top] = null;
+                            work_size--;
+                            continue;
+                        }
+                        work_level[top] = level;
+                        work_index[top] = 0;
+                        readPrimitiveFields(t.levels[level], ref);
+                        continue;
+                    }
+                    field += lt.serializable_fields.length
+                            - lt.reference_count;
                 }
+                work_index[top]++;
 
-                // logger.debug("fieldname = " + fieldname);
-                // logger.debug("signature = " + fieldtype);
-
-                readFieldObject(ref, fieldname, t.clazz.getName(), fieldtype);
-            } else {
-                Object o = doReadObject(false);
-                if (DEBUG && logger.isDebugEnabled()) {
+                Object o;
+                int handle_or_type = readHandle();
+                if (handle_or_type == Constants.NUL_HANDLE) {
+                    o = null;
+                } else if ((handle_or_type & Constants.TYPE_BIT) == 0) {
+                    o = objects.get(handle_or_type);
                     if (o == null) {
-                        logger.debug("Assigning null to field "
-                                + t.serializable_fields[temp].getName());
+                        throw new InvalidObjectException("readObject got handle "
+                                + handle_or_type + " to unshared object");
+                    }
+                } else {
+                    int type = handle_or_type & Constants.TYPE_MASK;
+                    AlternativeTypeInfo ct = readType(type);
+                    if (ct.iterativeRead) {
+                        o = pushWork(ct);
                     } else {
-                        logger.debug("Assigning an object of type "
-                                + o.getClass().getName() + " to field "
-                                + t.serializable_fields[temp].getName());
+                        o = ct.reader.readObject(this, ct, type);
                     }
                 }
-                t.serializable_fields[temp].set(ref, o);
+
+                if (lt == null) {
+                    ((Object[]) ref)[field] = o;
+                } else if (lt.fields_final[field] && ! lt.hasFieldSetters()) {
+                    setFinalObject(lt, field, ref, o);
+                } else {
+                    lt.setObject(field, ref, o);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IbisNotSerializableException(
+                        "Serializable failed for : " + t.clazz.getName(), e);
             }
-            temp++;
+        }
+    }
+
+    /**
+     * Assigns a final reference field without a field handle, through the
+     * setter that is also used by {@link #readFieldObject}.
+     *
+     * @param t		the type info of the level that declares the field
+     * @param field	the index of the field
+     * @param ref	the object of which the field is assigned
+     * @param o		the value
+     * @exception IOException	gets thrown when the field cannot be set.
+     */
+    private void setFinalObject(AlternativeTypeInfo t, int field, Object ref,
+            Object o) throws IOException {
+        MethodHandle setter = getFinalFieldSetter(ref, t.clazz.getName(),
+                t.serializable_fields[field].getName());
+        try {
+            setter.invokeExact(ref, o);
+        } catch (ClassCastException ex) {
+            throw new IbisIOException("wrong field type", ex);
+        } catch (Throwable ex) {
+            throw new IbisIOException("got exception", ex);
         }
     }
 
@@ -1637,7 +1900,7 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
             return o;
         }
 
-        if (unshared) {
+        if (unshared && ! tree) {
             unshared_handle = next_handle;
         }
 
@@ -1649,7 +1912,14 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
                     + " handle = " + next_handle);
         }
 
-        Object obj = t.reader.readObject(this, t, type);
+        Object obj;
+        if (ITERATIVE && t.iterativeRead) {
+            int base = work_size;
+            obj = pushWork(t);
+            readWork(base);
+        } else {
+            obj = t.reader.readObject(this, t, type);
+        }
 
         if (TIME_IBIS_SERIALIZATION) {
             stopTimer();
@@ -7,6 +7,7 @@ import java.io.NotActiveException;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.ObjectStreamClass;
+import java.util.Arrays;
 import java.util.Hashtable;
 
 import org.apache.log4j.Logger;
@@ -24,6 +25,38 @@ public class IbisSerializationOutputStream
     /** If <code>false</code>, makes all timer calls disappear. */
     private static final boolean TIME_IBIS_SERIALIZATION = false;
 
+    /**
+     * If <code>true</code>, objects that allow it are written with an
+     * explicit work stack instead of recursion.
+     */
+    private static final boolean ITERATIVE
+            = IOProperties.properties.getBooleanProperty(IOProperties.s_iterative);
+
+    /**
+     * The size of the handle window, a power of two, or 0 when the handle
+     * table is unbounded.
+     */
+    private static final int WINDOW;
+
+    static {
+        int w = IOProperties.properties.getIntProperty(
+                IOProperties.s_handle_window, 0);
+        int x = 0;
+        if (w > 0) {
+            x = 1;
+            while (x < w && x < (1 << 28)) {
+                x <<= 1;
+            }
+        }
+        WINDOW = x;
+    }
+
+    /**
+     * In windowed mode, the stream is reset when the handles reach this
+     * value, so that they cannot overflow.
+     */
+    private static final int HANDLE_LIMIT = 1 << 30;
+
     /** Record how many objects of any class are sent. */
     private static final boolean STATS_OBJECTS
             = IOProperties.properties.getBooleanProperty(IOProperties.s_stats_written);
@@ -85,10 +118,45 @@ public class IbisSerializationOutputStream
     /** The first free object handle. */
     int next_handle;
 
-    /** Hash table for keeping references to objects already written. */
-    private HandleHash references = new HandleHash(2048);
+    /**
+     * Hash table for keeping references to objects already written.
+     * In windowed mode, this is always a probing table, because the
+     * chained one grows with the highest handle, not with the number of
+     * entries.
+     */
+    private HandleTable references = WINDOW > 0
+            ? new ProbingHandleHash(WINDOW << 1)
+            : HandleTable.createHandleTable(2048);
 
-    // private IbisHash references  = new IbisHash(2048);
+    /**
+     * In windowed mode, a ring with the objects of the live handles, from
+     * <code>window_low</code> up to <code>next_handle</code>, indexed by
+     * handle modulo its length, a power of two. When a new handle is
+     * assigned, the handles more than {@link #WINDOW} below it are retired:
+     * their objects are removed from the handle table, so that they are
+     * written again when they reappear. Handles of the object graph that
+     * is being written are pinned, see <code>window_pin</code>, so the ring
+     * grows when a single graph needs more than {@link #WINDOW} handles.
+     * Otherwise <code>null</code>.
+     */
+    private Object[] window = WINDOW > 0 ? new Object[WINDOW << 1] : null;
+
+    /** The lowest handle that is not retired. */
+    private int window_low = Constants.CONTROL_HANDLES;
+
+    /**
+     * The first handle of the outermost object that is being written, or
+     * <code>Integer.MAX_VALUE</code>. Handles from here on are not retired,
+     * as the graph may still refer to them, for instance in a cycle.
+     */
+    private int window_pin = Integer.MAX_VALUE;
+
+    /**
+     * The lowest live handle that the receiver knows of. Handles below
+     * <code>window_low</code> are announced in batches of
+     * {@link #WINDOW}, so that the receiver can drop them too.
+     */
+    private int window_sent = Constants.CONTROL_HANDLES;
 
     /** Remember when a reset must be sent out. */
     private boolean resetPending = false;
@@ -96,11 +164,69 @@ public class IbisSerializationOutputStream
     /** Remember when a clear must be sent out. */
     private boolean clearPending = false;
 
+    /** Set in tree mode, see {@link #setTreeMode(boolean)}. */
+    private boolean tree = false;
+
+    /** The mode last announced to the receiver. */
+    private boolean treeSent = false;
+
     /** The first free type index. */
     private int next_type;
 
-    /** Hashtable for types already put on the stream. */
-    private IbisHash types = new IbisHash();
+    /**
+     * Class indices from this one on are kept in the overflow table. The
+     * class index counts all types the JVM has seen, so this bounds the
+     * direct table of each stream to 8 bytes per index, 8KB in all.
+     */
+    private static final int TYPE_TABLE_LIMIT = 1024;
+
+    /**
+     * Type numbers of the types already put on the stream, indexed by
+     * {@link AlternativeTypeInfo#classIndex}. An entry is only valid if
+     * its entry in <code>type_generations</code> equals
+     * <code>generation</code>, so that clearing the types just increments
+     * <code>generation</code>.
+     */
+    private int[] type_numbers = new int[64];
+
+    /** The generation in which each entry of type_numbers was set. */
+    private int[] type_generations = new int[64];
+
+    /**
+     * Overflow table for class indices from {@link #TYPE_TABLE_LIMIT} on,
+     * with linear probing: the class index + 1 of each entry, or 0 if the
+     * entry is free. It costs 8 bytes per type written at such an index,
+     * at twice the number of those types at most. Allocated when first
+     * needed.
+     */
+    private int[] overflow_keys;
+
+    /** Type numbers of the entries of <code>overflow_keys</code>. */
+    private int[] overflow_numbers;
+
+    /** Number of entries in the overflow table. */
+    private int overflow_count;
+
+    /** The current generation of the type table. */
+    private int generation = 0;
+
+    /** <code>AlternativeTypeInfo</code>s of the primitive array types. */
+    private static final AlternativeTypeInfo[] primitiveArrayInfos = {
+        null,
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classBooleanArray),
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classByteArray),
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classCharArray),
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classShortArray),
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classIntArray),
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classLongArray),
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classFloatArray),
+        AlternativeTypeInfo.getAlternativeTypeInfo(Constants.classDoubleArray) };
+
+    /**
+     * The class registry announced on the stream since the last clear,
+     * or <code>null</code>.
+     */
+    private ClassRegistry.Table registry;
 
     /**
      * There is a notion of a "current" object. This is needed when a
@@ -142,8 +268,21 @@ public class IbisSerializationOutputStream
 
     private int stack_size = 0;
 
-    private Class<?> lastClass;
-    private int   lastTypeno;
+    /**
+     * Work stack of the iterative traversal. Each entry is an object of
+     * which the reference fields (or elements) are still being written,
+     * with its type, the index of the serializable level it is at, and the
+     * index of the next reference field or element.
+     */
+    private Object[] work_objects;
+
+    private AlternativeTypeInfo[] work_types;
+
+    private int[] work_level;
+
+    private int[] work_index;
+
+    private int work_size = 0;
 
     /**
      * Constructor with an <code>DataOutputStream</code>.
@@ -264,26 +403,28 @@ public class IbisSerializationOutputStream
         if (false) {
             System.err.print("IbisOutput: references -> ");
             references.statistics();
-            System.err.print("IbisOutput: types      -> ");
-            types.statistics();
         }
     }
 
     /**
-     * Initializes the type hash by adding arrays of primitive types.
+     * Clears the type table, and adds the arrays of primitive types.
      */
     private void types_clear() {
-        lastClass = null;
-        types.clear();
-        types.put(Constants.classBooleanArray, Constants.TYPE_BOOLEAN | Constants.TYPE_BIT);
-        types.put(Constants.classByteArray, Constants.TYPE_BYTE | Constants.TYPE_BIT);
-        types.put(Constants.classCharArray, Constants.TYPE_CHAR | Constants.TYPE_BIT);
-        types.put(Constants.classShortArray, Constants.TYPE_SHORT | Constants.TYPE_BIT);
-        types.put(Constants.classIntArray, Constants.TYPE_INT | Constants.TYPE_BIT);
-        types.put(Constants.classLongArray, Constants.TYPE_LONG | Constants.TYPE_BIT);
-        types.put(Constants.classFloatArray, Constants.TYPE_FLOAT | Constants.TYPE_BIT);
-        types.put(Constants.classDoubleArray, Constants.TYPE_DOUBLE | Constants.TYPE_BIT);
+        generation++;
+        if (generation == 0) {
+            // Wrapped around, old entries could become valid again.
+            Arrays.fill(type_generations, 0);
+            generation = 1;
+        }
+        if (overflow_count != 0) {
+            Arrays.fill(overflow_keys, 0);
+            overflow_count = 0;
+        }
+        for (int i = Constants.BEGIN_TYPES; i < Constants.PRIMITIVE_TYPES; i++) {
+            putType(primitiveArrayInfos[i], i | Constants.TYPE_BIT);
+        }
         next_type = Constants.PRIMITIVE_TYPES;
+        registry = null;
     }
 
     public void reset() {
@@ -307,6 +448,11 @@ public class IbisSerializationOutputStream
                 resetPending = true;
             }
             next_handle = Constants.CONTROL_HANDLES;
+            if (window != null) {
+                Arrays.fill(window, null);
+                window_low = Constants.CONTROL_HANDLES;
+                window_sent = Constants.CONTROL_HANDLES;
+            }
         }
         if (cleartypes) {
             types_clear();
@@ -332,8 +478,12 @@ public class IbisSerializationOutputStream
             }
             return;
         }
-        int hashCode = HandleHash.getHashCode(ref);
-        int handle = references.find(ref, hashCode);
+        int hashCode = 0;
+        int handle = 0;
+        if (! tree) {
+            hashCode = HandleHash.getHashCode(ref);
+            handle = references.find(ref, hashCode);
+        }
         if (handle == 0) {
             assignHandle(ref, hashCode);
             writeType(java.lang.Class.class);
@@ -367,6 +517,21 @@ public class IbisSerializationOutputStream
             }
             resetPending = false;
         }
+        if (tree != treeSent) {
+            writeInt(tree ? Constants.TREE_HANDLE : Constants.GRAPH_HANDLE);
+            if (DEBUG && logger.isDebugEnabled()) {
+                logger.debug("wrote a " + (tree ? "TREE" : "GRAPH"));
+            }
+            treeSent = tree;
+        }
+        if (window != null && window_low - window_sent >= WINDOW) {
+            writeInt(Constants.WINDOW_HANDLE);
+            writeInt(window_low);
+            if (DEBUG && logger.isDebugEnabled()) {
+                logger.debug("wrote a WINDOW from " + window_low);
+            }
+            window_sent = window_low;
+        }
 
         // treating handles as normal int's --N
         writeInt(v);
@@ -500,6 +665,11 @@ public class IbisSerializationOutputStream
      */
     private boolean writeTypeHandle(Object ref, Class<?> clazz)
             throws IOException {
+        if (tree) {
+            writeType(clazz);
+            return false;
+        }
+
         int handle = references.lazyPut(ref, next_handle);
 
         if (handle != next_handle) {
@@ -509,6 +679,9 @@ public class IbisSerializationOutputStream
 
         writeType(clazz);
         next_handle++;
+        if (window != null) {
+            retire(ref, handle);
+        }
 
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("writeTypeHandle: references[" + handle + "] = "
@@ -645,35 +818,156 @@ public class IbisSerializationOutputStream
     }
 
     /**
-     * Adds the type represented by <code>clazz</code> to the type
+     * Enters the type represented by <code>t</code> in the type table.
+     * @param t			represents the type to be added
+     * @param type_number	its type number
+     */
+    private void putType(AlternativeTypeInfo t, int type_number) {
+        int index = t.classIndex;
+        if (index >= TYPE_TABLE_LIMIT) {
+            putOverflow(index, type_number);
+            return;
+        }
+        if (index >= type_numbers.length) {
+            int size = Math.min(Math.max(2 * type_numbers.length, index + 1),
+                    TYPE_TABLE_LIMIT);
+            int[] numbers = new int[size];
+            int[] generations = new int[size];
+            System.arraycopy(type_numbers, 0, numbers, 0, type_numbers.length);
+            System.arraycopy(type_generations, 0, generations, 0,
+                    type_generations.length);
+            type_numbers = numbers;
+            type_generations = generations;
+        }
+        type_numbers[index] = type_number;
+        type_generations[index] = generation;
+    }
+
+    /**
+     * Enters a type with a class index from {@link #TYPE_TABLE_LIMIT} on in
+     * the overflow table.
+     * @param index		the class index of the type
+     * @param type_number	its type number
+     */
+    private void putOverflow(int index, int type_number) {
+        if (overflow_keys == null) {
+            overflow_keys = new int[16];
+            overflow_numbers = new int[16];
+        } else if (2 * (overflow_count + 1) > overflow_keys.length) {
+            int[] keys = overflow_keys;
+            int[] numbers = overflow_numbers;
+            overflow_keys = new int[2 * keys.length];
+            overflow_numbers = new int[2 * keys.length];
+            overflow_count = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    putOverflow(keys[i] - 1, numbers[i]);
+                }
+            }
+        }
+        int mask = overflow_keys.length - 1;
+        int i = index & mask;
+        while (overflow_keys[i] != 0 && overflow_keys[i] != index + 1) {
+            i = (i + 1) & mask;
+        }
+        if (overflow_keys[i] == 0) {
+            overflow_keys[i] = index + 1;
+            overflow_count++;
+        }
+        overflow_numbers[i] = type_number;
+    }
+
+    /**
+     * Looks up the type number of the type with the specified class index.
+     * @param index		the class index of the type
+     * @return			the type number, or 0 if the type is not
+     * 				in the table.
+     */
+    private int findType(int index) {
+        if (index < TYPE_TABLE_LIMIT) {
+            if (index < type_numbers.length
+                    && type_generations[index] == generation) {
+                return type_numbers[index];
+            }
+            return 0;
+        }
+        if (overflow_count == 0) {
+            return 0;
+        }
+        int mask = overflow_keys.length - 1;
+        for (int i = index & mask; overflow_keys[i] != 0; i = (i + 1) & mask) {
+            if (overflow_keys[i] == index + 1) {
+                return overflow_numbers[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds the type represented by <code>t</code> to the type
      * table and returns its number.
-     * @param clazz	represents the type to be added
+     * @param t		represents the type to be added
      * @return		the type number.
      */
-    private int newType(Class<?> clazz) {
+    private int newType(AlternativeTypeInfo t) {
         int type_number = next_type++;
 
         type_number = (type_number | Constants.TYPE_BIT);
-        types.put(clazz, type_number);
+        putType(t, type_number);
 
         return type_number;
     }
 
+    /**
+     * Writes the registry number of the type represented by <code>t</code>
+     * if it is in the class registry, preceded by the registry hash if that
+     * was not yet announced since the last clear.
+     * @param t			the type to be written.
+     * @exception IOException	gets thrown when an IO error occurs.
+     * @return			whether the type was registered.
+     */
+    private boolean writeRegisteredType(AlternativeTypeInfo t)
+            throws IOException {
+        ClassRegistry.Table r = registry;
+        if (r == null) {
+            r = ClassRegistry.table();
+        }
+        int id = r.find(t.clazz);
+        if (id < 0) {
+            return false;
+        }
+        if (registry == null) {
+            registry = r;
+            writeHandle(Constants.REGISTRY_HANDLE);
+            writeLong(r.hash);
+        }
+
+        int type_number = id | Constants.REGISTRY_BIT | Constants.TYPE_BIT;
+        putType(t, type_number);
+        writeHandle(type_number);
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("wrote registered type " + id + " type "
+                    + t.clazz.getName());
+        }
+        return true;
+    }
+
     /**
      * Writes a type number, and, when new, a type name to the output stream.
      * @param clazz		the clazz to be written.
      * @exception IOException	gets thrown when an IO error occurs.
      */
     void writeType(Class<?> clazz) throws IOException {
-        int type_number;
+        writeType(AlternativeTypeInfo.getAlternativeTypeInfo(clazz));
+    }
 
-        if (clazz == lastClass) {
-            type_number = lastTypeno;
-        } else {
-            type_number = types.find(clazz);
-            lastClass = clazz;
-            lastTypeno = type_number;
-        }
+    /**
+     * Writes a type number, and, when new, a type name to the output stream.
+     * @param t			the type to be written.
+     * @exception IOException	gets thrown when an IO error occurs.
+     */
+    void writeType(AlternativeTypeInfo t) throws IOException {
+        int type_number = findType(t.classIndex);
 
         if (type_number != 0) {
             writeHandle(type_number); // TYPE_BIT is set, receiver sees it
@@ -685,16 +979,18 @@ public class IbisSerializationOutputStream
             return;
         }
 
-        type_number = newType(clazz);
-        lastTypeno = type_number;
-        lastClass = clazz;
+        if (writeRegisteredType(t)) {
+            return;
+        }
+
+        type_number = newType(t);
         writeHandle(type_number); // TYPE_BIT is set, receiver sees it
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("wrote NEW type number 0x"
                     + Integer.toHexString(type_number) + " type "
-                    + clazz.getName());
+                    + t.clazz.getName());
         }
-        writeUTF(clazz.getName());
+        writeUTF(t.clazz.getName());
     }
 
     /**
@@ -711,11 +1007,19 @@ public class IbisSerializationOutputStream
             return 0;
         }
 
+        if (tree) {
+            writeType(ref.getClass());
+            return 1;
+        }
+
         int handle = references.lazyPut(ref, next_handle);
         if (handle == next_handle) {
             // System.err.write("+");
             Class<?> clazz = ref.getClass();
             next_handle++;
+            if (window != null) {
+                retire(ref, handle);
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeKnownObjectHeader -> writing NEW object, class = "
                         + clazz.getName());
@@ -732,6 +1036,43 @@ public class IbisSerializationOutputStream
         return -1;
     }
 
+    /**
+     * Writes the header of object <code>ref</code> without entering it in
+     * the handle table. This gets called from IOGenerator-generated code
+     * for fields that can only refer to a tree of objects, see
+     * {@link #setTreeMode(boolean)}. Returns 1 if the object is not null.
+     * @param ref		the object whose header is to be written
+     * @exception IOException	gets thrown when an IO error occurs.
+     * @return			1 if it is an object, 0 if it is null.
+     */
+    public int writeUnsharedObjectHeader(Object ref) throws IOException {
+        if (ref == null) {
+            writeHandle(Constants.NUL_HANDLE);
+            return 0;
+        }
+        writeType(ref.getClass());
+        return 1;
+    }
+
+    /**
+     * Writes the header of array of primitives <code>ref</code> without
+     * entering it in the handle table, see
+     * {@link #writeUnsharedObjectHeader(Object)}.
+     * @param ref		the array whose header is to be written
+     * @param typehandle	the type number
+     * @exception IOException	gets thrown when an IO error occurs.
+     * @return			1 if it is an array, 0 if it is null.
+     */
+    public int writeUnsharedArrayHeader(Object ref, int typehandle)
+            throws IOException {
+        if (ref == null) {
+            writeHandle(Constants.NUL_HANDLE);
+            return 0;
+        }
+        writeHandle(typehandle | Constants.TYPE_BIT);
+        return 1;
+    }
+
     /**
      * Writes a (new or old) handle for array of primitives <code>ref</code>
      * to the output stream. Returns 1 if the object is new, -1 if not.
@@ -747,11 +1088,19 @@ public class IbisSerializationOutputStream
             return 0;
         }
 
+        if (tree) {
+            writeHandle(typehandle | Constants.TYPE_BIT);
+            return 1;
+        }
+
         int handle = references.lazyPut(ref, next_handle);
         if (handle == next_handle) {
             // System.err.write("+");
             next_handle++;
-            writeInt(typehandle | Constants.TYPE_BIT);
+            if (window != null) {
+                retire(ref, handle);
+            }
+            writeHandle(typehandle | Constants.TYPE_BIT);
             return 1;
         }
 
@@ -775,40 +1124,61 @@ public class IbisSerializationOutputStream
      */
     void alternativeDefaultWriteObject(AlternativeTypeInfo t,
             Object ref) throws IOException, IllegalAccessException {
-        int temp = 0;
-        int i;
-
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("alternativeDefaultWriteObject, class = "
                     + t.clazz.getName());
         }
+        if (t.serializer != null) {
+            t.serializer.writeFields(this, ref);
+            return;
+        }
+        int temp = writePrimitiveFields(t, ref);
+        for (int i = 0; i < t.reference_count; i++) {
+            doWriteObject(t.getObject(temp++, ref));
+        }
+    }
+
+    /**
+     * Writes the primitive serializable fields of an object <code>ref</code>
+     * at the level of type information <code>t</code>.
+     *
+     * @param t		the type info for object <code>ref</code>
+     * @param ref	the object of which the fields are to be written
+     * @return the index of the first reference field.
+     *
+     * @exception IOException		 when an IO error occurs
+     * @exception IllegalAccessException when access to a field is denied.
+     */
+    private int writePrimitiveFields(AlternativeTypeInfo t, Object ref)
+            throws IOException, IllegalAccessException {
+        int temp = 0;
+        int i;
+
         for (i = 0; i < t.double_count; i++) {
-            writeDouble(t.serializable_fields[temp++].getDouble(ref));
+            writeDouble(t.getDouble(temp++, ref));
         }
         for (i = 0; i < t.long_count; i++) {
-            writeLong(t.serializable_fields[temp++].getLong(ref));
+            writeLong(t.getLong(temp++, ref));
         }
         for (i = 0; i < t.float_count; i++) {
-            writeFloat(t.serializable_fields[temp++].getFloat(ref));
+            writeFloat(t.getFloat(temp++, ref));
         }
         for (i = 0; i < t.int_count; i++) {
-            writeInt(t.serializable_fields[temp++].getInt(ref));
+            writeInt(t.getInt(temp++, ref));
         }
         for (i = 0; i < t.short_count; i++) {
-            writeShort(t.serializable_fields[temp++].getShort(ref));
+            writeShort(t.getShort(temp++, ref));
         }
         for (i = 0; i < t.char_count; i++) {
-            writeChar(t.serializable_fields[temp++].getChar(ref));
+            writeChar(t.getChar(temp++, ref));
         }
         for (i = 0; i < t.byte_count; i++) {
-            writeByte(t.serializable_fields[temp++].getByte(ref));
+            writeByte(t.getByte(temp++, ref));
         }
         for (i = 0; i < t.boolean_count; i++) {
-            writeBoolean(t.serializable_fields[temp++].getBoolean(ref));
-        }
-        for (i = 0; i < t.reference_count; i++) {
-            doWriteObject(t.serializable_fields[temp++].get(ref));
+            writeBoolean(t.getBoolean(temp++, ref));
         }
+        return temp;
     }
 
     /**
@@ -966,9 +1336,14 @@ public class IbisSerializationOutputStream
             return;
         }
 
-        int handle = references.lazyPut(ref, next_handle);
-        if (handle == next_handle) {
-            next_handle++;
+        int handle = tree ? 0 : references.lazyPut(ref, next_handle);
+        if (tree || handle == next_handle) {
+            if (! tree) {
+                next_handle++;
+                if (window != null) {
+                    retire(ref, handle);
+                }
+            }
             writeType(java.lang.String.class);
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("writeString: " + ref);
@@ -1034,30 +1409,125 @@ public class IbisSerializationOutputStream
      * @exception java.io.IOException is thrown when an IO error occurs.
      */
     public void writeObject(Object ref) throws IOException {
-        doWriteObject(ref);
+        if (window == null || window_pin != Integer.MAX_VALUE) {
+            doWriteObject(ref);
+            return;
+        }
+        if (next_handle >= HANDLE_LIMIT) {
+            reset();
+        }
+        window_pin = next_handle;
+        try {
+            doWriteObject(ref);
+        } finally {
+            window_pin = Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Switches tree mode on or off. In tree mode, objects written get no
+     * handles: they are not entered in the handle table, and are not
+     * looked up in it. This saves the handle administration for object
+     * graphs that are trees, but an object that is reachable more than
+     * once is written more than once, and a cycle makes the writer
+     * recurse until it fails. Objects written before tree mode was
+     * switched on are not referred to either.
+     * The receiver is notified of the switch in the stream, so that it
+     * does not administer handles in tree mode either.
+     * @param on	set when tree mode must be switched on.
+     */
+    public void setTreeMode(boolean on) {
+        tree = on;
+    }
+
+    /**
+     * Returns whether tree mode is on.
+     * @return whether tree mode is on.
+     */
+    public boolean getTreeMode() {
+        return tree;
+    }
+
+    /**
+     * Writes an object graph that is known to be a tree in tree mode,
+     * see {@link #setTreeMode(boolean)}.
+     * @param ref		the object to be written
+     * @exception IOException	gets thrown when an IO error occurs.
+     */
+    public void writeTree(Object ref) throws IOException {
+        boolean old = tree;
+        tree = true;
+        try {
+            doWriteObject(ref);
+        } finally {
+            tree = old;
+        }
     }
 
     public void close() throws IOException {
         super.close();
         replacer = null;
         references = null;
-        types = null;
+        window = null;
+        type_numbers = null;
+        type_generations = null;
+        overflow_keys = null;
+        overflow_numbers = null;
         current_object = null;
         current_putfield = null;
         object_stack = null;
         level_stack = null;
         putfield_stack = null;
-        lastClass = null;
+        work_objects = null;
+        work_types = null;
     }
 
     void assignHandle(Object ref, int hashCode) {
+        if (tree) {
+            return;
+        }
         int handle = next_handle++;
         references.put(ref, handle, hashCode);
+        if (window != null) {
+            retire(ref, handle);
+        }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("assignHandle: references[" + handle + "] = " + ref);
         }
     }
 
+    /**
+     * In windowed mode, retires the handles that are more than
+     * <code>WINDOW</code> handles old and not pinned, removing their
+     * objects from the handle table, and enters the object that got a new
+     * handle in the window.
+     * @param ref	the object that got a new handle
+     * @param handle	its handle
+     */
+    private void retire(Object ref, int handle) {
+        int limit = Math.min(next_handle - WINDOW, window_pin);
+        int mask = window.length - 1;
+        while (window_low < limit) {
+            int i = window_low & mask;
+            Object old = window[i];
+            if (old != null) {
+                references.remove(old, HandleHash.getHashCode(old));
+                window[i] = null;
+            }
+            window_low++;
+        }
+        if (next_handle - window_low > window.length) {
+            Object[] w = new Object[window.length << 1];
+            int m = w.length - 1;
+            for (int h = window_low; h < handle; h++) {
+                w[h & m] = window[h & mask];
+            }
+            window = w;
+            mask = m;
+        }
+        window[handle & mask] = ref;
+    }
+
     void doWriteObject(Object ref) throws IOException {
         /*
          * ref < 0:	type
@@ -1087,8 +1557,12 @@ public class IbisSerializationOutputStream
             ref = replacer.replace(ref);
         }
 
-        int hashCode = HandleHash.getHashCode(ref);
-        int handle = references.find(ref, hashCode);
+        int hashCode = 0;
+        int handle = 0;
+        if (! tree) {
+            hashCode = HandleHash.getHashCode(ref);
+            handle = references.find(ref, hashCode);
+        }
 
         if (handle == 0) {
             Class<?> clazz = ref.getClass();
@@ -1098,7 +1572,13 @@ public class IbisSerializationOutputStream
                 logger.debug("start writeObject of class " + clazz.getName()
                         + " handle = " + next_handle);
             }
-            t.writer.writeObject(this, ref, t, hashCode, false);
+            if (ITERATIVE && t.iterativeWrite) {
+                int base = work_size;
+                pushWork(ref, t, hashCode);
+                writeWork(base);
+            } else {
+                t.writer.writeObject(this, ref, t, hashCode, false);
+            }
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("finished writeObject of class " + clazz.getName());
             }
@@ -1116,6 +1596,142 @@ public class IbisSerializationOutputStream
         }
     }
 
+    /**
+     * Writes the header of a new object that is traversed iteratively,
+     * followed by its primitive fields at the topmost level, or, for
+     * arrays, by the length. The object is then pushed on the work stack,
+     * so that its reference fields or elements are written by
+     * {@link #writeWork(int)}.
+     * The bytes written are exactly those of the recursive traversal.
+     *
+     * @param ref	the object
+     * @param t		its type info
+     * @param hashCode	its hashcode in the handle table
+     * @exception IOException	gets thrown when an IO error occurs.
+     */
+    private void pushWork(Object ref, AlternativeTypeInfo t, int hashCode)
+            throws IOException {
+        if (t.isArray) {
+            if (! writeArrayHeader(ref, t.clazz, ((Object[]) ref).length,
+                    true)) {
+                return;
+            }
+        } else {
+            assignHandle(ref, hashCode);
+            writeType(t);
+            addStatSendObject(ref);
+            try {
+                writePrimitiveFields(t.levels[0], ref);
+            } catch (IllegalAccessException e) {
+                throw new IbisNotSerializableException(
+                        "Serializable failed for : " + t.clazz.getName(), e);
+            }
+        }
+
+        if (work_objects == null || work_size == work_objects.length) {
+            int size = work_objects == null ? 64 : 2 * work_size;
+            Object[] new_objects = new Object[size];
+            AlternativeTypeInfo[] new_types = new AlternativeTypeInfo[size];
+            int[] new_level = new int[size];
+            int[] new_index = new int[size];
+            if (work_objects != null) {
+                System.arraycopy(work_objects, 0, new_objects, 0, work_size);
+                System.arraycopy(work_types, 0, new_types, 0, work_size);
+                System.arraycopy(work_level, 0, new_level, 0, work_size);
+                System.arraycopy(work_index, 0, new_index, 0, work_size);
+            }
+            work_objects = new_objects;
+            work_types = new_types;
+            work_level = new_level;
+            work_index = new_index;
+        }
+        work_objects[work_size] = ref;
+        work_types[work_size] = t;
+        work_level[work_size] = 0;
+        work_index[work_size] = 0;
+        work_size++;
+    }
+
+    /**
+     * Writes the remaining reference fields and elements of the objects on
+     * the work stack above <code>base</code>, in depth-first order. New
+     * objects that can be traversed iteratively are pushed instead of
+     * written recursively; others are written by their own writer.
+     *
+     * @param base	the work stack size at which to stop
+     * @exception IOException	gets thrown when an IO error occurs.
+     */
+    private void writeWork(int base) throws IOException {
+        while (work_size > base) {
+            int top = work_size - 1;
+            Object ref = work_objects[top];
+            AlternativeTypeInfo t = work_types[top];
+            Object field;
+
+            try {
+                if (t.isArray) {
+                    Object[] a = (Object[]) ref;
+                    int i = work_index[top];
+                    if (i == a.length) {
+                        work_objects[top] = null;
+                        work_size--;
+                        continue;
+                    }
+                    work_index[top] = i + 1;
+                    field = a[i];
+                } else {
+                    AlternativeTypeInfo lt = t.levels[work_level[top]];
+                    int i = work_index[top];
+                    if (i == lt.reference_count) {
+                        int level = work_level[top] + 1;
+                        if (level == t.levels.length) {
+                            work_objects[top] = null;
+                            work_size--;
+                            continue;
+                        }
+                        work_level[top] = level;
+                        work_index[top] = 0;
+                        writePrimitiveFields(t.levels[level], ref);
+                        continue;
+                    }
+                    work_index[top] = i + 1;
+                    field = lt.getObject(lt.serializable_fields.length
+                            - lt.reference_count + i, ref);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IbisNotSerializableException(
+                        "Serializable failed for : " + t.clazz.getName(), e);
+            }
+
+            if (field == null) {
+                writeHandle(Constants.NUL_HANDLE);
+                continue;
+            }
+            if (replacer != null) {
+                field = replacer.replace(field);
+            }
+            int hashCode = 0;
+            int handle = 0;
+            if (! tree) {
+                hashCode = HandleHash.getHashCode(field);
+                handle = references.find(field, hashCode);
+            }
+            if (handle != 0) {
+                writeHandle(handle);
+                addStatSendObjectHandle(field);
+                continue;
+            }
+            AlternativeTypeInfo ft
+                    = AlternativeTypeInfo.getAlternativeTypeInfo(
+                            field.getClass());
+            if (ft.iterativeWrite) {
+                pushWork(field, ft, hashCode);
+            } else {
+                ft.writer.writeObject(this, field, ft, hashCode, false);
+            }
+        }
+    }
+
     /**
      * This method writes the serializable fields of object <code>ref</code>
      * at the level indicated by <code>depth</code>.
@@ -14,21 +14,42 @@ public final class IbisVector {
 
     private int maxfill;
 
+    /**
+     * The lowest index that is not retired, see {@link #retire}. Once
+     * elements are retired, those from here up to <code>maxfill</code> are
+     * kept in a ring, at their index modulo <code>current_size</code>, a
+     * power of two.
+     */
+    private int low;
+
+    /** All ones, or <code>current_size</code> minus one in a ring. */
+    private int mask = -1;
+
     public IbisVector() {
         this(INIT_SIZE);
     }
 
     public IbisVector(int size) {
-        array = new Object[size];
-        current_size = size;
+        int s = INIT_SIZE;
+        while (s < size) {
+            s <<= 1;
+        }
+        array = new Object[s];
+        current_size = s;
         maxfill = 0;
     }
 
     private final void double_array() {
         int new_size = current_size * INCREMENT_FACTOR;
         Object[] temp = new Object[new_size];
-        // System.arraycopy(array, 0, temp, 0, current_size);
-        System.arraycopy(array, 0, temp, 0, maxfill);
+        if (mask == -1) {
+            System.arraycopy(array, 0, temp, 0, maxfill);
+        } else {
+            for (int i = low; i < maxfill; i++) {
+                temp[i & (new_size - 1)] = array[i & mask];
+            }
+            mask = new_size - 1;
+        }
         array = temp;
         current_size = new_size;
     }
@@ -37,23 +58,41 @@ public final class IbisVector {
         // System.err.println("objects.add: index = " + index + " data = "
         //         + (data == null ? "NULL" : data.getClass().getName()));
 
-        while (index >= current_size) {
+        while (index - low >= current_size) {
             double_array();
         }
-        array[index] = data;
+        array[index & mask] = data;
         if (index >= maxfill) {
             maxfill = index + 1;
         }
     }
 
     public final Object get(int index) {
-        return array[index];
+        return array[index & mask];
+    }
+
+    /**
+     * Retires the elements below the specified index, so that their slots
+     * can be used again. They must not be asked for any more.
+     * @param index	the new lowest index
+     */
+    public final void retire(int index) {
+        int end = Math.min(index, maxfill);
+        for (int i = low; i < end; i++) {
+            array[i & (current_size - 1)] = null;
+        }
+        if (index > low) {
+            low = index;
+            mask = current_size - 1;
+        }
     }
 
     public final void clear() {
-        for (int i = 0; i < maxfill; i++) {
-            array[i] = null;
+        for (int i = low; i < maxfill; i++) {
+            array[i & (current_size - 1)] = null;
         }
         maxfill = 0;
+        low = 0;
+        mask = -1;
     }
 }
@@ -19,7 +19,7 @@ abstract class IbisWriter {
         if (! unshared) {
             out.assignHandle(ref, hashCode);
         }
-        out.writeType(t.clazz);
+        out.writeType(t);
         IbisSerializationOutputStream.addStatSendObject(ref);
     }
 }
@@ -0,0 +1,336 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a complete implementation of <code>DataInputStream</code>,
+ * reading from a file that is mapped read-only. The file is mapped in
+ * large regions, and data is read directly from the mapping.
+ * It reads files written by {@link MappedDataOutputStream} and by
+ * {@link BufferedArrayOutputStream}, with or without the byte-order
+ * header of the <code>ibis.io.byteorder</code> property. A region is unmapped as soon as
+ * the stream moves on to the next one, and when the stream is closed.
+ */
+public final class MappedDataInputStream extends DataInputStream {
+
+    private static final Logger logger
+            = Logger.getLogger(MappedDataInputStream.class);
+
+    private static final boolean DEBUG = IOProperties.DEBUG;
+
+    /** Size of a mapped region. */
+    private final int REGION_SIZE;
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    /** The size of the file. */
+    private final long size;
+
+    /** The currently mapped region. */
+    private MappedByteBuffer region;
+
+    /** The file offset of the current region. */
+    private long regionStart = 0;
+
+    /** File offset from which bytesRead() counts. */
+    private long base = 0;
+
+    /** The byte order of the data. */
+    private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Constructor, using the default region size.
+     * @param f	the file to read
+     * @exception IOException	when the file could not be opened.
+     */
+    public MappedDataInputStream(File f) throws IOException {
+        this(f, MappedDataOutputStream.DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param f			the file to read
+     * @param regionSize	the size of a mapped region
+     * @exception IOException	when the file could not be opened.
+     */
+    public MappedDataInputStream(File f, int regionSize) throws IOException {
+        REGION_SIZE = regionSize;
+        file = new RandomAccessFile(f, "r");
+        channel = file.getChannel();
+        size = channel.size();
+        map(0);
+        if (Conversion.NEGOTIATE_BYTE_ORDER) {
+            byte[] header = new byte[Conversion.BYTE_ORDER_HEADER_SIZE];
+            ensure(header.length);
+            region.get(header);
+            order = Conversion.getByteOrder(header, 0)
+                    ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            region.order(order);
+        }
+    }
+
+    /**
+     * Maps the region starting at the specified file offset.
+     * @param start	the file offset
+     * @exception IOException	in case of trouble.
+     */
+    private void map(long start) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("mapping region at " + start);
+        }
+        region = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(REGION_SIZE, size - start));
+        region.order(order);
+        regionStart = start;
+    }
+
+    /**
+     * Makes sure that at least <code>len</code> bytes are available in
+     * the current region, mapping the next region if needed.
+     * @param len	the number of bytes needed
+     * @exception IOException	in case of trouble.
+     */
+    private void ensure(int len) throws IOException {
+        if (region.remaining() < len) {
+            long pos = regionStart + region.position();
+            if (size - pos < len) {
+                throw new EOFException("EOF encountered");
+            }
+            MappedByteBuffer old = region;
+            map(pos);
+            MappedDataOutputStream.unmap(old);
+        }
+    }
+
+    public long bytesRead() {
+        return regionStart + region.position() - base;
+    }
+
+    public void resetBytesRead() {
+        base = regionStart + region.position();
+    }
+
+    public int read() throws IOException {
+        try {
+            return readByte() & 0377;
+        } catch(EOFException e) {
+            return -1;
+        }
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            ensure(1);
+        } catch(EOFException e) {
+            return -1;
+        }
+        int n = Math.min(len, region.remaining());
+        region.get(b, off, n);
+        return n;
+    }
+
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE,
+                size - regionStart - region.position());
+    }
+
+    public boolean readBoolean() throws IOException {
+        ensure(1);
+        return region.get() != (byte) 0;
+    }
+
+    public byte readByte() throws IOException {
+        ensure(1);
+        return region.get();
+    }
+
+    public char readChar() throws IOException {
+        ensure(Constants.SIZEOF_CHAR);
+        return region.getChar();
+    }
+
+    public short readShort() throws IOException {
+        ensure(Constants.SIZEOF_SHORT);
+        return region.getShort();
+    }
+
+    public int readInt() throws IOException {
+        ensure(Constants.SIZEOF_INT);
+        return region.getInt();
+    }
+
+    public long readLong() throws IOException {
+        ensure(Constants.SIZEOF_LONG);
+        return region.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        ensure(Constants.SIZEOF_FLOAT);
+        return region.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        ensure(Constants.SIZEOF_DOUBLE);
+        return region.getDouble();
+    }
+
+    public void readArray(boolean[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(boolean[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(region.remaining(), len);
+            for (int i = off; i < off + n; i++) {
+                a[i] = region.get() != (byte) 0;
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(byte[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(byte[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(region.remaining(), len);
+            region.get(a, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(char[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(char[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_CHAR);
+            int n = Math.min(region.remaining() / Constants.SIZEOF_CHAR, len);
+            region.asCharBuffer().get(a, off, n);
+            region.position(region.position() + n * Constants.SIZEOF_CHAR);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(short[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(short[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_SHORT);
+            int n = Math.min(region.remaining() / Constants.SIZEOF_SHORT, len);
+            region.asShortBuffer().get(a, off, n);
+            region.position(region.position() + n * Constants.SIZEOF_SHORT);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(int[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(int[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_INT);
+            int n = Math.min(region.remaining() / Constants.SIZEOF_INT, len);
+            region.asIntBuffer().get(a, off, n);
+            region.position(region.position() + n * Constants.SIZEOF_INT);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(long[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(long[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_LONG);
+            int n = Math.min(region.remaining() / Constants.SIZEOF_LONG, len);
+            region.asLongBuffer().get(a, off, n);
+            region.position(region.position() + n * Constants.SIZEOF_LONG);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(float[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(float[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_FLOAT);
+            int n = Math.min(region.remaining() / Constants.SIZEOF_FLOAT, len);
+            region.asFloatBuffer().get(a, off, n);
+            region.position(region.position() + n * Constants.SIZEOF_FLOAT);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(double[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(double[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_DOUBLE);
+            int n = Math.min(region.remaining() / Constants.SIZEOF_DOUBLE, len);
+            region.asDoubleBuffer().get(a, off, n);
+            region.position(region.position() + n * Constants.SIZEOF_DOUBLE);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void close() throws IOException {
+        if (region == null) {
+            return;
+        }
+        MappedDataOutputStream.unmap(region);
+        region = null;
+        file.close();
+    }
+
+    public int bufferSize() {
+        return IOProperties.BUFFER_SIZE;
+    }
+}
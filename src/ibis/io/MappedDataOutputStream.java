@@ -0,0 +1,419 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a complete implementation of <code>DataOutputStream</code>,
+ * writing to a memory-mapped file. It is intended for checkpoint and
+ * spill files: data is stored directly into the mapping, without system
+ * calls or intermediate buffers. The file is mapped in large regions,
+ * each of which extends the file when it is mapped, and the file is
+ * truncated to the number of bytes actually written when the stream is
+ * closed, after all regions have been unmapped. The region size only
+ * determines the mapping granularity: {@link #bufferSize()} reports the
+ * usual {@link IOProperties#BUFFER_SIZE}, so that serialization streams
+ * on top of this stream do not size their buffers after the mapping. The data written is the same as with
+ * {@link BufferedArrayOutputStream}, and can be read back with
+ * {@link MappedDataInputStream}.
+ */
+public final class MappedDataOutputStream extends DataOutputStream {
+
+    private static final Logger logger
+            = Logger.getLogger(MappedDataOutputStream.class);
+
+    private static final boolean DEBUG = IOProperties.DEBUG;
+
+    /** Default size of a mapped region. */
+    public static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+    /** Size of a mapped region. */
+    private final int REGION_SIZE;
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    /** The currently mapped region. */
+    private MappedByteBuffer region;
+
+    /** Earlier regions, written since the last {@link #sync()}. */
+    private final ArrayList<MappedByteBuffer> unsynced
+            = new ArrayList<MappedByteBuffer>();
+
+    /** The file offset of the current region. */
+    private long regionStart = 0;
+
+    /** File offset from which bytesWritten() counts. */
+    private long base = 0;
+
+    /** The byte order of the data. */
+    private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Constructor, using the default region size.
+     * @param f	the file to write, truncated if it exists
+     * @exception IOException	when the file could not be opened.
+     */
+    public MappedDataOutputStream(File f) throws IOException {
+        this(f, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param f			the file to write, truncated if it exists
+     * @param regionSize	the size of a mapped region
+     * @exception IOException	when the file could not be opened.
+     */
+    public MappedDataOutputStream(File f, int regionSize) throws IOException {
+        REGION_SIZE = regionSize;
+        file = new RandomAccessFile(f, "rw");
+        channel = file.getChannel();
+        channel.truncate(0);
+        if (Conversion.NEGOTIATE_BYTE_ORDER) {
+            order = Conversion.WRITE_BIG_ENDIAN
+                    ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        }
+        map(0);
+        if (Conversion.NEGOTIATE_BYTE_ORDER) {
+            byte[] header = new byte[Conversion.BYTE_ORDER_HEADER_SIZE];
+            Conversion.putByteOrder(header, 0, Conversion.WRITE_BIG_ENDIAN);
+            ensure(header.length);
+            region.put(header);
+        }
+    }
+
+    /**
+     * Maps the region starting at the specified file offset.
+     * @param start	the file offset
+     * @exception IOException	in case of trouble.
+     */
+    private void map(long start) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("mapping region at " + start);
+        }
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start,
+                REGION_SIZE);
+        region.order(order);
+        regionStart = start;
+    }
+
+    /**
+     * Makes sure that there is space for <code>incr</code> more bytes
+     * in the current region, mapping the next region if needed.
+     * @param incr		the space requested
+     * @exception IOException	in case of trouble.
+     */
+    private void ensure(int incr) throws IOException {
+        if (region.remaining() < incr) {
+            unsynced.add(region);
+            map(regionStart + region.position());
+        }
+    }
+
+    /**
+     * Unmaps the specified buffer right away, instead of when it is
+     * garbage collected. A file cannot be truncated on some platforms
+     * while a part of it is still mapped. This is a no-op when the
+     * runtime does not offer <code>sun.misc.Unsafe.invokeCleaner</code>.
+     * The buffer may not be accessed anymore afterwards.
+     * @param b	the buffer to unmap
+     */
+    static void unmap(ByteBuffer b) {
+        if (invokeCleaner == null || b == null) {
+            return;
+        }
+        try {
+            invokeCleaner.invoke(unsafe, b);
+        } catch (Throwable e) {
+            if (DEBUG && logger.isDebugEnabled()) {
+                logger.debug("could not unmap region", e);
+            }
+        }
+    }
+
+    private static final Object unsafe;
+
+    private static final Method invokeCleaner;
+
+    static {
+        Object u = null;
+        Method m = null;
+        try {
+            Class<?> cl = Class.forName("sun.misc.Unsafe");
+            Field f = cl.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+            m = cl.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Throwable e) {
+            // Not available, regions are unmapped when collected.
+            u = null;
+            m = null;
+        }
+        unsafe = u;
+        invokeCleaner = m;
+    }
+
+    public long bytesWritten() {
+        return regionStart + region.position() - base;
+    }
+
+    public void resetBytesWritten() {
+        base = regionStart + region.position();
+    }
+
+    public void write(int b) throws IOException {
+        writeByte((byte) b);
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        ensure(1);
+        region.put(value ? (byte) 1 : (byte) 0);
+    }
+
+    public void writeByte(byte value) throws IOException {
+        ensure(1);
+        region.put(value);
+    }
+
+    public void writeChar(char value) throws IOException {
+        ensure(Constants.SIZEOF_CHAR);
+        region.putChar(value);
+    }
+
+    public void writeShort(short value) throws IOException {
+        ensure(Constants.SIZEOF_SHORT);
+        region.putShort(value);
+    }
+
+    public void writeInt(int value) throws IOException {
+        ensure(Constants.SIZEOF_INT);
+        region.putInt(value);
+    }
+
+    public void writeLong(long value) throws IOException {
+        ensure(Constants.SIZEOF_LONG);
+        region.putLong(value);
+    }
+
+    public void writeFloat(float value) throws IOException {
+        ensure(Constants.SIZEOF_FLOAT);
+        region.putFloat(value);
+    }
+
+    public void writeDouble(double value) throws IOException {
+        ensure(Constants.SIZEOF_DOUBLE);
+        region.putDouble(value);
+    }
+
+    public void write(byte[] b) throws IOException {
+        writeArray(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        writeArray(b, off, len);
+    }
+
+    public void writeArray(boolean[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(boolean[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            ensure(1);
+            int size = Math.min(region.remaining(), len);
+            for (int i = off; i < off + size; i++) {
+                region.put(ref[i] ? (byte) 1 : (byte) 0);
+            }
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(byte[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(byte[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(1);
+            int size = Math.min(region.remaining(), len);
+            region.put(ref, off, size);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(char[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(char[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_CHAR);
+            int size = Math.min(region.remaining() / Constants.SIZEOF_CHAR, len);
+            region.asCharBuffer().put(ref, off, size);
+            region.position(region.position() + size * Constants.SIZEOF_CHAR);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(short[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(short[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_SHORT);
+            int size = Math.min(region.remaining() / Constants.SIZEOF_SHORT, len);
+            region.asShortBuffer().put(ref, off, size);
+            region.position(region.position() + size * Constants.SIZEOF_SHORT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(int[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(int[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_INT);
+            int size = Math.min(region.remaining() / Constants.SIZEOF_INT, len);
+            region.asIntBuffer().put(ref, off, size);
+            region.position(region.position() + size * Constants.SIZEOF_INT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(long[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(long[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_LONG);
+            int size = Math.min(region.remaining() / Constants.SIZEOF_LONG, len);
+            region.asLongBuffer().put(ref, off, size);
+            region.position(region.position() + size * Constants.SIZEOF_LONG);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(float[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(float[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_FLOAT);
+            int size = Math.min(region.remaining() / Constants.SIZEOF_FLOAT, len);
+            region.asFloatBuffer().put(ref, off, size);
+            region.position(region.position() + size * Constants.SIZEOF_FLOAT);
+            off += size;
+            len -= size;
+        }
+    }
+
+    public void writeArray(double[] ref, int off, int len)
+            throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("writeArray(double[" + off + " ... "
+                    + (off + len) + "])");
+        }
+
+        while (len > 0) {
+            ensure(Constants.SIZEOF_DOUBLE);
+            int size = Math.min(region.remaining() / Constants.SIZEOF_DOUBLE, len);
+            region.asDoubleBuffer().put(ref, off, size);
+            region.position(region.position() + size * Constants.SIZEOF_DOUBLE);
+            off += size;
+            len -= size;
+        }
+    }
+
+    /**
+     * Nothing to do: the data is in the file mapping already, and the
+     * operating system writes it back. Use {@link #sync()} to force it
+     * to the storage device.
+     */
+    public void flush() throws IOException {
+        // empty
+    }
+
+    /**
+     * Forces the data of all regions written since the previous sync
+     * to the storage device. Earlier regions are unmapped afterwards.
+     * @exception IOException	in case of trouble.
+     */
+    public void sync() throws IOException {
+        for (MappedByteBuffer b : unsynced) {
+            b.force();
+            unmap(b);
+        }
+        unsynced.clear();
+        region.force();
+        channel.force(false);
+    }
+
+    public void finish() {
+        // empty
+    }
+
+    public boolean finished() {
+        return true;
+    }
+
+    /**
+     * Truncates the file to the number of bytes written, and closes it.
+     * @exception IOException	in case of trouble.
+     */
+    public void close() throws IOException {
+        if (region == null) {
+            return;
+        }
+        long size = regionStart + region.position();
+        for (MappedByteBuffer b : unsynced) {
+            unmap(b);
+        }
+        unsynced.clear();
+        unmap(region);
+        region = null;
+        channel.truncate(size);
+        file.close();
+    }
+
+    public int bufferSize() {
+        return IOProperties.BUFFER_SIZE;
+    }
+}
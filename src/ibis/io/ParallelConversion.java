@@ -0,0 +1,159 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Converts very large primitive arrays with several threads. The array is
+ * split into segments that are converted independently on a
+ * <code>ForkJoinPool</code>, and the segments are written to the output
+ * stream in order, so the data written is the same as with a sequential
+ * conversion. A bounded number of segments is in progress at any time.
+ * This relies on conversions being usable from several threads at once,
+ * which holds for all conversions in this package.
+ * Parallel conversion is off unless <code>ibis.io.parallel.threads</code>
+ * is set to more than one thread: it only pays off when cores are idle.
+ * The segment buffers are pooled, so that a large write does not
+ * allocate new buffers every time.
+ */
+final class ParallelConversion {
+
+    /** Arrays of at least this many bytes are converted in parallel. */
+    static final int THRESHOLD = IOProperties.properties.getIntProperty(
+            IOProperties.s_parallel_threshold, 8 * 1024 * 1024);
+
+    /** The number of conversion threads. */
+    static final int THREADS = IOProperties.properties.getIntProperty(
+            IOProperties.s_parallel_threads, 1);
+
+    /** The size of a segment, in bytes. */
+    static final int SEGMENT_SIZE = 1024 * 1024;
+
+    private static final boolean ENABLED = THREADS > 1;
+
+    /** Maximum number of pooled segment buffers: one full window. */
+    private static final int MAX_POOLED = 2 * THREADS;
+
+    /** Segment buffers that are not in use. */
+    private static final ArrayList<byte[]> pool = new ArrayList<byte[]>();
+
+    /** Holder for the pool, so that it is only created when used. */
+    private static final class PoolHolder {
+        static final ForkJoinPool pool = new ForkJoinPool(THREADS);
+    }
+
+    private ParallelConversion() {
+        // prevent construction
+    }
+
+    /** Returns a segment buffer, from the pool if possible. */
+    private static byte[] getBuffer() {
+        synchronized (pool) {
+            int n = pool.size();
+            if (n > 0) {
+                return pool.remove(n - 1);
+            }
+        }
+        return new byte[SEGMENT_SIZE];
+    }
+
+    /** Gives a buffer obtained with {@link #getBuffer()} back. */
+    private static void release(byte[] b) {
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED) {
+                pool.add(b);
+            }
+        }
+    }
+
+    /**
+     * Returns whether an array of the specified size in bytes should be
+     * converted in parallel.
+     */
+    static boolean use(int len, int elementSize) {
+        return ENABLED && (long) len * elementSize >= THRESHOLD;
+    }
+
+    /**
+     * Converts the specified part of a primitive array and writes it to
+     * the specified stream.
+     * @param out		the stream to write to
+     * @param conversion	the conversion to use
+     * @param array		the array, one of char[], short[], int[],
+     *				long[], float[] or double[]
+     * @param off		offset in the array
+     * @param len		number of elements
+     * @param elementSize	size of an element in bytes
+     * @exception IOException	when writing fails.
+     */
+    static void write(OutputStream out, final Conversion conversion,
+            final Object array, final int off, final int len,
+            int elementSize) throws IOException {
+        final int perSegment = SEGMENT_SIZE / elementSize;
+        int segments = (len + perSegment - 1) / perSegment;
+        int window = Math.min(2 * THREADS, segments);
+
+        byte[][] buffers = new byte[window][];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[window];
+        int next = 0;
+
+        try {
+            for (int i = 0; i < segments; i++) {
+                // Keep the window of segments in progress full.
+                while (next < segments && next < i + window) {
+                    int slot = next % window;
+                    if (buffers[slot] == null) {
+                        buffers[slot] = getBuffer();
+                    }
+                    final byte[] buffer = buffers[slot];
+                    final int o = off + next * perSegment;
+                    final int n = Math.min(perSegment, off + len - o);
+                    tasks[slot] = PoolHolder.pool.submit(new Runnable() {
+                        public void run() {
+                            convert(conversion, array, o, n, buffer);
+                        }
+                    });
+                    next++;
+                }
+
+                int slot = i % window;
+                tasks[slot].join();
+                tasks[slot] = null;
+                int n = Math.min(perSegment, len - i * perSegment);
+                out.write(buffers[slot], 0, n * elementSize);
+            }
+        } finally {
+            // Do not leave conversions running into buffers we drop.
+            for (int i = 0; i < window; i++) {
+                if (tasks[i] != null) {
+                    tasks[i].quietlyJoin();
+                }
+                if (buffers[i] != null) {
+                    release(buffers[i]);
+                }
+            }
+        }
+    }
+
+    private static void convert(Conversion conversion, Object array,
+            int off, int len, byte[] buffer) {
+        if (array instanceof double[]) {
+            conversion.double2byte((double[]) array, off, len, buffer, 0);
+        } else if (array instanceof long[]) {
+            conversion.long2byte((long[]) array, off, len, buffer, 0);
+        } else if (array instanceof int[]) {
+            conversion.int2byte((int[]) array, off, len, buffer, 0);
+        } else if (array instanceof float[]) {
+            conversion.float2byte((float[]) array, off, len, buffer, 0);
+        } else if (array instanceof short[]) {
+            conversion.short2byte((short[]) array, off, len, buffer, 0);
+        } else {
+            conversion.char2byte((char[]) array, off, len, buffer, 0);
+        }
+    }
+}
@@ -0,0 +1,603 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * This is a complete implementation of <code>DataInputStream</code>,
+ * built on top of an <code>InputStream</code>, like
+ * {@link BufferedArrayInputStream}. The difference is that a background
+ * thread reads ahead from the underlying stream into a ring of blocks,
+ * so that read latency is hidden behind the decoding of earlier data.
+ * Data is decoded directly from the blocks; only a value that straddles
+ * two blocks is assembled in a small scratch buffer, so that no
+ * compaction copies are needed. The number of blocks is fixed, which
+ * bounds the amount of data read ahead.
+ * Exceptions of the background thread are reported when the data
+ * preceding them has been consumed.
+ * <p>
+ * The stream <strong>must</strong> be closed with {@link #close()}: that
+ * is the only way to stop the background thread before end-of-stream.
+ * An unclosed stream keeps its thread blocked, and the thread keeps the
+ * stream and its blocks reachable, until the JVM exits. The thread is a
+ * daemon thread, so it does not keep the JVM alive.
+ * <p>
+ * Waiting for data is not interruptible, but an interrupt that arrives
+ * while waiting is preserved: the interrupt status is set again when
+ * the method returns.
+ */
+public final class PrefetchingBufferedArrayInputStream extends DataInputStream {
+
+    private static final boolean DEBUG = IOProperties.DEBUG;
+
+    private static final Logger logger
+            = Logger.getLogger(PrefetchingBufferedArrayInputStream.class);
+
+    /** Default number of blocks. */
+    public static final int DEFAULT_BUFFERS = 4;
+
+    /** The block size. */
+    private final int BUF_SIZE;
+
+    /** The underlying <code>InputStream</code>. */
+    private InputStream in;
+
+    /** The block being consumed, or <code>null</code>. */
+    private byte[] buffer = null;
+
+    /** Position in, and number of valid bytes of, the current block. */
+    private int index = 0, limit = 0;
+
+    /** Scratch space for values that straddle two blocks. */
+    private final byte[] scratch = new byte[Constants.SIZEOF_DOUBLE];
+
+    /** Number of bytes consumed and in the current block. */
+    private long bytes = 0;
+
+    /** Object used to convert primitive types to bytes. */
+    private Conversion conversion;
+
+    /** Set once the byte order of the stream is known. */
+    private boolean negotiated = ! Conversion.NEGOTIATE_BYTE_ORDER;
+
+    /** Number of bytes of the byte-order header collected in scratch. */
+    private int headerLength = 0;
+
+    /** Blocks that have been read ahead, in order. */
+    private final byte[][] queue;
+
+    /** Number of valid bytes of the blocks in <code>queue</code>. */
+    private final int[] lengths;
+
+    /** Index of the first block in <code>queue</code>. */
+    private int head = 0;
+
+    /** Number of blocks in <code>queue</code>. */
+    private int queued = 0;
+
+    /** Blocks available to the reader thread. */
+    private final byte[][] free;
+
+    /** Number of blocks in <code>free</code>. */
+    private int numFree;
+
+    /** Set when the reader thread has seen the end of the stream. */
+    private boolean eof = false;
+
+    /** Set when the stream is closed, to stop the reader thread. */
+    private boolean done = false;
+
+    /** The exception of the reader thread, if any. */
+    private IOException exception = null;
+
+    /**
+     * Constructor, using the default number of blocks.
+     * @param in	the underlying <code>InputStream</code>
+     * @param bufSize	the size of each block
+     */
+    public PrefetchingBufferedArrayInputStream(InputStream in, int bufSize) {
+        this(in, bufSize, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * Constructor.
+     * @param in	the underlying <code>InputStream</code>
+     * @param bufSize	the size of each block
+     * @param count	the number of blocks, at least 2
+     */
+    public PrefetchingBufferedArrayInputStream(InputStream in, int bufSize,
+            int count) {
+        if (count < 2) {
+            throw new IllegalArgumentException("need at least two buffers");
+        }
+        this.in = in;
+        BUF_SIZE = bufSize;
+        conversion = Conversion.loadConversion(false);
+        queue = new byte[count][];
+        lengths = new int[count];
+        free = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            free[i] = new byte[BUF_SIZE];
+        }
+        numFree = count;
+
+        Thread reader = new Thread("PrefetchingBufferedArrayInputStream reader") {
+            public void run() {
+                readBlocks();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * The reader thread: reads blocks from the underlying stream as long
+     * as there are free blocks, until end-of-stream, an exception, or
+     * close.
+     */
+    private void readBlocks() {
+        boolean interrupted = false;
+
+        for (;;) {
+            byte[] b;
+
+            synchronized (this) {
+                while (numFree == 0 && ! done) {
+                    try {
+                        wait();
+                    } catch(InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (done) {
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return;
+                }
+                b = free[--numFree];
+                free[numFree] = null;
+            }
+
+            int n;
+            IOException failed = null;
+            try {
+                n = in.read(b, 0, BUF_SIZE);
+            } catch(IOException e) {
+                n = -1;
+                failed = e;
+            }
+
+            synchronized (this) {
+                if (n < 0) {
+                    if (! done) {
+                        exception = failed;
+                    }
+                    eof = true;
+                    free[numFree++] = b;
+                    notifyAll();
+                    return;
+                }
+                if (n > 0) {
+                    queue[(head + queued) % queue.length] = b;
+                    lengths[(head + queued) % queue.length] = n;
+                    queued++;
+                } else {
+                    free[numFree++] = b;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Gives the current block back to the reader thread and takes the
+     * next one from the queue, waiting for it if needed.
+     * @return <code>false</code> at end-of-stream.
+     * @exception IOException	the exception of the reader thread.
+     */
+    private boolean nextBlock() throws IOException {
+        synchronized (this) {
+            if (buffer != null) {
+                free[numFree++] = buffer;
+                buffer = null;
+                index = 0;
+                limit = 0;
+                notifyAll();
+            }
+            boolean interrupted = false;
+            while (queued == 0 && ! eof) {
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (queued == 0) {
+                if (exception != null) {
+                    throw new IbisIOException("background read failed",
+                            exception);
+                }
+                return false;
+            }
+            buffer = queue[head];
+            limit = lengths[head];
+            queue[head] = null;
+            head = (head + 1) % queue.length;
+            queued--;
+        }
+        index = 0;
+        bytes += limit;
+        if (! negotiated) {
+            // The stream starts with the byte-order header, which may
+            // span blocks.
+            while (headerLength < Conversion.BYTE_ORDER_HEADER_SIZE
+                    && index < limit) {
+                scratch[headerLength++] = buffer[index++];
+            }
+            if (headerLength == Conversion.BYTE_ORDER_HEADER_SIZE) {
+                negotiated = true;
+                boolean bigEndian = Conversion.getByteOrder(scratch, 0);
+                if (bigEndian != conversion.bigEndian()) {
+                    conversion = Conversion.loadConversion(bigEndian);
+                }
+            }
+            if (index == limit) {
+                return nextBlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the next <code>len</code> bytes, which may span several
+     * blocks, into <code>scratch</code>.
+     * @param len	the number of bytes
+     * @exception IOException	in case of trouble.
+     */
+    private void gather(int len) throws IOException {
+        int got = 0;
+        while (got < len) {
+            if (index == limit) {
+                if (! nextBlock()) {
+                    throw new EOFException("EOF encountered");
+                }
+            }
+            int n = min(len - got, limit - index);
+            System.arraycopy(buffer, index, scratch, got, n);
+            index += n;
+            got += n;
+        }
+    }
+
+    private static final int min(int a, int b) {
+        return (a > b) ? b : a;
+    }
+
+    public long bytesRead() {
+        return bytes - (limit - index);
+    }
+
+    public void resetBytesRead() {
+        bytes = limit - index;
+    }
+
+    public final int read() throws IOException {
+        if (index == limit && ! nextBlock()) {
+            return -1;
+        }
+        return buffer[index++] & 0377;
+    }
+
+    public final synchronized int available() throws IOException {
+        int n = limit - index;
+        for (int i = 0; i < queued; i++) {
+            n += lengths[(head + i) % queue.length];
+        }
+        return n;
+    }
+
+    public void readArray(byte[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(byte[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            if (index == limit && ! nextBlock()) {
+                throw new EOFException("EOF encountered");
+            }
+            int n = min(limit - index, len);
+            System.arraycopy(buffer, index, a, off, n);
+            index += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(boolean[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(boolean[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            int n = (limit - index) / Constants.SIZEOF_BOOLEAN;
+            if (n == 0) {
+                // The next element straddles a block boundary.
+                gather(Constants.SIZEOF_BOOLEAN);
+                conversion.byte2boolean(scratch, 0, a, off, 1);
+                off++;
+                len--;
+                continue;
+            }
+            n = min(n, len);
+            conversion.byte2boolean(buffer, index, a, off, n);
+            index += n * Constants.SIZEOF_BOOLEAN;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(short[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(short[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            int n = (limit - index) / Constants.SIZEOF_SHORT;
+            if (n == 0) {
+                // The next element straddles a block boundary.
+                gather(Constants.SIZEOF_SHORT);
+                conversion.byte2short(scratch, 0, a, off, 1);
+                off++;
+                len--;
+                continue;
+            }
+            n = min(n, len);
+            conversion.byte2short(buffer, index, a, off, n);
+            index += n * Constants.SIZEOF_SHORT;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(char[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(char[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            int n = (limit - index) / Constants.SIZEOF_CHAR;
+            if (n == 0) {
+                // The next element straddles a block boundary.
+                gather(Constants.SIZEOF_CHAR);
+                conversion.byte2char(scratch, 0, a, off, 1);
+                off++;
+                len--;
+                continue;
+            }
+            n = min(n, len);
+            conversion.byte2char(buffer, index, a, off, n);
+            index += n * Constants.SIZEOF_CHAR;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(int[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(int[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            int n = (limit - index) / Constants.SIZEOF_INT;
+            if (n == 0) {
+                // The next element straddles a block boundary.
+                gather(Constants.SIZEOF_INT);
+                conversion.byte2int(scratch, 0, a, off, 1);
+                off++;
+                len--;
+                continue;
+            }
+            n = min(n, len);
+            conversion.byte2int(buffer, index, a, off, n);
+            index += n * Constants.SIZEOF_INT;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(long[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(long[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            int n = (limit - index) / Constants.SIZEOF_LONG;
+            if (n == 0) {
+                // The next element straddles a block boundary.
+                gather(Constants.SIZEOF_LONG);
+                conversion.byte2long(scratch, 0, a, off, 1);
+                off++;
+                len--;
+                continue;
+            }
+            n = min(n, len);
+            conversion.byte2long(buffer, index, a, off, n);
+            index += n * Constants.SIZEOF_LONG;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(float[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(float[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            int n = (limit - index) / Constants.SIZEOF_FLOAT;
+            if (n == 0) {
+                // The next element straddles a block boundary.
+                gather(Constants.SIZEOF_FLOAT);
+                conversion.byte2float(scratch, 0, a, off, 1);
+                off++;
+                len--;
+                continue;
+            }
+            n = min(n, len);
+            conversion.byte2float(buffer, index, a, off, n);
+            index += n * Constants.SIZEOF_FLOAT;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readArray(double[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("readArray(double[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        while (len > 0) {
+            int n = (limit - index) / Constants.SIZEOF_DOUBLE;
+            if (n == 0) {
+                // The next element straddles a block boundary.
+                gather(Constants.SIZEOF_DOUBLE);
+                conversion.byte2double(scratch, 0, a, off, 1);
+                off++;
+                len--;
+                continue;
+            }
+            n = min(n, len);
+            conversion.byte2double(buffer, index, a, off, n);
+            index += n * Constants.SIZEOF_DOUBLE;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public byte readByte() throws IOException {
+        if (index == limit && ! nextBlock()) {
+            throw new EOFException("EOF encountered");
+        }
+        return buffer[index++];
+    }
+
+    public boolean readBoolean() throws IOException {
+        return conversion.byte2boolean(readByte());
+    }
+
+    public short readShort() throws IOException {
+        if (limit - index < Constants.SIZEOF_SHORT) {
+            gather(Constants.SIZEOF_SHORT);
+            return conversion.byte2short(scratch, 0);
+        }
+        short v = conversion.byte2short(buffer, index);
+        index += Constants.SIZEOF_SHORT;
+        return v;
+    }
+
+    public char readChar() throws IOException {
+        if (limit - index < Constants.SIZEOF_CHAR) {
+            gather(Constants.SIZEOF_CHAR);
+            return conversion.byte2char(scratch, 0);
+        }
+        char v = conversion.byte2char(buffer, index);
+        index += Constants.SIZEOF_CHAR;
+        return v;
+    }
+
+    public int readInt() throws IOException {
+        if (limit - index < Constants.SIZEOF_INT) {
+            gather(Constants.SIZEOF_INT);
+            return conversion.byte2int(scratch, 0);
+        }
+        int v = conversion.byte2int(buffer, index);
+        index += Constants.SIZEOF_INT;
+        return v;
+    }
+
+    public long readLong() throws IOException {
+        if (limit - index < Constants.SIZEOF_LONG) {
+            gather(Constants.SIZEOF_LONG);
+            return conversion.byte2long(scratch, 0);
+        }
+        long v = conversion.byte2long(buffer, index);
+        index += Constants.SIZEOF_LONG;
+        return v;
+    }
+
+    public float readFloat() throws IOException {
+        if (limit - index < Constants.SIZEOF_FLOAT) {
+            gather(Constants.SIZEOF_FLOAT);
+            return conversion.byte2float(scratch, 0);
+        }
+        float v = conversion.byte2float(buffer, index);
+        index += Constants.SIZEOF_FLOAT;
+        return v;
+    }
+
+    public double readDouble() throws IOException {
+        if (limit - index < Constants.SIZEOF_DOUBLE) {
+            gather(Constants.SIZEOF_DOUBLE);
+            return conversion.byte2double(scratch, 0);
+        }
+        double v = conversion.byte2double(buffer, index);
+        index += Constants.SIZEOF_DOUBLE;
+        return v;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public int read(byte[] a, int off, int len) throws IOException {
+        if (DEBUG && logger.isDebugEnabled()) {
+            logger.debug("read(byte[" + off + " ... " + (off + len)
+                    + "])");
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+        if (index == limit && ! nextBlock()) {
+            return -1;
+        }
+        int n = min(limit - index, len);
+        System.arraycopy(buffer, index, a, off, n);
+        index += n;
+        return n;
+    }
+
+    /**
+     * Stops the background thread and closes the underlying stream.
+     * This method must be called to release the background thread.
+     * @exception IOException	in case of trouble.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            done = true;
+            notifyAll();
+        }
+        in.close();
+    }
+
+    public final int bufferSize() {
+        return BUF_SIZE;
+    }
+}
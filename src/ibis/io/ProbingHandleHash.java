@@ -0,0 +1,243 @@
+/* $Id$ */
+
+package ibis.io;
+
+/**
+ * An identity hash table for (object, handle) pairs that uses open
+ * addressing with linear probing over parallel arrays.
+ * Each slot carries the epoch in which it was filled. A slot is only
+ * occupied when its stamp equals the current epoch, so that
+ * {@link #clear()} just increments the epoch, instead of walking the
+ * table. A grown table keeps its size across clears, so that a stream
+ * that resets after every message does not grow it again each time.
+ * Objects of earlier epochs stay referenced until their slot is reused,
+ * or until the table falls back to its initial size, which happens when
+ * it has been far too large at a number of consecutive clears.
+ */
+final class ProbingHandleHash extends HandleTable {
+
+    private static final boolean STATS = IOProperties.properties.getBooleanProperty(
+            IOProperties.s_hash_stats);
+
+    private static final boolean CACHE_HASH = IOProperties.properties.getBooleanProperty(
+            IOProperties.s_hash_cache);
+
+    private static final int MIN_SIZE = 32;
+
+    /**
+     * Number of consecutive clears of a table that is less than 1/8 full
+     * after which it falls back to its initial size.
+     */
+    private static final int SHRINK_CLEARS = 16;
+
+    /** The objects. */
+    private Object[] keys;
+
+    /** Maps slot to handle. */
+    private int[] handles;
+
+    /** Maps slot to the epoch in which it was filled. */
+    private int[] stamps;
+
+    /** Maps slot to hashcode. */
+    private int[] hashes;   // if (CACHE_HASH)
+
+    /** The current epoch. */
+    private int epoch;
+
+    /** Initial size of the table. */
+    private int initSize;
+
+    /** When to grow ... */
+    private int sizeThreshold;
+
+    /** Number of entries. */
+    private int present;
+
+    /** Number of consecutive clears at which the table was too large. */
+    private int sparseClears;
+
+    // if (STATS)
+    private long finds;
+
+    private long probes;
+
+    private long rebuilds;
+
+    private long clears;
+
+    ProbingHandleHash(int sz) {
+        int x = MIN_SIZE;
+        while (x < sz) {
+            x <<= 1;
+        }
+        initSize = x;
+        init(x);
+    }
+
+    private void init(int sz) {
+        keys = new Object[sz];
+        handles = new int[sz];
+        stamps = new int[sz];
+        if (CACHE_HASH) {
+            hashes = new int[sz];
+        }
+        sizeThreshold = sz >> 1;
+        epoch = 1;
+        present = 0;
+    }
+
+    int find(Object ref, int hashcode) {
+        if (STATS) {
+            finds++;
+        }
+        int mask = keys.length - 1;
+        for (int i = hashcode & mask; stamps[i] == epoch; i = (i + 1) & mask) {
+            if (keys[i] == ref) {
+                return handles[i];
+            }
+            if (STATS) {
+                probes++;
+            }
+        }
+        return 0;
+    }
+
+    int put(Object ref, int handle, int hashcode) {
+        if (present >= sizeThreshold) {
+            grow();
+        }
+        insert(ref, handle, hashcode);
+        present++;
+        return handle;
+    }
+
+    int lazyPut(Object ref, int handle) {
+        int hashcode = HandleHash.getHashCode(ref);
+        int f = find(ref, hashcode);
+        if (f != 0) {
+            return f;
+        }
+        return put(ref, handle, hashcode);
+    }
+
+    private void insert(Object ref, int handle, int hashcode) {
+        int mask = keys.length - 1;
+        int i = hashcode & mask;
+        while (stamps[i] == epoch) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = ref;
+        handles[i] = handle;
+        stamps[i] = epoch;
+        if (CACHE_HASH) {
+            hashes[i] = hashcode;
+        }
+    }
+
+    /**
+     * Removes an object. The entries that follow it in its run are shifted
+     * back where needed, so that lookups need no tombstones.
+     */
+    void remove(Object ref, int hashcode) {
+        int mask = keys.length - 1;
+        int i = hashcode & mask;
+        while (stamps[i] == epoch && keys[i] != ref) {
+            i = (i + 1) & mask;
+        }
+        if (stamps[i] != epoch) {
+            return;
+        }
+        present--;
+
+        for (int j = (i + 1) & mask; stamps[j] == epoch; j = (j + 1) & mask) {
+            int h;
+            if (CACHE_HASH) {
+                h = hashes[j];
+            } else {
+                h = HandleHash.getHashCode(keys[j]);
+            }
+            h &= mask;
+            // The entry at j may move to i if its home slot does not lie
+            // cyclically in (i, j].
+            boolean stays = i <= j ? (i < h && h <= j) : (i < h || h <= j);
+            if (! stays) {
+                keys[i] = keys[j];
+                handles[i] = handles[j];
+                if (CACHE_HASH) {
+                    hashes[i] = hashes[j];
+                }
+                i = j;
+            }
+        }
+        keys[i] = null;
+        stamps[i] = 0;
+    }
+
+    /**
+     * Doubles the table size and re-inserts the entries of the current
+     * epoch.
+     */
+    private void grow() {
+        Object[] oldKeys = keys;
+        int[] oldHandles = handles;
+        int[] oldStamps = stamps;
+        int[] oldHashes = hashes;
+        int oldEpoch = epoch;
+        int oldPresent = present;
+
+        init(oldKeys.length << 1);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStamps[i] == oldEpoch) {
+                int h;
+                if (CACHE_HASH) {
+                    h = oldHashes[i];
+                } else {
+                    h = HandleHash.getHashCode(oldKeys[i]);
+                }
+                insert(oldKeys[i], oldHandles[i], h);
+            }
+        }
+        present = oldPresent;
+        if (STATS) {
+            rebuilds++;
+        }
+    }
+
+    void clear() {
+        if (present == 0) {
+            return;
+        }
+        if (STATS) {
+            clears++;
+        }
+        if (keys.length > initSize && present < (keys.length >> 3)) {
+            if (++sparseClears >= SHRINK_CLEARS) {
+                sparseClears = 0;
+                init(initSize);
+                return;
+            }
+        } else {
+            sparseClears = 0;
+        }
+        present = 0;
+        epoch++;
+        if (epoch == 0) {
+            // Wrapped around: stamps of long ago could match again.
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = 0;
+                keys[i] = null;
+            }
+            epoch = 1;
+        }
+    }
+
+    void statistics() {
+        if (STATS) {
+            System.err.println(this + ": size " + keys.length + " finds "
+                    + finds + " probes " + probes + " rebuilds " + rebuilds
+                    + " clears " + clears);
+        }
+    }
+}
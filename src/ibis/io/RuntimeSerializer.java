@@ -0,0 +1,47 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+
+/**
+ * The <code>RuntimeSerializer</code> class is the base class for
+ * serializers that are generated at run time, for <code>Serializable</code>
+ * classes that were not rewritten by the IOGenerator. A generated
+ * serializer reads and writes the serializable fields declared in a single
+ * class, in the same order and with the same wire format as the
+ * <code>alternativeDefaultWriteObject</code> and
+ * <code>alternativeDefaultReadObject</code> methods of the Ibis
+ * serialization streams.
+ * The generated classes are hidden classes, nestmates of the class they
+ * serialize, so that they can access its private fields directly.
+ */
+public abstract class RuntimeSerializer {
+    protected RuntimeSerializer() {
+        // nothing
+    }
+
+    /**
+     * Writes the serializable fields declared in the class of this
+     * serializer.
+     *
+     * @param out	the stream to write to
+     * @param ref	the object of which the fields are written
+     * @exception IOException	is thrown when an IO error occurs.
+     */
+    public abstract void writeFields(IbisSerializationOutputStream out,
+            Object ref) throws IOException;
+
+    /**
+     * Reads the serializable fields declared in the class of this
+     * serializer.
+     *
+     * @param in	the stream to read from
+     * @param ref	the object of which the fields are read
+     * @exception IOException	is thrown when an IO error occurs.
+     * @exception ClassNotFoundException when a class of a field value
+     * 		cannot be found.
+     */
+    public abstract void readFields(IbisSerializationInputStream in,
+            Object ref) throws IOException, ClassNotFoundException;
+}
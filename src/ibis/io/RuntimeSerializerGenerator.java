@@ -0,0 +1,266 @@
+/* $Id$ */
+
+package ibis.io;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.ALOAD;
+import org.apache.bcel.generic.ASTORE;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.InstructionFactory;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.MethodGen;
+import org.apache.bcel.generic.ObjectType;
+import org.apache.bcel.generic.PUSH;
+import org.apache.bcel.generic.RETURN;
+import org.apache.bcel.generic.ReferenceType;
+import org.apache.bcel.generic.Type;
+import org.apache.log4j.Logger;
+
+/**
+ * Generates a {@link RuntimeSerializer} for a class that was not rewritten
+ * by the IOGenerator, and defines it as a hidden nestmate of that class.
+ * The generated code mirrors what the alternative (reflective) path does
+ * for the fields declared in the class, so the resulting streams are
+ * identical.
+ */
+final class RuntimeSerializerGenerator {
+
+    private static Logger logger
+            = Logger.getLogger(RuntimeSerializerGenerator.class);
+
+    private static final String OUTPUT_STREAM
+            = IbisSerializationOutputStream.class.getName();
+
+    private static final String INPUT_STREAM
+            = IbisSerializationInputStream.class.getName();
+
+    private static final String[] RW_NAMES = new String[] { "stream", "ref" };
+
+    private final AlternativeTypeInfo t;
+
+    private final String classname;
+
+    private final ObjectType classtype;
+
+    private ClassGen gen;
+
+    private ConstantPoolGen constantpool;
+
+    private InstructionFactory factory;
+
+    private RuntimeSerializerGenerator(AlternativeTypeInfo t) {
+        this.t = t;
+        classname = t.clazz.getName();
+        classtype = new ObjectType(classname);
+    }
+
+    /**
+     * Generates a serializer for the class of the specified type info.
+     *
+     * @param t	the type info of the class
+     * @return the serializer, or <code>null</code> if none could be
+     *   generated for this class.
+     */
+    static RuntimeSerializer generate(AlternativeTypeInfo t) {
+        if (!canGenerate(t)) {
+            return null;
+        }
+        try {
+            return new RuntimeSerializerGenerator(t).define();
+        } catch (Throwable e) {
+            // Includes the case where BCEL is not available, or the
+            // class is in a module that is not open to us.
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not generate a serializer for "
+                        + t.clazz.getName(), e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Determines if a serializer can be generated for the class: it must
+     * be an ordinary serializable class, its fields must all exist, and
+     * the types of its reference fields must be accessible from its
+     * package.
+     */
+    private static boolean canGenerate(AlternativeTypeInfo t) {
+        Class<?> clazz = t.clazz;
+        if (!t.isSerializable || t.isExternalizable || t.isIbisSerializable
+                || t.isArray || t.isString || t.isClass || clazz.isEnum()
+                || clazz.isInterface() || clazz.isHidden()
+                || t.serial_persistent_fields != null
+                || t.serializable_fields == null) {
+            return false;
+        }
+        for (int i = 0; i < t.serializable_fields.length; i++) {
+            Field f = t.serializable_fields[i];
+            if (f == null || !accessible(clazz, f.getType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean accessible(Class<?> clazz, Class<?> tp) {
+        while (tp.isArray()) {
+            tp = tp.getComponentType();
+        }
+        if (tp.isPrimitive() || Modifier.isPublic(tp.getModifiers())) {
+            return true;
+        }
+        return tp.getClassLoader() == clazz.getClassLoader()
+                && tp.getPackageName().equals(clazz.getPackageName());
+    }
+
+    private RuntimeSerializer define() throws Throwable {
+        gen = new ClassGen(classname + "_ibis_io_RuntimeSerializer",
+                RuntimeSerializer.class.getName(), "<generated>",
+                Constants.ACC_PUBLIC | Constants.ACC_FINAL
+                        | Constants.ACC_SUPER, new String[0]);
+        constantpool = gen.getConstantPool();
+        factory = new InstructionFactory(gen);
+
+        gen.addEmptyConstructor(Constants.ACC_PUBLIC);
+        gen.addMethod(generateWrite());
+        gen.addMethod(generateRead());
+
+        byte[] bytes = gen.getJavaClass().getBytes();
+
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(
+                t.clazz, MethodHandles.lookup());
+        MethodHandles.Lookup hidden = lookup.defineHiddenClass(bytes, true,
+                MethodHandles.Lookup.ClassOption.NESTMATE);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Generated serializer "
+                    + hidden.lookupClass().getName());
+        }
+
+        return (RuntimeSerializer) hidden.findConstructor(hidden.lookupClass(),
+                MethodType.methodType(Void.TYPE)).invoke();
+    }
+
+    private static Type fieldType(Field f) {
+        return Type.getType(f.getType());
+    }
+
+    /**
+     * Generates <code>writeFields</code>: casts the object, and then writes
+     * each field in the order of <code>serializable_fields</code>.
+     */
+    private org.apache.bcel.classfile.Method generateWrite() {
+        InstructionList il = new InstructionList();
+
+        il.append(new ALOAD(2));
+        il.append(factory.createCheckCast(classtype));
+        il.append(new ASTORE(3));
+
+        Field[] fields = t.serializable_fields;
+        for (int i = 0; i < fields.length; i++) {
+            Type tp = fieldType(fields[i]);
+            il.append(new ALOAD(1));
+            il.append(new ALOAD(3));
+            il.append(factory.createFieldAccess(classname,
+                    fields[i].getName(), tp, Constants.GETFIELD));
+            if (tp instanceof ReferenceType) {
+                il.append(factory.createInvoke(OUTPUT_STREAM, "writeObject",
+                        Type.VOID, new Type[] { Type.OBJECT },
+                        Constants.INVOKEVIRTUAL));
+            } else {
+                il.append(factory.createInvoke(OUTPUT_STREAM,
+                        "write" + callName(fields[i].getType()), Type.VOID,
+                        new Type[] { tp }, Constants.INVOKEVIRTUAL));
+            }
+        }
+        il.append(new RETURN());
+
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC, Type.VOID,
+                new Type[] { new ObjectType(OUTPUT_STREAM), Type.OBJECT },
+                RW_NAMES, "writeFields", gen.getClassName(), il,
+                constantpool);
+        mg.addException("java.io.IOException");
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        return mg.getMethod();
+    }
+
+    /**
+     * Generates <code>readFields</code>: casts the object, and then reads
+     * each field in the order of <code>serializable_fields</code>. Final
+     * fields cannot be assigned by bytecode outside a constructor, so these
+     * are read through the <code>readFieldXxx</code> methods of the stream,
+     * like the alternative path does.
+     */
+    private org.apache.bcel.classfile.Method generateRead() {
+        InstructionList il = new InstructionList();
+
+        il.append(new ALOAD(2));
+        il.append(factory.createCheckCast(classtype));
+        il.append(new ASTORE(3));
+
+        Field[] fields = t.serializable_fields;
+        for (int i = 0; i < fields.length; i++) {
+            Class<?> cl = fields[i].getType();
+            Type tp = fieldType(fields[i]);
+            if (t.fields_final[i]) {
+                il.append(new ALOAD(1));
+                il.append(new ALOAD(3));
+                il.append(new PUSH(constantpool, fields[i].getName()));
+                il.append(new PUSH(constantpool, classname));
+                if (cl.isPrimitive()) {
+                    il.append(factory.createInvoke(INPUT_STREAM,
+                            "readField" + callName(cl), Type.VOID,
+                            new Type[] { Type.OBJECT, Type.STRING,
+                                    Type.STRING }, Constants.INVOKEVIRTUAL));
+                } else {
+                    il.append(new PUSH(constantpool, tp.getSignature()));
+                    il.append(factory.createInvoke(INPUT_STREAM,
+                            "readFieldObject", Type.VOID,
+                            new Type[] { Type.OBJECT, Type.STRING,
+                                    Type.STRING, Type.STRING },
+                            Constants.INVOKEVIRTUAL));
+                }
+                continue;
+            }
+            il.append(new ALOAD(3));
+            il.append(new ALOAD(1));
+            if (cl.isPrimitive()) {
+                il.append(factory.createInvoke(INPUT_STREAM,
+                        "read" + callName(cl), tp, Type.NO_ARGS,
+                        Constants.INVOKEVIRTUAL));
+            } else {
+                il.append(factory.createInvoke(INPUT_STREAM, "readObject",
+                        Type.OBJECT, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
+                if (cl != Object.class) {
+                    il.append(factory.createCheckCast((ReferenceType) tp));
+                }
+            }
+            il.append(factory.createFieldAccess(classname,
+                    fields[i].getName(), tp, Constants.PUTFIELD));
+        }
+        il.append(new RETURN());
+
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC, Type.VOID,
+                new Type[] { new ObjectType(INPUT_STREAM), Type.OBJECT },
+                RW_NAMES, "readFields", gen.getClassName(), il,
+                constantpool);
+        mg.addException("java.io.IOException");
+        mg.addException("java.lang.ClassNotFoundException");
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        return mg.getMethod();
+    }
+
+    /** Returns the capitalized name of a primitive type, as in readInt. */
+    private static String callName(Class<?> cl) {
+        String name = cl.getName();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
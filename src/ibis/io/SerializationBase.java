@@ -5,6 +5,8 @@ package ibis.io;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Vector;
 
 /**
@@ -183,4 +185,30 @@ public class SerializationBase {
             throw new IbisIOException("got unexpected error", e);
         }
     }
+
+    /**
+     * Creates a {@link SerializationInput} as specified by the name,
+     * reading from a channel through a {@link ChannelDataInputStream}.
+     * @param name the nickname for this serialization type.
+     * @param in   the underlying channel.
+     * @return the serialization input stream.
+     */
+    public static SerializationInput createSerializationInput(String name,
+            ReadableByteChannel in) throws IOException {
+        return createSerializationInput(name,
+                new ChannelDataInputStream(in, IOProperties.BUFFER_SIZE));
+    }
+
+    /**
+     * Creates a {@link SerializationOutput} as specified by the name,
+     * writing to a channel through a {@link ChannelDataOutputStream}.
+     * @param name the nickname for this serialization type.
+     * @param out   the underlying channel.
+     * @return the serialization output stream.
+     */
+    public static SerializationOutput createSerializationOutput(String name,
+            WritableByteChannel out) throws IOException {
+        return createSerializationOutput(name,
+                new ChannelDataOutputStream(out, IOProperties.BUFFER_SIZE));
+    }
 }
@@ -4,55 +4,14 @@ package ibis.io.nio;
 
 import ibis.io.SimpleBigConversion;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.CharBuffer;
-import java.nio.DoubleBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.LongBuffer;
-import java.nio.ShortBuffer;
-
 public final class HybridChunkBigConversion extends SimpleBigConversion {
 
-    public static final int BUFFER_SIZE = 8 * 1024; //bytes
+    public static final int BUFFER_SIZE = ScratchBuffers.BUFFER_SIZE;
 
     public static final int THRESHOLD = 512; // bytes
 
     public static final int FP_THRESHOLD = 64; // bytes
 
-    private ByteOrder order;
-
-    private ByteBuffer byteBuffer;
-
-    private CharBuffer charBuffer;
-
-    private ShortBuffer shortBuffer;
-
-    private IntBuffer intBuffer;
-
-    private LongBuffer longBuffer;
-
-    private FloatBuffer floatBuffer;
-
-    private DoubleBuffer doubleBuffer;
-
-    public HybridChunkBigConversion() {
-
-        // big/little endian difference one liner
-        order = ByteOrder.BIG_ENDIAN;
-
-        byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
-
-        // views on the bytebuffer to fill/drain it efficiently
-        charBuffer = byteBuffer.asCharBuffer();
-        shortBuffer = byteBuffer.asShortBuffer();
-        intBuffer = byteBuffer.asIntBuffer();
-        longBuffer = byteBuffer.asLongBuffer();
-        floatBuffer = byteBuffer.asFloatBuffer();
-        doubleBuffer = byteBuffer.asDoubleBuffer();
-    }
-
     public void char2byte(char[] src, int off, int len, byte[] dst, int off2) {
 
         if (len < (THRESHOLD / CHAR_SIZE)) {
@@ -60,14 +19,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / CHAR_SIZE, len);
 
-            charBuffer.clear();
-            charBuffer.put(src, off, chunkSize);
+            s.charBuffer.clear();
+            s.charBuffer.put(src, off, chunkSize);
 
-            byteBuffer.position(0).limit(chunkSize * CHAR_SIZE);
-            byteBuffer.get(dst, off2, chunkSize * CHAR_SIZE);
+            s.byteBuffer.position(0).limit(chunkSize * CHAR_SIZE);
+            s.byteBuffer.get(dst, off2, chunkSize * CHAR_SIZE);
 
             len -= chunkSize;
             off += chunkSize;
@@ -83,14 +44,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / CHAR_SIZE, len);
 
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, chunkSize * CHAR_SIZE);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, chunkSize * CHAR_SIZE);
 
-            charBuffer.position(0).limit(chunkSize);
-            charBuffer.get(dst, index_dst, chunkSize);
+            s.charBuffer.position(0).limit(chunkSize);
+            s.charBuffer.get(dst, index_dst, chunkSize);
 
             len -= chunkSize;
             index_src += chunkSize * CHAR_SIZE;
@@ -106,14 +69,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / SHORT_SIZE, len);
 
-            shortBuffer.clear();
-            shortBuffer.put(src, off, chunkSize);
+            s.shortBuffer.clear();
+            s.shortBuffer.put(src, off, chunkSize);
 
-            byteBuffer.position(0).limit(chunkSize * SHORT_SIZE);
-            byteBuffer.get(dst, off2, chunkSize * SHORT_SIZE);
+            s.byteBuffer.position(0).limit(chunkSize * SHORT_SIZE);
+            s.byteBuffer.get(dst, off2, chunkSize * SHORT_SIZE);
 
             len -= chunkSize;
             off += chunkSize;
@@ -129,14 +94,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / SHORT_SIZE, len);
 
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, chunkSize * SHORT_SIZE);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, chunkSize * SHORT_SIZE);
 
-            shortBuffer.position(0).limit(chunkSize);
-            shortBuffer.get(dst, index_dst, chunkSize);
+            s.shortBuffer.position(0).limit(chunkSize);
+            s.shortBuffer.get(dst, index_dst, chunkSize);
 
             len -= chunkSize;
             index_src += chunkSize * SHORT_SIZE;
@@ -151,14 +118,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / INT_SIZE, len);
 
-            intBuffer.clear();
-            intBuffer.put(src, off, chunkSize);
+            s.intBuffer.clear();
+            s.intBuffer.put(src, off, chunkSize);
 
-            byteBuffer.position(0).limit(chunkSize * INT_SIZE);
-            byteBuffer.get(dst, off2, chunkSize * INT_SIZE);
+            s.byteBuffer.position(0).limit(chunkSize * INT_SIZE);
+            s.byteBuffer.get(dst, off2, chunkSize * INT_SIZE);
 
             len -= chunkSize;
             off += chunkSize;
@@ -174,14 +143,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / INT_SIZE, len);
 
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, chunkSize * INT_SIZE);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, chunkSize * INT_SIZE);
 
-            intBuffer.position(0).limit(chunkSize);
-            intBuffer.get(dst, index_dst, chunkSize);
+            s.intBuffer.position(0).limit(chunkSize);
+            s.intBuffer.get(dst, index_dst, chunkSize);
 
             len -= chunkSize;
             index_src += chunkSize * INT_SIZE;
@@ -197,14 +168,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / LONG_SIZE, len);
 
-            longBuffer.clear();
-            longBuffer.put(src, off, chunkSize);
+            s.longBuffer.clear();
+            s.longBuffer.put(src, off, chunkSize);
 
-            byteBuffer.position(0).limit(chunkSize * LONG_SIZE);
-            byteBuffer.get(dst, off2, chunkSize * LONG_SIZE);
+            s.byteBuffer.position(0).limit(chunkSize * LONG_SIZE);
+            s.byteBuffer.get(dst, off2, chunkSize * LONG_SIZE);
 
             len -= chunkSize;
             off += chunkSize;
@@ -221,14 +194,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / LONG_SIZE, len);
 
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, chunkSize * LONG_SIZE);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, chunkSize * LONG_SIZE);
 
-            longBuffer.position(0).limit(chunkSize);
-            longBuffer.get(dst, index_dst, chunkSize);
+            s.longBuffer.position(0).limit(chunkSize);
+            s.longBuffer.get(dst, index_dst, chunkSize);
 
             len -= chunkSize;
             index_src += chunkSize * LONG_SIZE;
@@ -244,14 +219,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / FLOAT_SIZE, len);
 
-            floatBuffer.clear();
-            floatBuffer.put(src, off, chunkSize);
+            s.floatBuffer.clear();
+            s.floatBuffer.put(src, off, chunkSize);
 
-            byteBuffer.position(0).limit(chunkSize * FLOAT_SIZE);
-            byteBuffer.get(dst, off2, chunkSize * FLOAT_SIZE);
+            s.byteBuffer.position(0).limit(chunkSize * FLOAT_SIZE);
+            s.byteBuffer.get(dst, off2, chunkSize * FLOAT_SIZE);
 
             len -= chunkSize;
             off += chunkSize;
@@ -268,14 +245,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / FLOAT_SIZE, len);
 
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, chunkSize * FLOAT_SIZE);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, chunkSize * FLOAT_SIZE);
 
-            floatBuffer.position(0).limit(chunkSize);
-            floatBuffer.get(dst, index_dst, chunkSize);
+            s.floatBuffer.position(0).limit(chunkSize);
+            s.floatBuffer.get(dst, index_dst, chunkSize);
 
             len -= chunkSize;
             index_src += chunkSize * FLOAT_SIZE;
@@ -291,14 +270,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / DOUBLE_SIZE, len);
 
-            doubleBuffer.clear();
-            doubleBuffer.put(src, off, chunkSize);
+            s.doubleBuffer.clear();
+            s.doubleBuffer.put(src, off, chunkSize);
 
-            byteBuffer.position(0).limit(chunkSize * DOUBLE_SIZE);
-            byteBuffer.get(dst, off2, chunkSize * DOUBLE_SIZE);
+            s.byteBuffer.position(0).limit(chunkSize * DOUBLE_SIZE);
+            s.byteBuffer.get(dst, off2, chunkSize * DOUBLE_SIZE);
 
             len -= chunkSize;
             off += chunkSize;
@@ -314,14 +295,16 @@ public final class HybridChunkBigConversion extends SimpleBigConversion {
             return;
         }
 
+        ScratchBuffers s = ScratchBuffers.big();
+
         while (len > 0) {
             int chunkSize = Math.min(BUFFER_SIZE / DOUBLE_SIZE, len);
 
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, chunkSize * DOUBLE_SIZE);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, chunkSize * DOUBLE_SIZE);
 
-            doubleBuffer.position(0).limit(chunkSize);
-            doubleBuffer.get(dst, index_dst, chunkSize);
+            s.doubleBuffer.position(0).limit(chunkSize);
+            s.doubleBuffer.get(dst, index_dst, chunkSize);
 
             len -= chunkSize;
             index_src += chunkSize * DOUBLE_SIZE;
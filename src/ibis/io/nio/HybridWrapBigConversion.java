@@ -15,7 +15,7 @@ import java.nio.ShortBuffer;
 
 public final class HybridWrapBigConversion extends SimpleBigConversion {
 
-    public static final int BUFFER_SIZE = 8 * 1024;
+    public static final int BUFFER_SIZE = ScratchBuffers.BUFFER_SIZE;
 
     public static final int THRESHOLD = 512; //bytes
 
@@ -23,33 +23,9 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
 
     private final ByteOrder order;
 
-    private final ByteBuffer byteBuffer;
-
-    private final CharBuffer charBuffer;
-
-    private final ShortBuffer shortBuffer;
-
-    private final IntBuffer intBuffer;
-
-    private final LongBuffer longBuffer;
-
-    private final FloatBuffer floatBuffer;
-
-    private final DoubleBuffer doubleBuffer;
-
     public HybridWrapBigConversion() {
         // big/little endian difference one liner
         order = ByteOrder.BIG_ENDIAN;
-
-        byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
-
-        // views on the bytebuffer to fill/drain it efficiently
-        charBuffer = byteBuffer.asCharBuffer();
-        shortBuffer = byteBuffer.asShortBuffer();
-        intBuffer = byteBuffer.asIntBuffer();
-        longBuffer = byteBuffer.asLongBuffer();
-        floatBuffer = byteBuffer.asFloatBuffer();
-        doubleBuffer = byteBuffer.asDoubleBuffer();
     }
 
     public void char2byte(char[] src, int off, int len, byte[] dst, int off2) {
@@ -61,11 +37,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     .order(order).asCharBuffer();
             buffer.put(src, off, len);
         } else {
-            charBuffer.clear();
-            charBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.big();
 
-            byteBuffer.position(0).limit(len * 2);
-            byteBuffer.get(dst, off2, len * 2);
+            s.charBuffer.clear();
+            s.charBuffer.put(src, off, len);
+
+            s.byteBuffer.position(0).limit(len * 2);
+            s.byteBuffer.get(dst, off2, len * 2);
         }
     }
 
@@ -79,11 +57,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     order).asCharBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 2);
+            ScratchBuffers s = ScratchBuffers.big();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 2);
 
-            charBuffer.position(0).limit(len);
-            charBuffer.get(dst, index_dst, len);
+            s.charBuffer.position(0).limit(len);
+            s.charBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -97,11 +77,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     order).asShortBuffer();
             buffer.put(src, off, len);
         } else {
-            shortBuffer.clear();
-            shortBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.big();
 
-            byteBuffer.position(0).limit(len * 2);
-            byteBuffer.get(dst, off2, len * 2);
+            s.shortBuffer.clear();
+            s.shortBuffer.put(src, off, len);
+
+            s.byteBuffer.position(0).limit(len * 2);
+            s.byteBuffer.get(dst, off2, len * 2);
         }
     }
 
@@ -115,11 +97,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     .order(order).asShortBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 2);
+            ScratchBuffers s = ScratchBuffers.big();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 2);
 
-            shortBuffer.position(0).limit(len);
-            shortBuffer.get(dst, index_dst, len);
+            s.shortBuffer.position(0).limit(len);
+            s.shortBuffer.get(dst, index_dst, len);
         }
 
     }
@@ -133,11 +117,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     .asIntBuffer();
             buffer.put(src, off, len);
         } else {
-            intBuffer.clear();
-            intBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.big();
+
+            s.intBuffer.clear();
+            s.intBuffer.put(src, off, len);
 
-            byteBuffer.position(0).limit(len * 4);
-            byteBuffer.get(dst, off2, len * 4);
+            s.byteBuffer.position(0).limit(len * 4);
+            s.byteBuffer.get(dst, off2, len * 4);
         }
     }
 
@@ -151,11 +137,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     order).asIntBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 4);
+            ScratchBuffers s = ScratchBuffers.big();
 
-            intBuffer.position(0).limit(len);
-            intBuffer.get(dst, index_dst, len);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 4);
+
+            s.intBuffer.position(0).limit(len);
+            s.intBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -168,11 +156,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     .order(order).asLongBuffer();
             buffer.put(src, off, len);
         } else {
-            longBuffer.clear();
-            longBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.big();
+
+            s.longBuffer.clear();
+            s.longBuffer.put(src, off, len);
 
-            byteBuffer.position(0).limit(len * 8);
-            byteBuffer.get(dst, off2, len * 8);
+            s.byteBuffer.position(0).limit(len * 8);
+            s.byteBuffer.get(dst, off2, len * 8);
         }
     }
 
@@ -186,11 +176,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     order).asLongBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 8);
+            ScratchBuffers s = ScratchBuffers.big();
 
-            longBuffer.position(0).limit(len);
-            longBuffer.get(dst, index_dst, len);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 8);
+
+            s.longBuffer.position(0).limit(len);
+            s.longBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -204,11 +196,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     order).asFloatBuffer();
             buffer.put(src, off, len);
         } else {
-            floatBuffer.clear();
-            floatBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.big();
+
+            s.floatBuffer.clear();
+            s.floatBuffer.put(src, off, len);
 
-            byteBuffer.position(0).limit(len * 4);
-            byteBuffer.get(dst, off2, len * 4);
+            s.byteBuffer.position(0).limit(len * 4);
+            s.byteBuffer.get(dst, off2, len * 4);
         }
     }
 
@@ -222,11 +216,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     .order(order).asFloatBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 4);
+            ScratchBuffers s = ScratchBuffers.big();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 4);
 
-            floatBuffer.position(0).limit(len);
-            floatBuffer.get(dst, index_dst, len);
+            s.floatBuffer.position(0).limit(len);
+            s.floatBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -240,11 +236,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     order).asDoubleBuffer();
             buffer.put(src, off, len);
         } else {
-            doubleBuffer.clear();
-            doubleBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.big();
 
-            byteBuffer.position(0).limit(len * 8);
-            byteBuffer.get(dst, off2, len * 8);
+            s.doubleBuffer.clear();
+            s.doubleBuffer.put(src, off, len);
+
+            s.byteBuffer.position(0).limit(len * 8);
+            s.byteBuffer.get(dst, off2, len * 8);
         }
     }
 
@@ -258,11 +256,13 @@ public final class HybridWrapBigConversion extends SimpleBigConversion {
                     .order(order).asDoubleBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 8);
+            ScratchBuffers s = ScratchBuffers.big();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 8);
 
-            doubleBuffer.position(0).limit(len);
-            doubleBuffer.get(dst, index_dst, len);
+            s.doubleBuffer.position(0).limit(len);
+            s.doubleBuffer.get(dst, index_dst, len);
         }
     }
 }
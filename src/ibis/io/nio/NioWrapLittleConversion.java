@@ -15,38 +15,14 @@ import java.nio.ShortBuffer;
 
 public final class NioWrapLittleConversion extends SimpleLittleConversion {
 
-    public static final int BUFFER_SIZE = 8 * 1024;
+    public static final int BUFFER_SIZE = ScratchBuffers.BUFFER_SIZE;
 
     private ByteOrder order;
 
-    private ByteBuffer byteBuffer;
-
-    private CharBuffer charBuffer;
-
-    private ShortBuffer shortBuffer;
-
-    private IntBuffer intBuffer;
-
-    private LongBuffer longBuffer;
-
-    private FloatBuffer floatBuffer;
-
-    private DoubleBuffer doubleBuffer;
-
     public NioWrapLittleConversion() {
 
         // big/little endian difference one liner
         order = ByteOrder.LITTLE_ENDIAN;
-
-        byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
-
-        // views on the bytebuffer to fill/drain it efficiently
-        charBuffer = byteBuffer.asCharBuffer();
-        shortBuffer = byteBuffer.asShortBuffer();
-        intBuffer = byteBuffer.asIntBuffer();
-        longBuffer = byteBuffer.asLongBuffer();
-        floatBuffer = byteBuffer.asFloatBuffer();
-        doubleBuffer = byteBuffer.asDoubleBuffer();
     }
 
     public void char2byte(char[] src, int off, int len, byte[] dst, int off2) {
@@ -56,11 +32,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     .order(order).asCharBuffer();
             buffer.put(src, off, len);
         } else {
-            charBuffer.clear();
-            charBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.little();
 
-            byteBuffer.position(0).limit(len * 2);
-            byteBuffer.get(dst, off2, len * 2);
+            s.charBuffer.clear();
+            s.charBuffer.put(src, off, len);
+
+            s.byteBuffer.position(0).limit(len * 2);
+            s.byteBuffer.get(dst, off2, len * 2);
         }
     }
 
@@ -72,11 +50,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     order).asCharBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 2);
+            ScratchBuffers s = ScratchBuffers.little();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 2);
 
-            charBuffer.position(0).limit(len);
-            charBuffer.get(dst, index_dst, len);
+            s.charBuffer.position(0).limit(len);
+            s.charBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -88,11 +68,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     order).asShortBuffer();
             buffer.put(src, off, len);
         } else {
-            shortBuffer.clear();
-            shortBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.little();
 
-            byteBuffer.position(0).limit(len * 2);
-            byteBuffer.get(dst, off2, len * 2);
+            s.shortBuffer.clear();
+            s.shortBuffer.put(src, off, len);
+
+            s.byteBuffer.position(0).limit(len * 2);
+            s.byteBuffer.get(dst, off2, len * 2);
         }
     }
 
@@ -104,11 +86,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     .order(order).asShortBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 2);
+            ScratchBuffers s = ScratchBuffers.little();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 2);
 
-            shortBuffer.position(0).limit(len);
-            shortBuffer.get(dst, index_dst, len);
+            s.shortBuffer.position(0).limit(len);
+            s.shortBuffer.get(dst, index_dst, len);
         }
 
     }
@@ -120,11 +104,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     .asIntBuffer();
             buffer.put(src, off, len);
         } else {
-            intBuffer.clear();
-            intBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.little();
+
+            s.intBuffer.clear();
+            s.intBuffer.put(src, off, len);
 
-            byteBuffer.position(0).limit(len * 4);
-            byteBuffer.get(dst, off2, len * 4);
+            s.byteBuffer.position(0).limit(len * 4);
+            s.byteBuffer.get(dst, off2, len * 4);
         }
     }
 
@@ -136,11 +122,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     order).asIntBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 4);
+            ScratchBuffers s = ScratchBuffers.little();
 
-            intBuffer.position(0).limit(len);
-            intBuffer.get(dst, index_dst, len);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 4);
+
+            s.intBuffer.position(0).limit(len);
+            s.intBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -151,11 +139,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     .order(order).asLongBuffer();
             buffer.put(src, off, len);
         } else {
-            longBuffer.clear();
-            longBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.little();
+
+            s.longBuffer.clear();
+            s.longBuffer.put(src, off, len);
 
-            byteBuffer.position(0).limit(len * 8);
-            byteBuffer.get(dst, off2, len * 8);
+            s.byteBuffer.position(0).limit(len * 8);
+            s.byteBuffer.get(dst, off2, len * 8);
         }
     }
 
@@ -167,11 +157,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     order).asLongBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 8);
+            ScratchBuffers s = ScratchBuffers.little();
 
-            longBuffer.position(0).limit(len);
-            longBuffer.get(dst, index_dst, len);
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 8);
+
+            s.longBuffer.position(0).limit(len);
+            s.longBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -183,11 +175,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     order).asFloatBuffer();
             buffer.put(src, off, len);
         } else {
-            floatBuffer.clear();
-            floatBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.little();
+
+            s.floatBuffer.clear();
+            s.floatBuffer.put(src, off, len);
 
-            byteBuffer.position(0).limit(len * 4);
-            byteBuffer.get(dst, off2, len * 4);
+            s.byteBuffer.position(0).limit(len * 4);
+            s.byteBuffer.get(dst, off2, len * 4);
         }
     }
 
@@ -199,11 +193,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     .order(order).asFloatBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 4);
+            ScratchBuffers s = ScratchBuffers.little();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 4);
 
-            floatBuffer.position(0).limit(len);
-            floatBuffer.get(dst, index_dst, len);
+            s.floatBuffer.position(0).limit(len);
+            s.floatBuffer.get(dst, index_dst, len);
         }
     }
 
@@ -215,11 +211,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     order).asDoubleBuffer();
             buffer.put(src, off, len);
         } else {
-            doubleBuffer.clear();
-            doubleBuffer.put(src, off, len);
+            ScratchBuffers s = ScratchBuffers.little();
 
-            byteBuffer.position(0).limit(len * 8);
-            byteBuffer.get(dst, off2, len * 8);
+            s.doubleBuffer.clear();
+            s.doubleBuffer.put(src, off, len);
+
+            s.byteBuffer.position(0).limit(len * 8);
+            s.byteBuffer.get(dst, off2, len * 8);
         }
     }
 
@@ -231,11 +229,13 @@ public final class NioWrapLittleConversion extends SimpleLittleConversion {
                     .order(order).asDoubleBuffer();
             buffer.get(dst, index_dst, len);
         } else {
-            byteBuffer.clear();
-            byteBuffer.put(src, index_src, len * 8);
+            ScratchBuffers s = ScratchBuffers.little();
+
+            s.byteBuffer.clear();
+            s.byteBuffer.put(src, index_src, len * 8);
 
-            doubleBuffer.position(0).limit(len);
-            doubleBuffer.get(dst, index_dst, len);
+            s.doubleBuffer.position(0).limit(len);
+            s.doubleBuffer.get(dst, index_dst, len);
         }
     }
 }
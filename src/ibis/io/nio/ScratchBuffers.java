@@ -0,0 +1,75 @@
+/* $Id$ */
+
+package ibis.io.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A direct byte buffer with typed views on it, used as scratch space by
+ * the nio conversions. The buffers are kept per thread and per byte
+ * order instead of per conversion, because every buffered data stream
+ * has a conversion of its own, and a direct buffer per stream is
+ * expensive to create and to keep.
+ */
+final class ScratchBuffers {
+
+    /** Size of the byte buffer. */
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<ScratchBuffers> little
+            = new ThreadLocal<ScratchBuffers>() {
+                protected ScratchBuffers initialValue() {
+                    return new ScratchBuffers(ByteOrder.LITTLE_ENDIAN);
+                }
+            };
+
+    private static final ThreadLocal<ScratchBuffers> big
+            = new ThreadLocal<ScratchBuffers>() {
+                protected ScratchBuffers initialValue() {
+                    return new ScratchBuffers(ByteOrder.BIG_ENDIAN);
+                }
+            };
+
+    final ByteBuffer byteBuffer;
+
+    final CharBuffer charBuffer;
+
+    final ShortBuffer shortBuffer;
+
+    final IntBuffer intBuffer;
+
+    final LongBuffer longBuffer;
+
+    final FloatBuffer floatBuffer;
+
+    final DoubleBuffer doubleBuffer;
+
+    private ScratchBuffers(ByteOrder order) {
+        byteBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(order);
+
+        // views on the bytebuffer to fill/drain it efficiently
+        charBuffer = byteBuffer.asCharBuffer();
+        shortBuffer = byteBuffer.asShortBuffer();
+        intBuffer = byteBuffer.asIntBuffer();
+        longBuffer = byteBuffer.asLongBuffer();
+        floatBuffer = byteBuffer.asFloatBuffer();
+        doubleBuffer = byteBuffer.asDoubleBuffer();
+    }
+
+    /** Returns the little-endian scratch buffers of the current thread. */
+    static ScratchBuffers little() {
+        return little.get();
+    }
+
+    /** Returns the big-endian scratch buffers of the current thread. */
+    static ScratchBuffers big() {
+        return big.get();
+    }
+}
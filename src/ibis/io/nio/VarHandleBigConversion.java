@@ -0,0 +1,275 @@
+/* $Id$ */
+
+package ibis.io.nio;
+
+import ibis.io.Conversion;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Conversion to and from big-endian bytes, using byte-array view
+ * var handles for single values, and byte-array backed buffer views for
+ * arrays. Both access the destination directly, so each conversion is a
+ * single pass without an intermediate buffer. When the byte order is the
+ * native one, array conversion is a plain memory copy.
+ */
+public final class VarHandleBigConversion extends Conversion {
+
+    /** Arrays below this size (in bytes) are converted element-wise. */
+    public static final int THRESHOLD = 64;
+
+    private static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+
+    private static final VarHandle CHAR
+            = MethodHandles.byteArrayViewVarHandle(char[].class, ORDER);
+
+    private static final VarHandle SHORT
+            = MethodHandles.byteArrayViewVarHandle(short[].class, ORDER);
+
+    private static final VarHandle INT
+            = MethodHandles.byteArrayViewVarHandle(int[].class, ORDER);
+
+    private static final VarHandle LONG
+            = MethodHandles.byteArrayViewVarHandle(long[].class, ORDER);
+
+    public boolean bigEndian() {
+        return true;
+    }
+
+    public byte boolean2byte(boolean src) {
+        return (src ? (byte) 1 : (byte) 0);
+    }
+
+    public boolean byte2boolean(byte src) {
+        return (src == (byte) 1);
+    }
+
+    public void char2byte(char src, byte[] dst, int off) {
+        CHAR.set(dst, off, src);
+    }
+
+    public char byte2char(byte[] src, int off) {
+        return (char) CHAR.get(src, off);
+    }
+
+    public void short2byte(short src, byte[] dst, int off) {
+        SHORT.set(dst, off, src);
+    }
+
+    public short byte2short(byte[] src, int off) {
+        return (short) SHORT.get(src, off);
+    }
+
+    public void int2byte(int src, byte[] dst, int off) {
+        INT.set(dst, off, src);
+    }
+
+    public int byte2int(byte[] src, int off) {
+        return (int) INT.get(src, off);
+    }
+
+    public void long2byte(long src, byte[] dst, int off) {
+        LONG.set(dst, off, src);
+    }
+
+    public long byte2long(byte[] src, int off) {
+        return (long) LONG.get(src, off);
+    }
+
+    public void float2byte(float src, byte[] dst, int off) {
+        INT.set(dst, off, Float.floatToIntBits(src));
+    }
+
+    public float byte2float(byte[] src, int off) {
+        return Float.intBitsToFloat((int) INT.get(src, off));
+    }
+
+    public void double2byte(double src, byte[] dst, int off) {
+        LONG.set(dst, off, Double.doubleToLongBits(src));
+    }
+
+    public double byte2double(byte[] src, int off) {
+        return Double.longBitsToDouble((long) LONG.get(src, off));
+    }
+
+    public void boolean2byte(boolean[] src, int off, int len, byte[] dst,
+            int off2) {
+
+        for (int i = 0; i < len; i++) {
+            dst[off2 + i] = (src[off + i] ? (byte) 1 : (byte) 0);
+        }
+    }
+
+    public void byte2boolean(byte[] src, int index_src, boolean[] dst,
+            int index_dst, int len) {
+
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (src[index_src + i] == (byte) 1);
+        }
+    }
+
+    public void char2byte(char[] src, int off, int len, byte[] dst, int off2) {
+
+        if (len < (THRESHOLD / CHAR_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                char2byte(src[off + i], dst, off2 + i * CHAR_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(dst, off2, len * CHAR_SIZE).order(ORDER)
+                .asCharBuffer().put(src, off, len);
+    }
+
+    public void byte2char(byte[] src, int index_src, char[] dst, int index_dst,
+            int len) {
+
+        if (len < (THRESHOLD / CHAR_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                dst[index_dst + i] = byte2char(src, index_src + i * CHAR_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(src, index_src, len * CHAR_SIZE).order(ORDER)
+                .asCharBuffer().get(dst, index_dst, len);
+    }
+
+    public void short2byte(short[] src, int off, int len, byte[] dst, int off2) {
+
+        if (len < (THRESHOLD / SHORT_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                short2byte(src[off + i], dst, off2 + i * SHORT_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(dst, off2, len * SHORT_SIZE).order(ORDER)
+                .asShortBuffer().put(src, off, len);
+    }
+
+    public void byte2short(byte[] src, int index_src, short[] dst, int index_dst,
+            int len) {
+
+        if (len < (THRESHOLD / SHORT_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                dst[index_dst + i] = byte2short(src, index_src + i * SHORT_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(src, index_src, len * SHORT_SIZE).order(ORDER)
+                .asShortBuffer().get(dst, index_dst, len);
+    }
+
+    public void int2byte(int[] src, int off, int len, byte[] dst, int off2) {
+
+        if (len < (THRESHOLD / INT_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                int2byte(src[off + i], dst, off2 + i * INT_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(dst, off2, len * INT_SIZE).order(ORDER)
+                .asIntBuffer().put(src, off, len);
+    }
+
+    public void byte2int(byte[] src, int index_src, int[] dst, int index_dst,
+            int len) {
+
+        if (len < (THRESHOLD / INT_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                dst[index_dst + i] = byte2int(src, index_src + i * INT_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(src, index_src, len * INT_SIZE).order(ORDER)
+                .asIntBuffer().get(dst, index_dst, len);
+    }
+
+    public void long2byte(long[] src, int off, int len, byte[] dst, int off2) {
+
+        if (len < (THRESHOLD / LONG_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                long2byte(src[off + i], dst, off2 + i * LONG_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(dst, off2, len * LONG_SIZE).order(ORDER)
+                .asLongBuffer().put(src, off, len);
+    }
+
+    public void byte2long(byte[] src, int index_src, long[] dst, int index_dst,
+            int len) {
+
+        if (len < (THRESHOLD / LONG_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                dst[index_dst + i] = byte2long(src, index_src + i * LONG_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(src, index_src, len * LONG_SIZE).order(ORDER)
+                .asLongBuffer().get(dst, index_dst, len);
+    }
+
+    public void float2byte(float[] src, int off, int len, byte[] dst, int off2) {
+
+        if (len < (THRESHOLD / FLOAT_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                float2byte(src[off + i], dst, off2 + i * FLOAT_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(dst, off2, len * FLOAT_SIZE).order(ORDER)
+                .asFloatBuffer().put(src, off, len);
+    }
+
+    public void byte2float(byte[] src, int index_src, float[] dst, int index_dst,
+            int len) {
+
+        if (len < (THRESHOLD / FLOAT_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                dst[index_dst + i] = byte2float(src, index_src + i * FLOAT_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(src, index_src, len * FLOAT_SIZE).order(ORDER)
+                .asFloatBuffer().get(dst, index_dst, len);
+    }
+
+    public void double2byte(double[] src, int off, int len, byte[] dst, int off2) {
+
+        if (len < (THRESHOLD / DOUBLE_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                double2byte(src[off + i], dst, off2 + i * DOUBLE_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(dst, off2, len * DOUBLE_SIZE).order(ORDER)
+                .asDoubleBuffer().put(src, off, len);
+    }
+
+    public void byte2double(byte[] src, int index_src, double[] dst, int index_dst,
+            int len) {
+
+        if (len < (THRESHOLD / DOUBLE_SIZE)) {
+            for (int i = 0; i < len; i++) {
+                dst[index_dst + i] = byte2double(src, index_src + i * DOUBLE_SIZE);
+            }
+            return;
+        }
+
+        ByteBuffer.wrap(src, index_src, len * DOUBLE_SIZE).order(ORDER)
+                .asDoubleBuffer().get(dst, index_dst, len);
+    }
+}
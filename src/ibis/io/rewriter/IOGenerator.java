@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -60,6 +61,7 @@ import org.apache.bcel.generic.ReferenceType;
 import org.apache.bcel.generic.SIPUSH;
 import org.apache.bcel.generic.SWITCH;
 import org.apache.bcel.generic.Type;
+import org.apache.bcel.util.ClassLoaderRepository;
 
 /* TODO: docs.
  */
@@ -686,6 +688,10 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
                             && (hasIbisConstructor(field_class)
                                     || (isSerializable(field_class)
                                             && force_generated_calls)))) {
+                // A field that can only refer to a tree is written without
+                // a handle.
+                boolean unshared = tree_fields && isTreeShaped(field_type);
+
                 // If there is an object replacer, we cannot do the
                 // "fast" code.
                 write_il.append(new ACONST_NULL());
@@ -696,7 +702,18 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
                             Constants.GETFIELD));
                 IF_ACMPEQ replacertest = new IF_ACMPEQ(null);
                 write_il.append(replacertest);
-                write_il.append(writeInstructions(field));
+                if (unshared) {
+                    write_il.append(new ALOAD(1));
+                    write_il.append(new ALOAD(0));
+                    write_il.append(factory.createFieldAccess(classname,
+                            field.getName(), field_type, Constants.GETFIELD));
+                    write_il.append(factory.createInvoke(
+                            ibis_output_stream_name, "writeTree", Type.VOID,
+                            new Type[] { Type.OBJECT },
+                            Constants.INVOKEVIRTUAL));
+                } else {
+                    write_il.append(writeInstructions(field));
+                }
                 GOTO toEnd = new GOTO(null);
                 write_il.append(toEnd);
 
@@ -711,12 +728,16 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
                             "TYPE_" + basicname.toUpperCase(), Type.INT,
                             Constants.GETSTATIC));
                     write_il.append(factory.createInvoke(
-                            ibis_output_stream_name, "writeKnownArrayHeader",
+                            ibis_output_stream_name, unshared
+                                    ? "writeUnsharedArrayHeader"
+                                    : "writeKnownArrayHeader",
                             Type.INT, new Type[] { Type.OBJECT, Type.INT },
                             Constants.INVOKEVIRTUAL));
                 } else {
                     write_il.append(factory.createInvoke(
-                            ibis_output_stream_name, "writeKnownObjectHeader",
+                            ibis_output_stream_name, unshared
+                                    ? "writeUnsharedObjectHeader"
+                                    : "writeKnownObjectHeader",
                             Type.INT, new Type[] { Type.OBJECT },
                             Constants.INVOKEVIRTUAL));
                 }
@@ -1136,10 +1157,13 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
                             && (hasIbisConstructor(field_class)
                                     || (isSerializable(field_class)
                                             && force_generated_calls)))) {
+                boolean unshared = tree_fields && isTreeShaped(field_type);
+
                 read_il.append(new ALOAD(1));
                 read_il.append(factory.createInvoke(ibis_input_stream_name,
-                        "readKnownTypeHeader", Type.INT, Type.NO_ARGS,
-                        Constants.INVOKEVIRTUAL));
+                        unshared ? "readUnsharedTypeHeader"
+                                : "readKnownTypeHeader",
+                        Type.INT, Type.NO_ARGS, Constants.INVOKEVIRTUAL));
                 read_il.append(new ISTORE(2));
                 read_il.append(new ILOAD(2));
                 read_il.append(new ICONST(-1));
@@ -2020,6 +2044,13 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
 
             gen.setMethodAt(write_gen.getMethod(), write_method_index);
 
+            if (gen.getMajor() == 51) {
+                // BCEL does not write stack map frames, which the verifier
+                // needs from version 51 (Java 7) on. Version 51 adds
+                // nothing else that BCEL can read, so lower it to 50.
+                gen.setMajor(50);
+            }
+
             clazz = gen.getJavaClass();
 
             Repository.removeClass(classname);
@@ -2045,6 +2076,16 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
 
     boolean force_generated_calls = false;
 
+    /**
+     * Set when fields that can only refer to a tree of objects are
+     * written without handles, see {@link #isTreeShaped(Type)}.
+     */
+    boolean tree_fields = false;
+
+    /** Outcome of {@link #isTreeShaped(JavaClass, HashSet)}, per class. */
+    private HashMap<String, Boolean> tree_shaped
+            = new HashMap<String, Boolean>();
+
     boolean silent = false;
 
     HashMap<Type, SerializationInfo>  primitiveSerialization;
@@ -2119,13 +2160,17 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
                 force_generated_calls = true;
                 args.remove(i);
                 i--;
+            } else if (arg.equals("-iogen-tree")) {
+                tree_fields = true;
+                args.remove(i);
+                i--;
             }
         }
         return true;
     }
 
     public String getUsageString() {
-        return "[-iogen-force]";
+        return "[-iogen-force] [-iogen-tree]";
     }
 
     public void process(Iterator classes) {
@@ -2311,6 +2356,102 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
         return false;
     }
 
+    /**
+     * Determines whether a field of type <code>t</code> can only refer to a
+     * tree of objects, so that it can be written without a handle: a
+     * one-dimensional array of a primitive type, or a tree-shaped class.
+     * Note that an object that such a field refers to is written again
+     * each time it is encountered, so sharing is lost.
+     */
+    boolean isTreeShaped(Type t) {
+        if (t instanceof ArrayType) {
+            return ((ArrayType) t).getDimensions() == 1
+                    && ((ArrayType) t).getElementType() instanceof BasicType;
+        }
+        if (t instanceof ObjectType) {
+            JavaClass c = Repository.lookupClass(
+                    ((ObjectType) t).getClassName());
+            return c != null && isTreeShaped(c, new HashSet<String>());
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether class <code>c</code> is tree-shaped: it is final,
+     * serializable without user-defined serialization methods, has no
+     * serializable superclass, and its serialized fields are primitives,
+     * strings, or of tree-shaped types. The classes being examined are
+     * kept in <code>visiting</code>, so that recursive types are rejected.
+     */
+    private boolean isTreeShaped(JavaClass c, HashSet<String> visiting) {
+        String name = c.getClassName();
+        Boolean known = tree_shaped.get(name);
+        if (known != null) {
+            return known.booleanValue();
+        }
+        if (visiting.contains(name)) {
+            return false;
+        }
+
+        boolean result = c.isFinal() && isSerializable(c)
+                && !isExternalizable(c)
+                && !hasMethod(c, "writeObject",
+                        "(Ljava/io/ObjectOutputStream;)V")
+                && !hasMethod(c, "readObject",
+                        "(Ljava/io/ObjectInputStream;)V")
+                && !hasMethod(c, "writeReplace", "()Ljava/lang/Object;")
+                && !hasMethod(c, "readResolve", "()Ljava/lang/Object;");
+
+        if (result) {
+            JavaClass sup = Repository.lookupClass(c.getSuperclassName());
+            result = sup != null && !isSerializable(sup);
+        }
+
+        visiting.add(name);
+        Field[] fields = c.getFields();
+        for (int i = 0; result && i < fields.length; i++) {
+            Field field = fields[i];
+            if (field.getName().equals("serialPersistentFields")
+                    && field.isStatic()) {
+                result = false;
+            } else if (!(field.isStatic() || field.isTransient())) {
+                Type field_type = Type.getType(field.getSignature());
+                if (field_type instanceof BasicType
+                        || field_type.equals(Type.STRING)) {
+                    continue;
+                }
+                if (field_type instanceof ArrayType) {
+                    result = isTreeShaped(field_type);
+                } else if (field_type instanceof ObjectType) {
+                    JavaClass fc = Repository.lookupClass(
+                            ((ObjectType) field_type).getClassName());
+                    result = fc != null && isTreeShaped(fc, visiting);
+                } else {
+                    result = false;
+                }
+            }
+        }
+        visiting.remove(name);
+
+        tree_shaped.put(name, Boolean.valueOf(result));
+        if (verbose && result) {
+            System.out.println("  " + name + " is tree-shaped");
+        }
+        return result;
+    }
+
+    private static boolean hasMethod(JavaClass c, String name,
+            String signature) {
+        Method[] methods = c.getMethods();
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].getName().equals(name)
+                    && methods[i].getSignature().equals(signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     void addReferencesToRewrite(JavaClass clazz) {
 
         /* Find all references to final reference types and add these to the
@@ -2326,7 +2467,7 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
                 Type field_type = Type.getType(field.getSignature());
 
                 if (!(field_type instanceof BasicType)
-                        && (field_type != Type.STRING) && isFinal(field_type)) {
+                        && !field_type.equals(Type.STRING) && isFinal(field_type)) {
                     addRewriteClass(field_type, clazz);
                 }
             }
@@ -2546,7 +2687,7 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
 
     private static void usage() {
         System.out.println("Usage : java IOGenerator [-dir|-local] "
-                + "[-package <package>] [-v] "
+                + "[-package <package>] [-v] [-tree] "
                 + "<fully qualified classname list | classfiles>");
         System.exit(1);
     }
@@ -2556,6 +2697,7 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
         boolean local = true;
         boolean file = false;
         boolean force_generated_calls = false;
+        boolean tree_fields = false;
         boolean silent = false;
         Vector<String> files = new Vector<String>();
         String pack = null;
@@ -2579,6 +2721,8 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
                 silent = true;
             } else if (args[i].equals("-force")) {
                 force_generated_calls = true;
+            } else if (args[i].equals("-tree")) {
+                tree_fields = true;
             } else if (args[i].equals("-package")) {
                 pack = args[i + 1];
                 i++; // skip arg
@@ -2623,8 +2767,18 @@ public class IOGenerator extends ibis.compile.IbiscComponent {
             }
         }
 
-        new IOGenerator(verbose, local, file, force_generated_calls, 
-                silent).scanClass(newArgs);
+        if (Repository.lookupClass("java.lang.Object") == null) {
+            // The default class path of BCEL only has the JDK classes if
+            // they are in a jar (before Java 9). Otherwise, load all
+            // classes as resources of the class loader.
+            Repository.setRepository(new ClassLoaderRepository(
+                    IOGenerator.class.getClassLoader()));
+        }
+
+        IOGenerator generator = new IOGenerator(verbose, local, file,
+                force_generated_calls, silent);
+        generator.tree_fields = tree_fields;
+        generator.scanClass(newArgs);
     }
 
     private static void processDirectory(File f, Vector<String> args,
@@ -0,0 +1,192 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.AsyncBufferedArrayOutputStream;
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.ChannelDataInputStream;
+import ibis.io.ChannelDataOutputStream;
+import ibis.io.DataInputStream;
+import ibis.io.DataOutputStream;
+import ibis.io.MappedDataInputStream;
+import ibis.io.MappedDataOutputStream;
+import ibis.io.PrefetchingBufferedArrayInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+/**
+ * Writes the same data with each of the data output streams and reads it
+ * back with each of the data input streams. All combinations must agree,
+ * with and without the byte-order header, so this test is run with
+ * <code>ibis.io.byteorder</code> unset, set to "big" and set to
+ * "little". When the header is used, a stream without a valid header
+ * must be rejected with a <code>StreamCorruptedException</code>.
+ */
+public class ByteOrderTest {
+
+    static final int N = 10000;
+
+    static final String order = System.getProperty("ibis.io.byteorder");
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("ByteOrderTest (byteorder " + order + ") failed: "
+                    + msg);
+        }
+    }
+
+    static void write(DataOutputStream out) throws IOException {
+        int[] ints = new int[N];
+        long[] longs = new long[N];
+        double[] doubles = new double[N];
+        char[] chars = new char[N];
+        byte[] bytes = new byte[3 * N];
+        for (int i = 0; i < N; i++) {
+            ints[i] = i * 0x01020304;
+            longs[i] = i * 0x0102030405060708L;
+            doubles[i] = i * 0.3;
+            chars[i] = (char) (i * 7);
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        out.writeInt(0x01020304);
+        out.writeByte((byte) 5);
+        out.writeArray(ints, 0, N);
+        out.writeLong(0x0102030405060708L);
+        out.writeArray(longs, 1, N - 1);
+        out.writeDouble(Math.PI);
+        out.writeArray(doubles, 0, N);
+        out.writeShort((short) 0x0102);
+        out.writeArray(chars, 0, N);
+        out.writeFloat(1.5f);
+        out.writeArray(bytes, 0, bytes.length);
+        out.writeChar('x');
+        out.close();
+    }
+
+    static void read(DataInputStream in, String name) throws IOException {
+        int[] ints = new int[N];
+        long[] longs = new long[N];
+        double[] doubles = new double[N];
+        char[] chars = new char[N];
+        byte[] bytes = new byte[3 * N];
+        check(in.readInt() == 0x01020304, name + ": int");
+        check(in.readByte() == 5, name + ": byte");
+        in.readArray(ints, 0, N);
+        check(in.readLong() == 0x0102030405060708L, name + ": long");
+        in.readArray(longs, 1, N - 1);
+        check(in.readDouble() == Math.PI, name + ": double");
+        in.readArray(doubles, 0, N);
+        check(in.readShort() == 0x0102, name + ": short");
+        in.readArray(chars, 0, N);
+        check(in.readFloat() == 1.5f, name + ": float");
+        in.readArray(bytes, 0, bytes.length);
+        check(in.readChar() == 'x', name + ": char");
+        for (int i = 0; i < N; i++) {
+            check(ints[i] == i * 0x01020304, name + ": int[" + i + "]");
+            check(i == 0 || longs[i] == i * 0x0102030405060708L,
+                    name + ": long[" + i + "]");
+            check(doubles[i] == i * 0.3, name + ": double[" + i + "]");
+            check(chars[i] == (char) (i * 7), name + ": char[" + i + "]");
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            check(bytes[i] == (byte) i, name + ": byte[" + i + "]");
+        }
+        in.close();
+    }
+
+    static byte[] contents(File f) throws IOException {
+        FileInputStream in = new FileInputStream(f);
+        byte[] b = new byte[(int) f.length()];
+        int off = 0;
+        while (off < b.length) {
+            off += in.read(b, off, b.length - off);
+        }
+        in.close();
+        return b;
+    }
+
+    static void readAll(byte[] data, File f, String writer)
+            throws IOException {
+        FileOutputStream fo = new FileOutputStream(f);
+        fo.write(data);
+        fo.close();
+        read(new BufferedArrayInputStream(new ByteArrayInputStream(data),
+                4096), writer + " -> buffered");
+        read(new PrefetchingBufferedArrayInputStream(
+                new ByteArrayInputStream(data), 1), writer + " -> prefetch/1");
+        read(new PrefetchingBufferedArrayInputStream(
+                new ByteArrayInputStream(data), 7), writer + " -> prefetch/7");
+        read(new ChannelDataInputStream(Channels.newChannel(
+                new ByteArrayInputStream(data)), 4096), writer + " -> channel");
+        read(new MappedDataInputStream(f, 4099), writer + " -> mapped");
+    }
+
+    public static void main(String[] args) throws Exception {
+        File f = File.createTempFile("ibis-byteorder", ".bin");
+        File g = File.createTempFile("ibis-byteorder", ".bin");
+        f.deleteOnExit();
+        g.deleteOnExit();
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        write(new BufferedArrayOutputStream(b, 4096));
+        byte[] reference = b.toByteArray();
+
+        if (order == null) {
+            check(reference[0] == 4 && reference[3] == 1, "no header");
+        } else {
+            check(reference[0] == 'I' && reference[1] == 'B'
+                    && reference[2] == 'O', "header magic");
+            boolean big = order.equalsIgnoreCase("big");
+            check(reference[3] == (big ? 'B' : 'L'), "header order");
+            check(reference[big ? 4 : 7] == 1, "int order");
+        }
+
+        b = new ByteArrayOutputStream();
+        write(new AsyncBufferedArrayOutputStream(b, 4096));
+        check(Arrays.equals(b.toByteArray(), reference), "async bytes");
+
+        b = new ByteArrayOutputStream();
+        write(new ChannelDataOutputStream(Channels.newChannel(b), 4096));
+        check(Arrays.equals(b.toByteArray(), reference), "channel bytes");
+
+        write(new MappedDataOutputStream(g, 4099));
+        check(Arrays.equals(contents(g), reference), "mapped bytes");
+
+        readAll(reference, f, "buffered");
+
+        if (order != null) {
+            byte[] bad = reference.clone();
+            bad[3] = 'X';
+            try {
+                read(new BufferedArrayInputStream(
+                        new ByteArrayInputStream(bad), 4096), "bad order");
+                check(false, "unknown order accepted");
+            } catch (StreamCorruptedException e) {
+                // expected
+            }
+            bad = Arrays.copyOfRange(reference, 4, reference.length);
+            try {
+                read(new ChannelDataInputStream(Channels.newChannel(
+                        new ByteArrayInputStream(bad)), 4096), "no header");
+                check(false, "missing header accepted");
+            } catch (StreamCorruptedException e) {
+                // expected
+            }
+        }
+
+        f.delete();
+        g.delete();
+        System.out.println("ByteOrderTest (byteorder " + order + "): OK");
+    }
+}
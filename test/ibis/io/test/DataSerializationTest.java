@@ -0,0 +1,289 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.DataSerializationInputStream;
+import ibis.io.DataSerializationOutputStream;
+import ibis.io.IOProperties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes flushes of primitives, strings and arrays with data
+ * serialization and reads them back. A bulk flush holds more than 32K
+ * values of each type, which needs the extended int header when the
+ * typed buffers are that large. Another flush starts with a few values,
+ * continues with a large array and ends with a few values again, so that
+ * the auto mode switches from interleaved to segregated within it. The
+ * stream also switches modes between flushes with <code>setMode</code>.
+ * Strings of one, two and three bytes per character are written with
+ * lengths around the small-array bound and the string scratch size, and
+ * many of them in a row, so that they cross buffer flushes.
+ * This test is run with <code>ibis.io.buffer.size</code> set to 1MB and
+ * 8MB, and with <code>ibis.io.data.mode</code> set to "segregated",
+ * "interleaved" and "auto".
+ */
+public class DataSerializationTest {
+
+    /** Values of each type in the bulk flush, more than a short counts. */
+    static final int BULK = 40000;
+
+    static final int LARGE = 100000;
+
+    static final String mode = System.getProperty("ibis.io.data.mode");
+
+    /** Lengths of the strings written, in characters. */
+    static final int[] STRING_LENGTHS = { 0, 1, 7, 8, 9, 85, 86, 127, 128,
+            255, 256, 257, 1000, 21845, 30000, 65536, 70000 };
+
+    /**
+     * Characters the strings are made of: ASCII, a nul character, latin-1,
+     * two bytes, a character whose low byte is ASCII, and three bytes.
+     */
+    static final char[] STRING_CHARS = { 'a', '\0', '\u00e9', '\u0101',
+            '\u0141', '\u20ac' };
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("DataSerializationTest (mode " + mode
+                    + ", buffer " + IOProperties.BUFFER_SIZE + ") failed: "
+                    + msg);
+        }
+    }
+
+    static void writeSmall(DataSerializationOutputStream out)
+            throws IOException {
+        out.writeInt(42);
+        out.writeUTF("hello");
+        out.writeBoolean(true);
+        out.writeDouble(2.5);
+        out.flush();
+    }
+
+    static void readSmall(DataSerializationInputStream in)
+            throws IOException {
+        check(in.readInt() == 42, "small int");
+        check(in.readUTF().equals("hello"), "small string");
+        check(in.readBoolean(), "small boolean");
+        check(in.readDouble() == 2.5, "small double");
+    }
+
+    static void writeBulk(DataSerializationOutputStream out)
+            throws IOException {
+        for (int i = 0; i < BULK; i++) {
+            out.writeByte((byte) i);
+            out.writeChar((char) (i * 3));
+            out.writeShort((short) (i * 5));
+            out.writeInt(i * 7);
+            out.writeLong(i * 11L << 20);
+            out.writeFloat(i * 0.5f);
+            out.writeDouble(i * 0.25);
+            out.writeBoolean(i % 3 == 0);
+        }
+        out.flush();
+    }
+
+    static void readBulk(DataSerializationInputStream in)
+            throws IOException {
+        for (int i = 0; i < BULK; i++) {
+            check(in.readByte() == (byte) i, "bulk byte " + i);
+            check(in.readChar() == (char) (i * 3), "bulk char " + i);
+            check(in.readShort() == (short) (i * 5), "bulk short " + i);
+            check(in.readInt() == i * 7, "bulk int " + i);
+            check(in.readLong() == (i * 11L << 20), "bulk long " + i);
+            check(in.readFloat() == i * 0.5f, "bulk float " + i);
+            check(in.readDouble() == i * 0.25, "bulk double " + i);
+            check(in.readBoolean() == (i % 3 == 0), "bulk boolean " + i);
+        }
+    }
+
+    static void writeArrays(DataSerializationOutputStream out, int len)
+            throws IOException {
+        byte[] b = new byte[len];
+        char[] c = new char[len];
+        short[] s = new short[len];
+        int[] n = new int[len];
+        long[] l = new long[len];
+        float[] f = new float[len];
+        double[] d = new double[len];
+        boolean[] z = new boolean[len];
+        for (int i = 0; i < len; i++) {
+            b[i] = (byte) i;
+            c[i] = (char) (i * 3);
+            s[i] = (short) (i * 5);
+            n[i] = i * 7;
+            l[i] = i * 11L << 20;
+            f[i] = i * 0.5f;
+            d[i] = i * 0.25;
+            z[i] = i % 3 == 0;
+        }
+        out.writeInt(len);
+        out.writeArray(b, 0, len);
+        out.writeArray(c, 0, len);
+        out.writeArray(s, 0, len);
+        out.writeArray(n, 0, len);
+        out.writeArray(l, 0, len);
+        out.writeArray(f, 0, len);
+        out.writeArray(d, 0, len);
+        out.writeArray(z, 0, len);
+        out.writeInt(-len);
+    }
+
+    static void readArrays(DataSerializationInputStream in, int len)
+            throws IOException {
+        check(in.readInt() == len, "array length " + len);
+        byte[] b = new byte[len];
+        char[] c = new char[len];
+        short[] s = new short[len];
+        int[] n = new int[len];
+        long[] l = new long[len];
+        float[] f = new float[len];
+        double[] d = new double[len];
+        boolean[] z = new boolean[len];
+        in.readArray(b, 0, len);
+        in.readArray(c, 0, len);
+        in.readArray(s, 0, len);
+        in.readArray(n, 0, len);
+        in.readArray(l, 0, len);
+        in.readArray(f, 0, len);
+        in.readArray(d, 0, len);
+        in.readArray(z, 0, len);
+        for (int i = 0; i < len; i++) {
+            check(b[i] == (byte) i && c[i] == (char) (i * 3)
+                    && s[i] == (short) (i * 5) && n[i] == i * 7
+                    && l[i] == (i * 11L << 20) && f[i] == i * 0.5f
+                    && d[i] == i * 0.25 && z[i] == (i % 3 == 0),
+                    "array element " + i + " of " + len);
+        }
+        check(in.readInt() == -len, "after arrays of " + len);
+    }
+
+    static void writeSwitch(DataSerializationOutputStream out)
+            throws IOException {
+        double[] d = new double[LARGE];
+        for (int i = 0; i < LARGE; i++) {
+            d[i] = i * 1.5;
+        }
+        out.writeInt(1);
+        out.writeShort((short) 2);
+        out.writeArray(d, 0, LARGE);
+        out.writeInt(3);
+        out.writeUTF("after");
+        out.writeLong(4);
+        out.flush();
+    }
+
+    static void readSwitch(DataSerializationInputStream in)
+            throws IOException {
+        check(in.readInt() == 1 && in.readShort() == 2, "before array");
+        double[] d = new double[LARGE];
+        in.readArray(d, 0, LARGE);
+        for (int i = 0; i < LARGE; i++) {
+            check(d[i] == i * 1.5, "switch array element " + i);
+        }
+        check(in.readInt() == 3 && in.readUTF().equals("after")
+                && in.readLong() == 4, "after array");
+    }
+
+    static String string(int len, char c, int seed) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            // Mostly ASCII, with c at the end and at every 37th position.
+            sb.append(i == len - 1 || (i + seed) % 37 == 0 ? c
+                    : (char) ('a' + (i + seed) % 26));
+        }
+        return sb.toString();
+    }
+
+    static void writeStrings(DataSerializationOutputStream out)
+            throws IOException {
+        for (int c = 0; c < STRING_CHARS.length; c++) {
+            for (int l = 0; l < STRING_LENGTHS.length; l++) {
+                out.writeUTF(string(STRING_LENGTHS[l], STRING_CHARS[c], l));
+                out.writeInt(l);
+            }
+        }
+        out.writeUTF(null);
+        for (int i = 0; i < BULK; i++) {
+            out.writeUTF(string(i % 300, STRING_CHARS[i % STRING_CHARS.length],
+                    i));
+        }
+        out.flush();
+    }
+
+    static void readStrings(DataSerializationInputStream in)
+            throws IOException {
+        for (int c = 0; c < STRING_CHARS.length; c++) {
+            for (int l = 0; l < STRING_LENGTHS.length; l++) {
+                check(in.readUTF().equals(string(STRING_LENGTHS[l],
+                        STRING_CHARS[c], l)), "string of "
+                        + STRING_LENGTHS[l] + " chars, char " + c);
+                check(in.readInt() == l, "after string " + l);
+            }
+        }
+        check(in.readUTF() == null, "null string");
+        for (int i = 0; i < BULK; i++) {
+            check(in.readUTF().equals(string(i % 300,
+                    STRING_CHARS[i % STRING_CHARS.length], i)),
+                    "bulk string " + i);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataSerializationOutputStream out = new DataSerializationOutputStream(
+                new BufferedArrayOutputStream(bos, IOProperties.BUFFER_SIZE));
+        int expected = DataSerializationOutputStream.SEGREGATED;
+        if ("interleaved".equals(mode)) {
+            expected = DataSerializationOutputStream.INTERLEAVED;
+        } else if ("auto".equals(mode)) {
+            expected = DataSerializationOutputStream.AUTO;
+        }
+        check(out.getMode() == expected, "mode " + out.getMode());
+        writeSmall(out);
+        writeBulk(out);
+        writeStrings(out);
+        writeArrays(out, 10);
+        writeArrays(out, LARGE);
+        out.flush();
+        writeSmall(out);
+        writeSwitch(out);
+        int[] modes = { DataSerializationOutputStream.SEGREGATED,
+                DataSerializationOutputStream.INTERLEAVED,
+                DataSerializationOutputStream.AUTO };
+        for (int m = 0; m < modes.length; m++) {
+            out.setMode(modes[m]);
+            writeSmall(out);
+            writeSwitch(out);
+            writeStrings(out);
+            writeArrays(out, 10);
+            out.flush();
+        }
+        out.close();
+
+        DataSerializationInputStream in = new DataSerializationInputStream(
+                new BufferedArrayInputStream(new ByteArrayInputStream(
+                        bos.toByteArray()), IOProperties.BUFFER_SIZE));
+        readSmall(in);
+        readBulk(in);
+        readStrings(in);
+        readArrays(in, 10);
+        readArrays(in, LARGE);
+        readSmall(in);
+        readSwitch(in);
+        for (int m = 0; m < 3; m++) {
+            readSmall(in);
+            readSwitch(in);
+            readStrings(in);
+            readArrays(in, 10);
+        }
+        in.close();
+
+        System.out.println("DataSerializationTest (mode " + mode
+                + ", buffer " + IOProperties.BUFFER_SIZE + "): OK");
+    }
+}
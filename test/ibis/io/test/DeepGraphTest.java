@@ -0,0 +1,93 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+
+/**
+ * Writes and reads a linked list of a million nodes, and an object array
+ * nested a million deep, at the default thread stack size. This only
+ * works when both sides traverse the graph iteratively, so it is run with
+ * <code>ibis.io.serialization.iterative</code> set, both with and without
+ * <code>ibis.io.serialization.handles</code>.
+ */
+public class DeepGraphTest {
+
+    static final int NODES = 1000000;
+
+    static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int id;
+
+        final Node next;
+
+        Object payload;
+
+        Node(int id, Node next) {
+            this.id = id;
+            this.next = next;
+        }
+    }
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("DeepGraphTest failed: " + msg);
+        }
+    }
+
+    static Object roundTrip(Object o) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IbisSerializationOutputStream out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(bos, 4096));
+        out.writeObject(o);
+        out.close();
+        IbisSerializationInputStream in = new IbisSerializationInputStream(
+                new BufferedArrayInputStream(
+                        new ByteArrayInputStream(bos.toByteArray()), 4096));
+        Object r = in.readObject();
+        in.close();
+        return r;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Node head = null;
+        for (int i = NODES - 1; i >= 0; i--) {
+            head = new Node(i, head);
+        }
+        // A back reference into the list, resolved while it is being read.
+        head.payload = head.next.next;
+
+        Node r = (Node) roundTrip(head);
+        check(r.payload == r.next.next, "back reference");
+        int count = 0;
+        for (Node n = r; n != null; n = n.next) {
+            check(n.id == count, "node " + count);
+            count++;
+        }
+        check(count == NODES, "list length " + count);
+
+        Object[] nested = null;
+        for (int i = 0; i < NODES; i++) {
+            nested = new Object[] { nested, Integer.valueOf(i) };
+        }
+        Object[] a = (Object[]) roundTrip(nested);
+        count = 0;
+        while (a != null) {
+            check(((Integer) a[1]).intValue() == NODES - 1 - count,
+                    "array " + count);
+            a = (Object[]) a[0];
+            count++;
+        }
+        check(count == NODES, "array depth " + count);
+
+        System.out.println("DeepGraphTest: OK");
+    }
+}
@@ -0,0 +1,242 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+import ibis.io.test.gen.Base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+/**
+ * Writes the same object graph with and without the serializers that are
+ * generated at run time, and checks that the bytes are the same, and
+ * that each stream can be read back by the other. The graph has private
+ * and final fields of all primitive types, arrays, a cycle, and a class
+ * with a field whose type is not accessible from its package, for which
+ * the reflective path must be used instead. The
+ * <code>ibis.io.serialization.generate</code> property is read once, so
+ * each variant runs in its own class loader.
+ */
+public class GenerateTest {
+
+    static class Fields implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private boolean z;
+
+        private byte b;
+
+        private char c;
+
+        private short s;
+
+        private int i;
+
+        private long l;
+
+        private float f;
+
+        private double d;
+
+        private final String name;
+
+        final int[] ints;
+
+        private double[][] grid;
+
+        Object[] objects;
+
+        Fields next;
+
+        transient int skipped;
+
+        Fields(int n) {
+            z = n % 2 == 0;
+            b = (byte) n;
+            c = (char) ('a' + n);
+            s = (short) (n * 3);
+            i = n * 5;
+            l = n * 7L << 33;
+            f = n * 0.5f;
+            d = n * 0.25;
+            name = "fields" + n;
+            ints = new int[] { n, n + 1, n + 2 };
+            grid = new double[][] { { n }, { n, n + 0.5 } };
+            skipped = n;
+        }
+
+        void check(int n) {
+            GenerateTest.check(z == (n % 2 == 0) && b == (byte) n
+                    && c == (char) ('a' + n) && s == (short) (n * 3)
+                    && i == n * 5 && l == n * 7L << 33 && f == n * 0.5f
+                    && d == n * 0.25, "primitive fields of " + n);
+            GenerateTest.check(name.equals("fields" + n)
+                    && Arrays.equals(ints, new int[] { n, n + 1, n + 2 })
+                    && grid.length == 2 && grid[0][0] == n
+                    && grid[1][1] == n + 0.5, "reference fields of " + n);
+            GenerateTest.check(skipped == 0, "transient field of " + n);
+        }
+    }
+
+    static class Sub extends Fields {
+        private static final long serialVersionUID = 1L;
+
+        private final long extra;
+
+        private Fields parent;
+
+        Sub(int n, Fields parent) {
+            super(n);
+            this.extra = -n;
+            this.parent = parent;
+        }
+    }
+
+    /** Has a field whose type is not accessible here, so it falls back. */
+    static class Opaque extends Base {
+        private static final long serialVersionUID = 1L;
+
+        private final Inner inner;
+
+        final String tag;
+
+        Opaque(int value) {
+            inner = new Inner(value);
+            tag = "opaque";
+        }
+
+        int value() {
+            return inner.value;
+        }
+    }
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("GenerateTest failed: " + msg);
+        }
+    }
+
+    /** Builds the graph, writes it, and returns the bytes. */
+    public static byte[] write() throws Exception {
+        Fields a = new Fields(1);
+        Sub b = new Sub(2, a);
+        Opaque o = new Opaque(42);
+        a.next = b;
+        b.next = a;
+        b.objects = new Object[] { o, a.ints, "shared", null };
+        a.objects = new Object[] { b.objects[2], o };
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IbisSerializationOutputStream out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(bos, 4096));
+        out.writeObject(new Object[] { a, b, o });
+        out.writeObject(a);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    /** Reads the bytes written by {@link #write()} and checks the graph. */
+    public static void read(byte[] bytes) throws Exception {
+        IbisSerializationInputStream in = new IbisSerializationInputStream(
+                new BufferedArrayInputStream(new ByteArrayInputStream(bytes),
+                        4096));
+        Object[] root = (Object[]) in.readObject();
+        Fields a = (Fields) root[0];
+        Sub b = (Sub) root[1];
+        Opaque o = (Opaque) root[2];
+        check(in.readObject() == a, "second write of the same object");
+        in.close();
+
+        a.check(1);
+        b.check(2);
+        check(b.extra == -2 && b.parent == a, "fields of the subclass");
+        check(a.next == b && b.next == a, "cycle");
+        check(b.objects.length == 4 && b.objects[0] == o
+                && b.objects[1] == a.ints && b.objects[2].equals("shared")
+                && b.objects[3] == null, "object array");
+        check(a.objects[0] == b.objects[2] && a.objects[1] == o,
+                "shared references");
+        check(o.value() == 42 && o.tag.equals("opaque"),
+                "fields of the fallback class");
+    }
+
+    /**
+     * Returns the names of the classes of the graph that got a generated
+     * serializer.
+     */
+    public static String serializers() throws Exception {
+        Class<?> info = Class.forName("ibis.io.AlternativeTypeInfo");
+        Method get = info.getDeclaredMethod("getAlternativeTypeInfo",
+                Class.class);
+        Field serializer = info.getDeclaredField("serializer");
+        get.setAccessible(true);
+        serializer.setAccessible(true);
+        Class<?>[] classes = { Fields.class, Sub.class, Opaque.class };
+        String s = "";
+        for (int i = 0; i < classes.length; i++) {
+            Object t = get.invoke(null, classes[i]);
+            if (serializer.get(t) != null) {
+                s += classes[i].getSimpleName() + " ";
+            }
+        }
+        return s;
+    }
+
+    static Object call(ClassLoader loader, String name, Object... args)
+            throws Throwable {
+        Class<?> c = loader.loadClass(GenerateTest.class.getName());
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = args[i].getClass();
+        }
+        try {
+            return c.getMethod(name, types).invoke(null, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        String[] path = System.getProperty("java.class.path").split(
+                File.pathSeparator);
+        URL[] urls = new URL[path.length];
+        for (int i = 0; i < path.length; i++) {
+            urls[i] = new File(path[i]).toURI().toURL();
+        }
+
+        String[] generate = { "false", "true" };
+        ClassLoader[] loaders = new ClassLoader[generate.length];
+        byte[][] bytes = new byte[generate.length][];
+        for (int g = 0; g < generate.length; g++) {
+            System.setProperty("ibis.io.serialization.generate", generate[g]);
+            loaders[g] = new URLClassLoader(urls,
+                    ClassLoader.getPlatformClassLoader());
+            bytes[g] = (byte[]) call(loaders[g], "write");
+            String s = (String) call(loaders[g], "serializers");
+            check(s.equals(g == 0 ? "" : "Fields Sub "),
+                    "generated serializers with generate " + generate[g]
+                            + ": " + s);
+        }
+
+        check(Arrays.equals(bytes[0], bytes[1]), "streams differ, "
+                + bytes[0].length + " and " + bytes[1].length + " bytes");
+        for (int g = 0; g < generate.length; g++) {
+            call(loaders[g], "read", bytes[g]);
+            call(loaders[g], "read", bytes[1 - g]);
+        }
+
+        System.out.println("GenerateTest: OK");
+    }
+}
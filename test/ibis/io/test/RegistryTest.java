@@ -0,0 +1,177 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.ClassRegistry;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+
+/**
+ * Writes registered and unregistered classes on one stream and reads them
+ * back. Registered classes must be sent as their number, the registry
+ * hash must be sent again after <code>reset(true)</code>, and a reader
+ * whose registry differs must refuse the stream. This test is run with
+ * <code>ibis.io.registry</code> set to the manifest
+ * <code>registry.properties</code> next to it.
+ */
+public class RegistryTest {
+
+    static class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int x;
+
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static class Line implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Point from;
+
+        final Point to;
+
+        final Label label;
+
+        Line(Point from, Point to, Label label) {
+            this.from = from;
+            this.to = to;
+            this.label = label;
+        }
+    }
+
+    /** Not registered, so sent by name. */
+    static class Label implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String text;
+
+        final int[] style;
+
+        Label(String text) {
+            this.text = text;
+            this.style = new int[] { text.length(), 7 };
+        }
+    }
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("RegistryTest failed: " + msg);
+        }
+    }
+
+    static Line line(int i) {
+        Point p = new Point(i, -i);
+        // The end point is shared with the start of the line.
+        return new Line(p, i % 2 == 0 ? p : new Point(2 * i, i),
+                new Label("line" + i));
+    }
+
+    static void checkLine(Line l, int i) {
+        check(l.from.x == i && l.from.y == -i, "line " + i + " from");
+        if (i % 2 == 0) {
+            check(l.to == l.from, "line " + i + " lost its shared point");
+        } else {
+            check(l.to.x == 2 * i && l.to.y == i, "line " + i + " to");
+        }
+        check(l.label.text.equals("line" + i), "line " + i + " label");
+        check(l.label.style[0] == l.label.text.length()
+                && l.label.style[1] == 7, "line " + i + " style");
+    }
+
+    /** Counts the occurrences of the hash, in either byte order. */
+    static int countHash(byte[] b, long hash) {
+        int count = 0;
+        for (int i = 0; i + 8 <= b.length; i++) {
+            boolean big = true;
+            boolean little = true;
+            for (int j = 0; j < 8; j++) {
+                big &= b[i + j] == (byte) (hash >>> (56 - 8 * j));
+                little &= b[i + j] == (byte) (hash >>> (8 * j));
+            }
+            if (big || little) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static boolean contains(byte[] b, String s) {
+        byte[] p = s.getBytes();
+        outer: for (int i = 0; i + p.length <= b.length; i++) {
+            for (int j = 0; j < p.length; j++) {
+                if (b[i + j] != p[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static IbisSerializationInputStream reader(byte[] b) throws Exception {
+        return new IbisSerializationInputStream(new BufferedArrayInputStream(
+                new ByteArrayInputStream(b), 4096));
+    }
+
+    public static void main(String[] args) throws Exception {
+        check(System.getProperty("ibis.io.registry") != null,
+                "ibis.io.registry is not set");
+        long hash = ClassRegistry.hash();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IbisSerializationOutputStream out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(bos, 4096));
+        out.writeObject(line(0));
+        out.writeObject(line(1));
+        out.reset(true);
+        out.writeObject(line(2));
+        out.writeObject(new Label("alone"));
+        out.close();
+        byte[] stream = bos.toByteArray();
+
+        check(! contains(stream, Point.class.getName()),
+                "registered class sent by name");
+        check(! contains(stream, Line.class.getName()),
+                "registered class sent by name");
+        check(contains(stream, Label.class.getName()),
+                "unregistered class not sent by name");
+        check(countHash(stream, hash) == 2,
+                "registry hash sent " + countHash(stream, hash)
+                        + " times, expected once before and once after "
+                        + "reset(true)");
+
+        IbisSerializationInputStream in = reader(stream);
+        checkLine((Line) in.readObject(), 0);
+        checkLine((Line) in.readObject(), 1);
+        checkLine((Line) in.readObject(), 2);
+        check(((Label) in.readObject()).text.equals("alone"), "label");
+        in.close();
+
+        // A reader with a different registry must refuse the stream.
+        ClassRegistry.register("ibis.io.test.RegistryTest$Unknown", 3);
+        check(ClassRegistry.hash() != hash, "registry hash unchanged");
+        in = reader(stream);
+        try {
+            in.readObject();
+            check(false, "stream of a different registry accepted");
+        } catch (StreamCorruptedException e) {
+            check(e.getMessage().startsWith("Class registry"),
+                    "unexpected error " + e);
+        }
+
+        System.out.println("RegistryTest: OK");
+    }
+}
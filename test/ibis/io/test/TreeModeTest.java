@@ -0,0 +1,167 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.Constants;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+
+/**
+ * Mixes graph and tree writes on one stream and reads them back. A
+ * subobject that is reachable twice must come back aliased in graph mode
+ * and duplicated in tree mode, and the handle numbers of both sides must
+ * stay aligned across mode switches and a <code>reset()</code>, which is
+ * checked with back references to objects written before. Arrays are
+ * written first after a mode switch, both as an object array and as a
+ * primitive array with the header calls that IOGenerator-generated code
+ * makes, so the mode switch must not be lost in front of them.
+ */
+public class TreeModeTest {
+
+    static class Pair implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Object left;
+
+        final Object right;
+
+        Pair(Object left, Object right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    static class Leaf implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        final String name;
+
+        Leaf(int value) {
+            this.value = value;
+            this.name = "leaf" + value;
+        }
+    }
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("TreeModeTest failed: " + msg);
+        }
+    }
+
+    static void checkLeaf(Object o, int value) {
+        Leaf l = (Leaf) o;
+        check(l.value == value && l.name.equals("leaf" + value),
+                "leaf " + value);
+    }
+
+    static IbisSerializationOutputStream writer(ByteArrayOutputStream b)
+            throws Exception {
+        return new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(b, 4096));
+    }
+
+    static IbisSerializationInputStream reader(ByteArrayOutputStream b)
+            throws Exception {
+        return new IbisSerializationInputStream(new BufferedArrayInputStream(
+                new ByteArrayInputStream(b.toByteArray()), 4096));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] ints = { 1, 2, 3, 4, 5 };
+        Leaf shared = new Leaf(1);
+        Leaf other = new Leaf(2);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IbisSerializationOutputStream out = writer(bos);
+        // A primitive array first, written as generated code does.
+        out.setTreeMode(true);
+        check(out.writeKnownArrayHeader(ints, Constants.TYPE_INT) == 1,
+                "array header");
+        out.writeInt(ints.length);
+        out.writeArrayInt(ints, 0, ints.length);
+        out.writeObject(new Pair(shared, shared));
+        out.setTreeMode(false);
+        out.writeObject(new Pair(shared, shared));
+        out.writeTree(new Object[] { shared, shared, other });
+        out.writeObject(new Pair(other, shared));
+        out.reset();
+        out.writeObject(new Pair(shared, other));
+        out.writeTree(new Pair(shared, shared));
+        out.writeObject(shared);
+        out.close();
+
+        IbisSerializationInputStream in = reader(bos);
+        check(in.readKnownTypeHeader() == -1, "array header read");
+        int[] r = in.readArrayInt();
+        check(r.length == ints.length, "array length");
+        for (int i = 0; i < ints.length; i++) {
+            check(r[i] == ints[i], "array element " + i);
+        }
+
+        Pair p = (Pair) in.readObject();
+        checkLeaf(p.left, 1);
+        checkLeaf(p.right, 1);
+        check(p.left != p.right, "tree mode shared a subobject");
+
+        p = (Pair) in.readObject();
+        checkLeaf(p.left, 1);
+        check(p.left == p.right, "graph mode lost the sharing");
+        Leaf sharedRead = (Leaf) p.left;
+
+        Object[] a = (Object[]) in.readObject();
+        checkLeaf(a[0], 1);
+        checkLeaf(a[1], 1);
+        checkLeaf(a[2], 2);
+        check(a[0] != a[1] && a[0] != sharedRead,
+                "tree mode array shared a subobject");
+
+        // The leaf written in graph mode before the tree write is still
+        // referred to by handle, so the handles are aligned.
+        p = (Pair) in.readObject();
+        checkLeaf(p.left, 2);
+        check(p.right == sharedRead, "handles misaligned after tree write");
+        Leaf otherRead = (Leaf) p.left;
+
+        p = (Pair) in.readObject();
+        checkLeaf(p.left, 1);
+        checkLeaf(p.right, 2);
+        check(p.left != sharedRead && p.right != otherRead,
+                "reset did not clear the handles");
+        Leaf sharedAfterReset = (Leaf) p.left;
+
+        p = (Pair) in.readObject();
+        check(p.left != p.right && p.left != sharedAfterReset,
+                "tree mode after reset shared a subobject");
+        checkLeaf(p.left, 1);
+        checkLeaf(p.right, 1);
+
+        check(in.readObject() == sharedAfterReset,
+                "handles misaligned after reset and tree write");
+        in.close();
+
+        // An object array as the very first write, in tree mode.
+        bos = new ByteArrayOutputStream();
+        out = writer(bos);
+        out.writeTree(new Object[] { shared, shared });
+        out.writeObject(new Object[] { shared, shared });
+        out.close();
+        in = reader(bos);
+        a = (Object[]) in.readObject();
+        checkLeaf(a[0], 1);
+        check(a[0] != a[1], "tree mode array shared a subobject");
+        a = (Object[]) in.readObject();
+        checkLeaf(a[0], 1);
+        check(a[0] == a[1], "graph mode array lost the sharing");
+        in.close();
+
+        System.out.println("TreeModeTest: OK");
+    }
+}
@@ -0,0 +1,111 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+import ibis.io.Replacer;
+import ibis.io.test.TreeShapes.Holder;
+import ibis.io.test.TreeShapes.Label;
+import ibis.io.test.TreeShapes.Point;
+import ibis.io.test.TreeShapes.Segment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes and reads objects of classes that are rewritten by the
+ * IOGenerator with <code>-tree</code>, so that fields of tree-shaped
+ * types are written without handles. A primitive array or a final class
+ * that is referenced by two such fields comes back as two copies, while
+ * references through other fields keep their identity. With a replacer
+ * installed, the generated code writes those fields with
+ * <code>writeTree</code>, which must give the same result. The test
+ * target compiles the classes of {@link TreeShapes} for Java 7, which
+ * BCEL can read, and rewrites them before running this test.
+ */
+public class TreeRewriteTest {
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("TreeRewriteTest failed: " + msg);
+        }
+    }
+
+    static Holder holder() {
+        Holder h = new Holder();
+        h.a = new int[] { 1, 2, 3 };
+        h.b = h.a;
+        h.p = new Point(4, 5);
+        h.q = h.p;
+        h.segment = new Segment(h.p, h.p, new double[] { 0.5 });
+        h.other = h.a;
+        h.label = new Label("label");
+        h.self = h;
+        return h;
+    }
+
+    static void roundTrip(Replacer replacer, String label) throws Exception {
+        Holder h = holder();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IbisSerializationOutputStream out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(bos, 4096));
+        if (replacer != null) {
+            out.setReplacer(replacer);
+        }
+        out.writeObject(h);
+        out.writeObject(h.label);
+        out.writeObject(h);
+        out.close();
+
+        IbisSerializationInputStream in = new IbisSerializationInputStream(
+                new BufferedArrayInputStream(new ByteArrayInputStream(
+                        bos.toByteArray()), 4096));
+        Holder r = (Holder) in.readObject();
+        Label l = (Label) in.readObject();
+        check(in.readObject() == r, "second write of the holder");
+        in.close();
+
+        String with = replacer == null ? "" : " with a replacer";
+
+        // Aliasing through tree-shaped fields is lost.
+        check(Arrays.equals(r.a, h.a) && Arrays.equals(r.b, h.a),
+                "arrays" + with);
+        check(r.a != r.b, "array aliasing kept" + with);
+        check(r.p.x == 4 && r.p.y == 5 && r.q.x == 4 && r.q.y == 5,
+                "points" + with);
+        check(r.p != r.q, "point aliasing kept" + with);
+        check(r.segment.from != r.segment.to && r.segment.from != r.p
+                && r.segment.to.y == 5 && r.segment.weights[0] == 0.5,
+                "segment" + with);
+
+        // Other fields keep their handles.
+        check(Arrays.equals((int[]) r.other, h.a) && r.other != r.a
+                && r.other != r.b, "array through an object field" + with);
+        check(r.label == l && l.text.equals(label), "label" + with);
+        check(r.self == r, "cycle" + with);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Class<?>[] rewritten = { Point.class, Segment.class, Holder.class };
+        for (int i = 0; i < rewritten.length; i++) {
+            check(ibis.io.Serializable.class.isAssignableFrom(rewritten[i]),
+                    rewritten[i].getName() + " is not rewritten");
+        }
+
+        roundTrip(null, "label");
+
+        // The replacer makes the generated code take its slow path.
+        final Label replaced = new Label("replaced");
+        roundTrip(new Replacer() {
+            public Object replace(Object v) {
+                return v instanceof Label ? replaced : v;
+            }
+        }, "replaced");
+
+        System.out.println("TreeRewriteTest: OK");
+    }
+}
@@ -0,0 +1,74 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import java.io.Serializable;
+
+/**
+ * The classes written by {@link TreeRewriteTest}. Point and Segment are
+ * final and only have fields of primitive, string or tree-shaped types, so
+ * the IOGenerator with <code>-tree</code> writes fields of these types
+ * without handles.
+ */
+class TreeShapes {
+
+    static final class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int x;
+
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static final class Segment implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Point from;
+
+        final Point to;
+
+        final double[] weights;
+
+        Segment(Point from, Point to, double[] weights) {
+            this.from = from;
+            this.to = to;
+            this.weights = weights;
+        }
+    }
+
+    /** Not final, so not tree-shaped. */
+    static class Label implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String text;
+
+        Label(String text) {
+            this.text = text;
+        }
+    }
+
+    static class Holder implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int[] a;
+
+        int[] b;
+
+        Point p;
+
+        Point q;
+
+        Segment segment;
+
+        Object other;
+
+        Label label;
+
+        Holder self;
+    }
+}
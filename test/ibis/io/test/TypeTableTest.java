@@ -0,0 +1,103 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+
+/**
+ * Writes objects of more types than the direct type table of a stream
+ * holds, and reads them back. The types are arrays of up to 250
+ * dimensions of a few classes, so that most of them get a class index
+ * beyond the direct table and go to the overflow table. The objects are
+ * written three times: the second time the type numbers must be found in
+ * the tables, and the third time, after <code>reset(true)</code>, the
+ * types must be sent by name again.
+ */
+public class TypeTableTest {
+
+    static final Class<?>[] COMPONENTS = { String.class, Integer.class,
+            Long.class, Double.class, Object.class, TypeTableTest.class };
+
+    static final int DIMENSIONS = 250;
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("TypeTableTest failed: " + msg);
+        }
+    }
+
+    /** Returns a new empty array of each of the types. */
+    static Object[] objects() {
+        Object[] objects = new Object[COMPONENTS.length * DIMENSIONS];
+        for (int c = 0; c < COMPONENTS.length; c++) {
+            for (int d = 1; d <= DIMENSIONS; d++) {
+                objects[c * DIMENSIONS + d - 1] = Array.newInstance(
+                        COMPONENTS[c], new int[d]);
+            }
+        }
+        return objects;
+    }
+
+    static int write(IbisSerializationOutputStream out,
+            ByteArrayOutputStream bos) throws Exception {
+        int before = bos.size();
+        Object[] objects = objects();
+        for (int i = 0; i < objects.length; i++) {
+            out.writeObject(objects[i]);
+        }
+        out.flush();
+        return bos.size() - before;
+    }
+
+    static Object field(Object o, String name) throws Exception {
+        Field f = IbisSerializationOutputStream.class.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(o);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IbisSerializationOutputStream out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(bos, 4096));
+        int first = write(out, bos);
+        int second = write(out, bos);
+        check(((Integer) field(out, "overflow_count")).intValue() > 0,
+                "no types in the overflow table");
+        check(((int[]) field(out, "type_numbers")).length <= 1024,
+                "direct type table of "
+                        + ((int[]) field(out, "type_numbers")).length);
+        out.reset(true);
+        int third = write(out, bos);
+        out.close();
+
+        // The names are only sent the first time, and after the reset.
+        check(second < first / 2, "types sent again, " + first + " and "
+                + second + " bytes");
+        check(third > 2 * second, "types not sent after the reset, "
+                + second + " and " + third + " bytes");
+
+        IbisSerializationInputStream in = new IbisSerializationInputStream(
+                new BufferedArrayInputStream(new ByteArrayInputStream(
+                        bos.toByteArray()), 4096));
+        Object[] expected = objects();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < expected.length; i++) {
+                Object o = in.readObject();
+                check(o.getClass() == expected[i].getClass(), "round "
+                        + round + ", object " + i + " is a "
+                        + o.getClass().getName());
+            }
+        }
+        in.close();
+
+        System.out.println("TypeTableTest: OK");
+    }
+}
@@ -0,0 +1,124 @@
+/* $Id$ */
+
+package ibis.io.test;
+
+import ibis.io.BufferedArrayInputStream;
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationInputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+
+/**
+ * Writes a stream of object graphs with a handle window that is much
+ * smaller than the graphs, and reads it back. Each graph is a cycle that
+ * spans more handles than the window, which must still be written once
+ * and come back closed. A chain of events, each referring to the one
+ * before it, checks that references to recent objects are kept across
+ * writes. This test is run with <code>ibis.io.handle.window</code> set
+ * to 16, both with and without
+ * <code>ibis.io.serialization.iterative</code>.
+ */
+public class WindowTest {
+
+    static final int CYCLE = 100;
+
+    static final int CYCLES = 20;
+
+    static final int EVENTS = 10000;
+
+    static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int id;
+
+        Node next;
+
+        Node(int id) {
+            this.id = id;
+        }
+    }
+
+    static class Event implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int seq;
+
+        final Event prev;
+
+        final String name;
+
+        Event(int seq, Event prev) {
+            this.seq = seq;
+            this.prev = prev;
+            this.name = "event" + seq;
+        }
+    }
+
+    static void check(boolean b, String msg) {
+        if (! b) {
+            throw new Error("WindowTest failed: " + msg);
+        }
+    }
+
+    static Node cycle(int round) {
+        Node head = new Node(round * CYCLE);
+        Node n = head;
+        for (int i = 1; i < CYCLE; i++) {
+            n.next = new Node(round * CYCLE + i);
+            n = n.next;
+        }
+        n.next = head;
+        return head;
+    }
+
+    public static void main(String[] args) throws Exception {
+        check(System.getProperty("ibis.io.handle.window") != null,
+                "ibis.io.handle.window is not set");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        IbisSerializationOutputStream out = new IbisSerializationOutputStream(
+                new BufferedArrayOutputStream(bos, 4096));
+        for (int r = 0; r < CYCLES; r++) {
+            out.writeObject(cycle(r));
+        }
+        Event last = null;
+        for (int i = 0; i < EVENTS; i++) {
+            last = new Event(i, last);
+            out.writeObject(last);
+        }
+        out.close();
+
+        IbisSerializationInputStream in = new IbisSerializationInputStream(
+                new BufferedArrayInputStream(
+                        new ByteArrayInputStream(bos.toByteArray()), 4096));
+        for (int r = 0; r < CYCLES; r++) {
+            Node head = (Node) in.readObject();
+            Node n = head;
+            for (int i = 0; i < CYCLE; i++) {
+                check(n.id == r * CYCLE + i, "cycle " + r + ", node " + i);
+                n = n.next;
+            }
+            check(n == head, "cycle " + r + " is not closed");
+        }
+        Event prev = null;
+        for (int i = 0; i < EVENTS; i++) {
+            Event e = (Event) in.readObject();
+            check(e.seq == i && e.name.equals("event" + i), "event " + i);
+            check(e.prev == prev, "event " + i + " lost its predecessor");
+            prev = e;
+        }
+        in.close();
+
+        // Each event is written once, so the stream only grows with the
+        // new data, and does not repeat the chain of older events.
+        check(bos.size() < (CYCLES * CYCLE + EVENTS) * 64,
+                "stream of " + bos.size() + " bytes");
+
+        System.out.println("WindowTest (iterative "
+                + System.getProperty("ibis.io.serialization.iterative")
+                + "): OK");
+    }
+}
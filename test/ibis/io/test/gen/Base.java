@@ -0,0 +1,26 @@
+/* $Id$ */
+
+package ibis.io.test.gen;
+
+import java.io.Serializable;
+
+/**
+ * A serializable class with a protected nested class, for
+ * {@link ibis.io.test.GenerateTest}. A subclass in another package can
+ * declare a field of the nested class, but the nested class is not
+ * accessible from that package in general, so no serializer is generated
+ * for such a subclass.
+ */
+public class Base implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    protected static class Inner implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final int value;
+
+        public Inner(int value) {
+            this.value = value;
+        }
+    }
+}